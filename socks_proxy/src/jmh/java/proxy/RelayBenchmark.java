@@ -0,0 +1,116 @@
+package proxy;
+
+import org.openjdk.jmh.annotations.*;
+import proxy.accesslog.CloseReason;
+import proxy.metrics.ProxyMetrics;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+// one established loopback tunnel driven directly through ConnectionManager, without a selector loop
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RelayBenchmark {
+    private static final int BUFFER_LENGTH = 8192;
+    private static final int BUFFERS_PER_SLAB = 16;
+    private static final int SOCKS_REPLY_LENGTH = 10;
+
+    @Param({"512", "4096", "16384"})
+    private int chunkLength;
+
+    private Selector selector;
+    private SocketChannel userChannel;
+    private SocketChannel originChannel;
+    private SelectionKey clientKey;
+    private SelectionKey serverKey;
+    private ConnectionManager connectionManager;
+
+    private ByteBuffer chunk;
+    private ByteBuffer originBuffer;
+    private ByteBuffer sourceBuffer = ByteBuffer.allocateDirect(BUFFER_LENGTH);
+    private ByteBuffer destinationBuffer = ByteBuffer.allocateDirect(BUFFER_LENGTH);
+
+    @Setup
+    public void setUp() throws IOException {
+        selector = Selector.open();
+        connectionManager = new ConnectionManager(
+                new BufferPool(BUFFER_LENGTH, BUFFER_LENGTH, BUFFERS_PER_SLAB, new MemoryBudget(Long.MAX_VALUE)),
+                new ProxyMetrics(), new TimingWheel(64, 100), null, null, 0, 0
+        );
+        chunk = ByteBuffer.allocateDirect(chunkLength);
+        originBuffer = ByteBuffer.allocateDirect(chunkLength);
+
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            userChannel = SocketChannel.open(listener.getLocalAddress());
+            SocketChannel proxyClientChannel = listener.accept();
+            proxyClientChannel.configureBlocking(false);
+            clientKey = proxyClientChannel.register(selector, SelectionKey.OP_READ);
+
+            SocketChannel proxyServerChannel = SocketChannel.open(listener.getLocalAddress());
+            originChannel = listener.accept();
+            originChannel.configureBlocking(false);
+            proxyServerChannel.configureBlocking(false);
+            serverKey = proxyServerChannel.register(selector, SelectionKey.OP_READ);
+        }
+
+        connectionManager.addClientConnection(clientKey);
+        connectionManager.addServerConnection(serverKey, clientKey);
+        connectionManager.notifyClientOfRequestSuccess(clientKey);
+        connectionManager.writeData(clientKey);
+
+        ByteBuffer reply = ByteBuffer.allocate(SOCKS_REPLY_LENGTH);
+        while (reply.hasRemaining()) {
+            userChannel.read(reply);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        connectionManager.closeConnection(clientKey, CloseReason.COMPLETED);
+        clientKey.channel().close();
+        serverKey.channel().close();
+        userChannel.close();
+        originChannel.close();
+        selector.close();
+    }
+
+    // read from the client socket and write to the server socket through the shared buffer
+    @Benchmark
+    public int relayChunkUpstream() throws IOException {
+        chunk.clear();
+        while (chunk.hasRemaining()) {
+            userChannel.write(chunk);
+        }
+
+        int relayedBytesNumber = 0;
+        while (relayedBytesNumber < chunkLength) {
+            connectionManager.readData(clientKey);
+            connectionManager.writeData(serverKey);
+
+            originBuffer.clear();
+            relayedBytesNumber += originChannel.read(originBuffer);
+        }
+        return relayedBytesNumber;
+    }
+
+    // what every chunk would cost on top of the syscalls if the directions had separate buffers
+    @Benchmark
+    public ByteBuffer copyChunkBetweenBuffers() {
+        sourceBuffer.clear().limit(Math.min(chunkLength, BUFFER_LENGTH));
+        destinationBuffer.clear();
+        return destinationBuffer.put(sourceBuffer);
+    }
+}
@@ -0,0 +1,85 @@
+package proxy.dns;
+
+import org.openjdk.jmh.annotations.*;
+import org.xbill.DNS.*;
+import org.xbill.DNS.Record;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DnsCodecBenchmark {
+    private static final String HOSTNAME = "static.cdn.example.com";
+    private static final int QUERY_ID = 0x1234;
+    private static final int ANSWERS_NUMBER = 4;
+    private static final long TTL = 300;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(65536);
+    private DnsWireResponse wireResponse = new DnsWireResponse();
+    private byte[] responseMessage;
+
+    @Setup
+    public void setUp() throws IOException {
+        Name name = Name.fromString(HOSTNAME + ".");
+        Message response = Message.newQuery(Record.newRecord(name, Type.A, DClass.IN));
+        response.getHeader().setID(QUERY_ID);
+        response.getHeader().setFlag(Flags.QR);
+        response.getHeader().setFlag(Flags.RA);
+        for (int i = 1; i <= ANSWERS_NUMBER; ++i) {
+            InetAddress address = InetAddress.getByAddress(new byte[]{93, (byte) 184, (byte) 216, (byte) i});
+            response.addRecord(new ARecord(name, DClass.IN, TTL, address), Section.ANSWER);
+        }
+        responseMessage = response.toWire();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeQueryWithWireCodec() {
+        buffer.clear();
+        DnsWireCodec.encodeQuery(buffer, QUERY_ID, HOSTNAME, DnsWireCodec.TYPE_A);
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] encodeQueryWithDnsjava() throws TextParseException {
+        Record aRecord = Record.newRecord(Name.fromString(HOSTNAME + "."), Type.A, DClass.IN);
+        Message requestMessage = Message.newQuery(aRecord);
+        requestMessage.getHeader().setID(QUERY_ID);
+        return requestMessage.toWire();
+    }
+
+    @Benchmark
+    public int parseResponseWithWireCodec() {
+        fillBuffer();
+        DnsWireCodec.parseResponse(buffer, wireResponse);
+        return wireResponse.getAddressesNumber();
+    }
+
+    @Benchmark
+    public List<InetAddress> parseResponseWithDnsjava() throws IOException {
+        fillBuffer();
+        byte[] message = new byte[buffer.remaining()];
+        buffer.get(message);
+
+        Message response = new Message(message);
+        return Arrays.stream(response.getSectionArray(Section.ANSWER))
+                .filter(record -> record.getType() == Type.A)
+                .map(record -> ((ARecord) record).getAddress())
+                .collect(Collectors.toList());
+    }
+
+    private void fillBuffer() {
+        buffer.clear();
+        buffer.put(responseMessage);
+        buffer.flip();
+    }
+}
@@ -0,0 +1,37 @@
+package proxy.socks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HostnameDecodingBenchmark {
+    @Param({"example.com", "static.cdn.example.com", "a-fairly-long-subdomain-label.eu-west-1.storage.example.com"})
+    private String hostname;
+
+    private byte[] hostnameBytes;
+
+    @Setup
+    public void setUp() {
+        hostnameBytes = hostname.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // the decoding done by the parser for domain name requests
+    @Benchmark
+    public String decodeWithCharsetDecoder() {
+        char[] hostname = StandardCharsets.US_ASCII.decode(ByteBuffer.wrap(hostnameBytes)).array();
+        return String.copyValueOf(hostname);
+    }
+
+    @Benchmark
+    public String decodeWithStringConstructor() {
+        return new String(hostnameBytes, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,68 @@
+package proxy.socks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SocksParsingBenchmark {
+    private static final byte[] GREETING = {0x05, 0x02, 0x00, 0x02};
+    private static final byte[] IPV4_REQUEST = {0x05, 0x01, 0x00, 0x01, 93, (byte) 184, (byte) 216, 34, 0x01, (byte) 0xBB};
+    private static final String HOSTNAME = "static.cdn.example.com";
+
+    @Param({"IPV4", "DOMAIN_NAME"})
+    private String addressType;
+
+    private ByteBuffer readBuffer;
+    private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(8192);
+    private byte[] handshake;
+
+    @Setup
+    public void setUp() {
+        byte[] request = IPV4_REQUEST;
+        if ("DOMAIN_NAME".equals(addressType)) {
+            byte[] hostnameBytes = HOSTNAME.getBytes(StandardCharsets.US_ASCII);
+            ByteBuffer domainNameRequest = ByteBuffer.allocate(7 + hostnameBytes.length);
+            domainNameRequest.put(new byte[]{0x05, 0x01, 0x00, 0x03, (byte) hostnameBytes.length});
+            domainNameRequest.put(hostnameBytes).putShort((short) 443);
+            request = domainNameRequest.array();
+        }
+
+        handshake = new byte[GREETING.length + request.length];
+        System.arraycopy(GREETING, 0, handshake, 0, GREETING.length);
+        System.arraycopy(request, 0, handshake, GREETING.length, request.length);
+        readBuffer = ByteBuffer.allocateDirect(handshake.length);
+        readBuffer.put(handshake);
+    }
+
+    // greeting and request arrive together, as sent by a pipelining client
+    @Benchmark
+    public SocksSession parseWholeHandshake() {
+        SocksSession session = new SocksSession();
+        readBuffer.clear();
+        writeBuffer.clear();
+        SocksProtocol.fillHandShakeInfo(session, readBuffer, writeBuffer);
+        return session;
+    }
+
+    // the worst case for the field-by-field parser: every byte comes in its own read
+    @Benchmark
+    public SocksSession parseFragmentedHandshake() {
+        SocksSession session = new SocksSession();
+        writeBuffer.clear();
+        readBuffer.clear();
+        // a field split across reads stays unconsumed until the rest of it arrives
+        for (int i = 1; i <= handshake.length; ++i) {
+            readBuffer.limit(i);
+            SocksProtocol.fillHandShakeInfo(session, readBuffer, writeBuffer);
+        }
+        return session;
+    }
+}
@@ -0,0 +1,38 @@
+package proxy.loadtest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+// writes every received byte back, a slow reader is backpressured by pausing the reads
+class EchoServer extends LoopbackServer {
+    EchoServer() throws IOException {
+        super();
+    }
+
+    @Override
+    boolean handleRead(SocketChannel socketChannel, ByteBuffer buffer, SelectionKey key) throws IOException {
+        if (socketChannel.read(buffer) == -1) {
+            return false;
+        }
+
+        handleWrite(socketChannel, buffer, key);
+        return true;
+    }
+
+    @Override
+    void handleWrite(SocketChannel socketChannel, ByteBuffer buffer, SelectionKey key) throws IOException {
+        buffer.flip();
+        socketChannel.write(buffer);
+        buffer.compact();
+
+        if (buffer.position() == 0) {
+            key.interestOps(SelectionKey.OP_READ);
+        } else if (!buffer.hasRemaining()) {
+            key.interestOps(SelectionKey.OP_WRITE);
+        } else {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+}
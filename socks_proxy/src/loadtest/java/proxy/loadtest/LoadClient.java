@@ -0,0 +1,319 @@
+package proxy.loadtest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// keeps a fixed number of SOCKS5 connections in flight, every finished one is replaced by a new one
+class LoadClient implements Runnable {
+    private static final long SELECT_TIMEOUT_MILLIS = 100;
+    private static final int BUFFER_LENGTH = 65536;
+
+    private static final byte SOCKS_VERSION = 0x05;
+    private static final byte NO_AUTHENTICATION = 0x00;
+    private static final byte CONNECT_COMMAND = 0x01;
+    private static final byte IPV4_ADDRESS_TYPE = 0x01;
+    private static final byte DOMAIN_NAME_ADDRESS_TYPE = 0x03;
+    private static final byte IPV6_ADDRESS_TYPE = 0x04;
+    private static final byte[] GREETING = {SOCKS_VERSION, 1, NO_AUTHENTICATION};
+    private static final byte[] LOOPBACK_ADDRESS = {127, 0, 0, 1};
+
+    private enum State {
+        CONNECTING,
+        GREETING,
+        REQUEST,
+        RELAYING
+    }
+
+    private static class Connection {
+        private SocketChannel socketChannel;
+        private SelectionKey selectionKey;
+        private long startTimeNanos;
+        private State state = State.CONNECTING;
+
+        private ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_LENGTH);
+        private ByteBuffer writeBuffer;
+        private String domainName;
+        private long unsentBytesNumber;
+        private long receivedBytesNumber;
+    }
+
+    private Selector selector;
+    private LoadOptions options;
+    private LoadStats stats;
+    private InetSocketAddress proxySocketAddress;
+    private int targetPort;
+    private int connectionsNumber;
+
+    private ByteBuffer payload;
+    private long connectionTimeoutNanos;
+    private Set<Connection> connections = new HashSet<>();
+    private volatile boolean isStopped = false;
+
+    LoadClient(LoadOptions options, LoadStats stats, InetSocketAddress proxySocketAddress,
+               int targetPort, int connectionsNumber) throws IOException {
+        selector = Selector.open();
+        this.options = options;
+        this.stats = stats;
+        this.proxySocketAddress = proxySocketAddress;
+        this.targetPort = targetPort;
+        this.connectionsNumber = connectionsNumber;
+
+        payload = ByteBuffer.allocate(Math.min(options.getPayloadBytes(), BUFFER_LENGTH)).asReadOnlyBuffer();
+        connectionTimeoutNanos = TimeUnit.SECONDS.toNanos(options.getConnectionTimeoutSeconds());
+    }
+
+    void stop() {
+        isStopped = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (int i = 0; i < connectionsNumber; ++i) {
+                openConnection();
+            }
+
+            while (!isStopped) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+                while (keyIterator.hasNext()) {
+                    SelectionKey key = keyIterator.next();
+                    keyIterator.remove();
+                    if (key.isValid()) {
+                        handleEvents(key, (Connection) key.attachment());
+                    }
+                }
+                reapStuckConnections();
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        } finally {
+            connections.forEach(this::closeConnection);
+            connections.clear();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    private void openConnection() {
+        Connection connection = new Connection();
+        connection.startTimeNanos = System.nanoTime();
+        connection.unsentBytesNumber = options.getPayloadBytes();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < options.getDomainRatio()) {
+            connection.domainName = "host-" + random.nextInt(options.getDomainNamesNumber()) + ".loadtest";
+        }
+
+        try {
+            connection.socketChannel = SocketChannel.open();
+            connection.socketChannel.configureBlocking(false);
+            connection.socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connection.selectionKey = connection.socketChannel.register(selector, SelectionKey.OP_CONNECT, connection);
+            connections.add(connection);
+            if (connection.socketChannel.connect(proxySocketAddress)) {
+                handleEvents(connection.selectionKey, connection);
+            }
+        } catch (IOException e) {
+            failConnection(connection);
+        }
+    }
+
+    private void handleEvents(SelectionKey key, Connection connection) {
+        try {
+            if (connection.state == State.CONNECTING) {
+                if (!connection.socketChannel.finishConnect()) {
+                    return;
+                }
+                connection.state = State.GREETING;
+                connection.writeBuffer = ByteBuffer.wrap(GREETING);
+                // a pipelining client sends the request right away instead of waiting for the method reply
+                if (options.isPipelined()) {
+                    ByteBuffer request = createRequest(connection.domainName);
+                    connection.writeBuffer = ByteBuffer.allocate(GREETING.length + request.remaining())
+                            .put(GREETING).put(request).flip();
+                }
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+
+            if (key.isReadable()) {
+                handleRead(connection);
+            }
+
+            if (key.isValid() && (key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                handleWrite(connection);
+            }
+        } catch (IOException | CancelledKeyException e) {
+            failConnection(connection);
+        }
+    }
+
+    private void handleRead(Connection connection) throws IOException {
+        ByteBuffer readBuffer = connection.readBuffer;
+        int bytesRead = connection.socketChannel.read(readBuffer);
+        readBuffer.flip();
+
+        if (connection.state == State.GREETING && readBuffer.remaining() >= 2) {
+            if (readBuffer.get() != SOCKS_VERSION || readBuffer.get() != NO_AUTHENTICATION) {
+                throw new IOException("Unexpected greeting reply");
+            }
+            connection.state = State.REQUEST;
+            if (!options.isPipelined()) {
+                connection.writeBuffer = createRequest(connection.domainName);
+                connection.selectionKey.interestOpsOr(SelectionKey.OP_WRITE);
+            }
+        }
+
+        // the reply to a pipelined request may arrive along with the method reply
+        if (connection.state == State.REQUEST) {
+            int replyLength = getReplyLength(readBuffer);
+            if (replyLength != -1 && readBuffer.remaining() >= replyLength) {
+                if (readBuffer.get(readBuffer.position() + 1) != 0) {
+                    throw new IOException("The proxy refused the request");
+                }
+                readBuffer.position(readBuffer.position() + replyLength);
+                stats.recordHandshake(System.nanoTime() - connection.startTimeNanos);
+
+                connection.state = State.RELAYING;
+                connection.writeBuffer = null;
+                connection.selectionKey.interestOpsOr(SelectionKey.OP_WRITE);
+            }
+        }
+
+        if (connection.state == State.RELAYING) {
+            consumeRelayedData(connection, readBuffer);
+        }
+        readBuffer.compact();
+
+        if (bytesRead == -1 && connections.contains(connection)) {
+            throw new IOException("Unexpected end of stream");
+        }
+    }
+
+    private void consumeRelayedData(Connection connection, ByteBuffer readBuffer) throws IOException {
+        if (options.getWorkload() == LoadOptions.Workload.ECHO) {
+            int bytesNumber = readBuffer.remaining();
+            readBuffer.position(readBuffer.limit());
+            connection.receivedBytesNumber += bytesNumber;
+            stats.addRelayedBytes(bytesNumber);
+            if (connection.receivedBytesNumber >= options.getPayloadBytes()) {
+                completeConnection(connection);
+            }
+        } else if (readBuffer.remaining() >= SinkServer.REPLY_LENGTH) {
+            if (readBuffer.getLong() != options.getPayloadBytes()) {
+                throw new IOException("The sink received a wrong number of bytes");
+            }
+            completeConnection(connection);
+        }
+    }
+
+    private void handleWrite(Connection connection) throws IOException {
+        SocketChannel socketChannel = connection.socketChannel;
+        if (connection.state != State.RELAYING) {
+            socketChannel.write(connection.writeBuffer);
+            if (!connection.writeBuffer.hasRemaining()) {
+                connection.selectionKey.interestOpsAnd(~SelectionKey.OP_WRITE);
+            }
+            return;
+        }
+
+        while (connection.unsentBytesNumber > 0) {
+            ByteBuffer chunk = payload.duplicate();
+            chunk.limit((int) Math.min(chunk.capacity(), connection.unsentBytesNumber));
+            int bytesWritten = socketChannel.write(chunk);
+            connection.unsentBytesNumber -= bytesWritten;
+            stats.addRelayedBytes(bytesWritten);
+            if (chunk.hasRemaining()) {
+                return;
+            }
+        }
+
+        connection.selectionKey.interestOpsAnd(~SelectionKey.OP_WRITE);
+        // the sink answers only after the upload is half-closed
+        if (options.getWorkload() == LoadOptions.Workload.SINK) {
+            socketChannel.shutdownOutput();
+        }
+    }
+
+    private ByteBuffer createRequest(String domainName) {
+        ByteBuffer request = ByteBuffer.allocate(262);
+        request.put(SOCKS_VERSION).put(CONNECT_COMMAND).put((byte) 0);
+        if (domainName != null) {
+            byte[] domainNameBytes = domainName.getBytes(StandardCharsets.US_ASCII);
+            request.put(DOMAIN_NAME_ADDRESS_TYPE).put((byte) domainNameBytes.length).put(domainNameBytes);
+        } else {
+            request.put(IPV4_ADDRESS_TYPE).put(LOOPBACK_ADDRESS);
+        }
+        request.putShort((short) targetPort);
+        return request.flip();
+    }
+
+    private static int getReplyLength(ByteBuffer reply) {
+        if (reply.remaining() < 5) {
+            return -1;
+        }
+
+        switch (reply.get(reply.position() + 3)) {
+            case IPV4_ADDRESS_TYPE:
+                return 10;
+            case IPV6_ADDRESS_TYPE:
+                return 22;
+            case DOMAIN_NAME_ADDRESS_TYPE:
+                return 7 + (reply.get(reply.position() + 4) & 0xFF);
+            default:
+                return 0;
+        }
+    }
+
+    private void reapStuckConnections() {
+        long currentTimeNanos = System.nanoTime();
+        List<Connection> stuckConnections = new ArrayList<>();
+        for (Connection connection: connections) {
+            if (currentTimeNanos - connection.startTimeNanos > connectionTimeoutNanos) {
+                stuckConnections.add(connection);
+            }
+        }
+        stuckConnections.forEach(this::failConnection);
+    }
+
+    private void completeConnection(Connection connection) {
+        stats.recordCompletedConnection(System.nanoTime() - connection.startTimeNanos);
+        finishConnection(connection);
+    }
+
+    private void failConnection(Connection connection) {
+        if (connections.contains(connection)) {
+            stats.recordFailedConnection();
+            finishConnection(connection);
+        }
+    }
+
+    private void finishConnection(Connection connection) {
+        connections.remove(connection);
+        closeConnection(connection);
+        if (!isStopped) {
+            openConnection();
+        }
+    }
+
+    private void closeConnection(Connection connection) {
+        if (connection.selectionKey != null) {
+            connection.selectionKey.cancel();
+        }
+        try {
+            connection.socketChannel.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
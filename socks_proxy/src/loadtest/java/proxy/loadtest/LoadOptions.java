@@ -0,0 +1,140 @@
+package proxy.loadtest;
+
+import java.net.InetSocketAddress;
+
+class LoadOptions {
+    enum Workload {
+        ECHO,
+        SINK
+    }
+
+    // no proxy address means an in-process proxy on a free loopback port
+    private InetSocketAddress proxySocketAddress;
+    private boolean isBlockingEngine = false;
+    private int dnsPort = 0;
+
+    private int clientsNumber = 1000;
+    private int threadsNumber = 2;
+    private int warmupSeconds = 2;
+    private int durationSeconds = 10;
+    private int connectionTimeoutSeconds = 30;
+
+    private Workload workload = Workload.ECHO;
+    private int payloadBytes = 16384;
+    private boolean isPipelined = false;
+    private double domainRatio = 0.5;
+    private int domainNamesNumber = 256;
+
+    static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (String arg: args) {
+            int separatorIndex = arg.indexOf('=');
+            if (!arg.startsWith("--") || separatorIndex == -1) {
+                throw new IllegalArgumentException("Expected --name=value, got \"" + arg + "\"");
+            }
+
+            String name = arg.substring(2, separatorIndex);
+            String value = arg.substring(separatorIndex + 1);
+            switch (name) {
+                case "proxy":
+                    int portSeparatorIndex = value.lastIndexOf(':');
+                    options.proxySocketAddress = new InetSocketAddress(
+                            value.substring(0, portSeparatorIndex), Integer.parseInt(value.substring(portSeparatorIndex + 1))
+                    );
+                    break;
+                case "engine":
+                    options.isBlockingEngine = "blocking".equals(value);
+                    break;
+                case "dns-port":
+                    options.dnsPort = Integer.parseInt(value);
+                    break;
+                case "clients":
+                    options.clientsNumber = Integer.parseInt(value);
+                    break;
+                case "threads":
+                    options.threadsNumber = Integer.parseInt(value);
+                    break;
+                case "warmup-s":
+                    options.warmupSeconds = Integer.parseInt(value);
+                    break;
+                case "duration-s":
+                    options.durationSeconds = Integer.parseInt(value);
+                    break;
+                case "connection-timeout-s":
+                    options.connectionTimeoutSeconds = Integer.parseInt(value);
+                    break;
+                case "workload":
+                    options.workload = Workload.valueOf(value.toUpperCase());
+                    break;
+                case "payload-bytes":
+                    options.payloadBytes = Integer.parseInt(value);
+                    break;
+                case "pipelined":
+                    options.isPipelined = Boolean.parseBoolean(value);
+                    break;
+                case "domain-ratio":
+                    options.domainRatio = Double.parseDouble(value);
+                    break;
+                case "domain-names":
+                    options.domainNamesNumber = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option \"" + name + "\"");
+            }
+        }
+
+        return options;
+    }
+
+    InetSocketAddress getProxySocketAddress() {
+        return proxySocketAddress;
+    }
+
+    boolean isBlockingEngine() {
+        return isBlockingEngine;
+    }
+
+    int getDnsPort() {
+        return dnsPort;
+    }
+
+    int getClientsNumber() {
+        return clientsNumber;
+    }
+
+    int getThreadsNumber() {
+        return threadsNumber;
+    }
+
+    int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    int getConnectionTimeoutSeconds() {
+        return connectionTimeoutSeconds;
+    }
+
+    Workload getWorkload() {
+        return workload;
+    }
+
+    int getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    boolean isPipelined() {
+        return isPipelined;
+    }
+
+    double getDomainRatio() {
+        return domainRatio;
+    }
+
+    int getDomainNamesNumber() {
+        return domainNamesNumber;
+    }
+}
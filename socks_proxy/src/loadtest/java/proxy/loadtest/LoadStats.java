@@ -0,0 +1,65 @@
+package proxy.loadtest;
+
+import proxy.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// shared by the client threads, nothing is recorded outside of the measurement window
+class LoadStats {
+    private volatile boolean isMeasuring = false;
+
+    private LongAdder completedConnections = new LongAdder();
+    private LongAdder failedConnections = new LongAdder();
+    private LongAdder relayedBytes = new LongAdder();
+    private LatencyHistogram handshakeLatency = new LatencyHistogram();
+    private LatencyHistogram connectionLatency = new LatencyHistogram();
+
+    void setMeasuring(boolean isMeasuring) {
+        this.isMeasuring = isMeasuring;
+    }
+
+    void recordHandshake(long nanos) {
+        if (isMeasuring) {
+            handshakeLatency.record(nanos);
+        }
+    }
+
+    void recordCompletedConnection(long nanos) {
+        if (isMeasuring) {
+            completedConnections.increment();
+            connectionLatency.record(nanos);
+        }
+    }
+
+    void recordFailedConnection() {
+        if (isMeasuring) {
+            failedConnections.increment();
+        }
+    }
+
+    void addRelayedBytes(long bytesNumber) {
+        if (isMeasuring) {
+            relayedBytes.add(bytesNumber);
+        }
+    }
+
+    long getCompletedConnectionsNumber() {
+        return completedConnections.sum();
+    }
+
+    long getFailedConnectionsNumber() {
+        return failedConnections.sum();
+    }
+
+    long getRelayedBytesNumber() {
+        return relayedBytes.sum();
+    }
+
+    LatencyHistogram getHandshakeLatency() {
+        return handshakeLatency;
+    }
+
+    LatencyHistogram getConnectionLatency() {
+        return connectionLatency;
+    }
+}
@@ -0,0 +1,160 @@
+package proxy.loadtest;
+
+import proxy.BlockingProxyServer;
+import proxy.ProxyConfig;
+import proxy.ProxyConfigLoader;
+import proxy.ProxyServer;
+import proxy.metrics.LatencyHistogram;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// drives SOCKS5 clients through the proxy against local echo and sink servers, everything stays on loopback:
+// mvn -P loadtest compile exec:java -Dexec.args="--clients=2000 --duration-s=20"
+public class LoadTest {
+    private static final int SUCCESS_EXIT_CODE = 0;
+    private static final int FAILURE_EXIT_CODE = -1;
+
+    public static void main(String[] args) {
+        try {
+            LoadOptions options = LoadOptions.parse(args);
+            new LoadTest().run(options);
+            System.exit(SUCCESS_EXIT_CODE);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        }
+
+        System.exit(FAILURE_EXIT_CODE);
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: java proxy.loadtest.LoadTest [--proxy=<host>:<port>] [--engine=nio|blocking] " +
+                "[--dns-port=<port>] [--clients=<n>] [--threads=<n>] [--warmup-s=<s>] [--duration-s=<s>] " +
+                "[--connection-timeout-s=<s>] [--workload=echo|sink] [--payload-bytes=<n>] [--pipelined=true|false] " +
+                "[--domain-ratio=<0..1>] [--domain-names=<n>]");
+    }
+
+    private void run(LoadOptions options) throws Exception {
+        List<AutoCloseable> resources = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        try {
+            StubDnsServer dnsServer = new StubDnsServer(options.getDnsPort());
+            resources.add(dnsServer);
+            threads.add(startThread(dnsServer, "loadtest-dns"));
+
+            LoopbackServer targetServer = options.getWorkload() == LoadOptions.Workload.ECHO ?
+                    new EchoServer() : new SinkServer();
+            resources.add(targetServer);
+            threads.add(startThread(targetServer, "loadtest-target"));
+
+            InetSocketAddress proxySocketAddress = options.getProxySocketAddress();
+            if (proxySocketAddress == null) {
+                proxySocketAddress = startProxy(options, dnsServer.getPort(), resources, threads);
+            } else {
+                System.out.println("Start the proxy with -Ddns.server=127.0.0.1:" + dnsServer.getPort() +
+                        " to resolve the domain names of the test");
+            }
+
+            LoadStats stats = new LoadStats();
+            List<LoadClient> clients = new ArrayList<>();
+            for (int i = 0; i < options.getThreadsNumber(); ++i) {
+                // the connections are split evenly, the first threads take the remainder
+                int connectionsNumber = options.getClientsNumber() / options.getThreadsNumber() +
+                        (i < options.getClientsNumber() % options.getThreadsNumber() ? 1 : 0);
+                LoadClient client = new LoadClient(
+                        options, stats, proxySocketAddress, targetServer.getPort(), connectionsNumber
+                );
+                clients.add(client);
+                threads.add(startThread(client, "loadtest-client-" + i));
+            }
+
+            TimeUnit.SECONDS.sleep(options.getWarmupSeconds());
+            stats.setMeasuring(true);
+            long measurementStartTimeNanos = System.nanoTime();
+            TimeUnit.SECONDS.sleep(options.getDurationSeconds());
+            stats.setMeasuring(false);
+            long measurementNanos = System.nanoTime() - measurementStartTimeNanos;
+
+            clients.forEach(LoadClient::stop);
+            printReport(options, stats, dnsServer, measurementNanos);
+        } finally {
+            // the proxy stops its event loops on interruption, so it is closed only after its thread is done
+            threads.forEach(Thread::interrupt);
+            for (Thread thread: threads) {
+                thread.join(TimeUnit.SECONDS.toMillis(1));
+            }
+            for (AutoCloseable resource: resources) {
+                resource.close();
+            }
+        }
+    }
+
+    private InetSocketAddress startProxy(LoadOptions options, int dnsPort,
+                                         List<AutoCloseable> resources, List<Thread> threads) throws Exception {
+        // has to be set before the resolver configuration is read for the first time
+        System.setProperty("dns.server", "127.0.0.1:" + dnsPort);
+
+        int proxyPort;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            proxyPort = serverSocket.getLocalPort();
+        }
+
+        ProxyConfig proxyConfig = ProxyConfigLoader.loadProxyConfig();
+        Runnable proxyServer;
+        if (options.isBlockingEngine()) {
+            BlockingProxyServer blockingProxyServer = new BlockingProxyServer(proxyPort, proxyConfig);
+            resources.add(blockingProxyServer);
+            proxyServer = blockingProxyServer;
+        } else {
+            ProxyServer selectorProxyServer = new ProxyServer(proxyPort, proxyConfig);
+            resources.add(selectorProxyServer);
+            proxyServer = selectorProxyServer;
+        }
+        threads.add(startThread(proxyServer, "loadtest-proxy"));
+
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), proxyPort);
+    }
+
+    private static Thread startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void printReport(LoadOptions options, LoadStats stats,
+                                    StubDnsServer dnsServer, long measurementNanos) {
+        double measurementSeconds = measurementNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        LatencyHistogram handshakeLatency = stats.getHandshakeLatency();
+        LatencyHistogram connectionLatency = stats.getConnectionLatency();
+
+        System.out.printf("workload              %s, %d clients, %d bytes per connection, %.0f%% domain names%n",
+                options.getWorkload().name().toLowerCase(), options.getClientsNumber(),
+                options.getPayloadBytes(), options.getDomainRatio() * 100);
+        System.out.printf("handshake             %s%n", options.isPipelined() ? "pipelined" : "method reply awaited");
+        System.out.printf("measured              %.1f s%n", measurementSeconds);
+        System.out.printf("connections/s         %.1f%n", stats.getCompletedConnectionsNumber() / measurementSeconds);
+        System.out.printf("completed / failed    %d / %d%n",
+                stats.getCompletedConnectionsNumber(), stats.getFailedConnectionsNumber());
+        System.out.printf("handshake p50 / p99   %.3f / %.3f ms%n",
+                toMillis(handshakeLatency.getValueAtPercentile(50)), toMillis(handshakeLatency.getValueAtPercentile(99)));
+        System.out.printf("connection p50 / p99  %.3f / %.3f ms%n",
+                toMillis(connectionLatency.getValueAtPercentile(50)), toMillis(connectionLatency.getValueAtPercentile(99)));
+        System.out.printf("relay throughput      %.1f MiB/s%n",
+                stats.getRelayedBytesNumber() / measurementSeconds / (1 << 20));
+        System.out.printf("dns queries           %d%n", dnsServer.getQueriesNumber());
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
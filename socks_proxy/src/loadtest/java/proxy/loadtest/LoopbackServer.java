@@ -0,0 +1,101 @@
+package proxy.loadtest;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+
+// single-threaded selector server on the loopback interface, subclasses decide what to do with the bytes
+abstract class LoopbackServer implements Runnable, AutoCloseable {
+    private static final int BUFFER_LENGTH = 65536;
+
+    private Selector selector;
+    private ServerSocketChannel serverSocketChannel;
+
+    LoopbackServer() throws IOException {
+        selector = Selector.open();
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        serverSocketChannel.configureBlocking(false);
+        serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    int getPort() {
+        return serverSocketChannel.socket().getLocalPort();
+    }
+
+    // returns false when the connection has to be closed
+    abstract boolean handleRead(SocketChannel socketChannel, ByteBuffer buffer, SelectionKey key) throws IOException;
+
+    abstract void handleWrite(SocketChannel socketChannel, ByteBuffer buffer, SelectionKey key) throws IOException;
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted() && selector.isOpen()) {
+                selector.select();
+                Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+                while (keyIterator.hasNext()) {
+                    SelectionKey key = keyIterator.next();
+                    keyIterator.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        acceptConnections();
+                        continue;
+                    }
+
+                    SocketChannel socketChannel = (SocketChannel) key.channel();
+                    ByteBuffer buffer = (ByteBuffer) key.attachment();
+                    try {
+                        if (key.isReadable() && !handleRead(socketChannel, buffer, key)) {
+                            closeConnection(key);
+                            continue;
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            handleWrite(socketChannel, buffer, key);
+                        }
+                    } catch (IOException e) {
+                        closeConnection(key);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // the server is closed
+        }
+    }
+
+    private void acceptConnections() throws IOException {
+        SocketChannel socketChannel;
+        while ((socketChannel = serverSocketChannel.accept()) != null) {
+            socketChannel.configureBlocking(false);
+            // the test measures the proxy, not Nagle's algorithm on its own sockets
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            socketChannel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(BUFFER_LENGTH));
+        }
+    }
+
+    void closeConnection(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            selector.close();
+            serverSocketChannel.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
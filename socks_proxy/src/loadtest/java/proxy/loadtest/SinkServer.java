@@ -0,0 +1,47 @@
+package proxy.loadtest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+// discards the upload and answers the half-close with the number of bytes received
+class SinkServer extends LoopbackServer {
+    static final int REPLY_LENGTH = Long.BYTES;
+
+    SinkServer() throws IOException {
+        super();
+    }
+
+    @Override
+    boolean handleRead(SocketChannel socketChannel, ByteBuffer buffer, SelectionKey key) throws IOException {
+        // the first bytes of the buffer keep the running count
+        if (buffer.position() == 0) {
+            buffer.putLong(0);
+        }
+
+        int bytesRead;
+        long receivedBytesNumber = buffer.getLong(0);
+        while ((bytesRead = socketChannel.read(buffer)) > 0) {
+            receivedBytesNumber += bytesRead;
+            buffer.position(REPLY_LENGTH);
+        }
+        buffer.putLong(0, receivedBytesNumber);
+
+        if (bytesRead == -1) {
+            buffer.limit(REPLY_LENGTH);
+            buffer.position(0);
+            key.interestOps(SelectionKey.OP_WRITE);
+            handleWrite(socketChannel, buffer, key);
+        }
+        return true;
+    }
+
+    @Override
+    void handleWrite(SocketChannel socketChannel, ByteBuffer buffer, SelectionKey key) throws IOException {
+        socketChannel.write(buffer);
+        if (!buffer.hasRemaining()) {
+            closeConnection(key);
+        }
+    }
+}
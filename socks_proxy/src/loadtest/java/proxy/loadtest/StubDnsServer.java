@@ -0,0 +1,105 @@
+package proxy.loadtest;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+// answers every A query with the loopback address and every other query with an empty answer section
+class StubDnsServer implements Runnable, AutoCloseable {
+    private static final int HEADER_LENGTH = 12;
+    private static final int TYPE_A = 1;
+    private static final int CLASS_IN = 1;
+    private static final short RESPONSE_FLAGS = (short) 0x8180;
+    private static final short NAME_POINTER = (short) 0xC00C;
+    private static final int TTL_SECONDS = 60;
+    private static final byte[] LOOPBACK_ADDRESS = {127, 0, 0, 1};
+
+    private DatagramChannel datagramChannel;
+    private LongAdder queriesNumber = new LongAdder();
+
+    StubDnsServer(int port) throws IOException {
+        datagramChannel = DatagramChannel.open();
+        datagramChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    int getPort() {
+        return datagramChannel.socket().getLocalPort();
+    }
+
+    long getQueriesNumber() {
+        return queriesNumber.sum();
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer query = ByteBuffer.allocate(512);
+        ByteBuffer response = ByteBuffer.allocate(512);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                query.clear();
+                SocketAddress clientAddress = datagramChannel.receive(query);
+                query.flip();
+
+                response.clear();
+                if (writeResponse(query, response)) {
+                    response.flip();
+                    datagramChannel.send(response, clientAddress);
+                    queriesNumber.increment();
+                }
+            }
+        } catch (AsynchronousCloseException e) {
+            // the server is closed
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private static boolean writeResponse(ByteBuffer query, ByteBuffer response) {
+        if (query.remaining() < HEADER_LENGTH) {
+            return false;
+        }
+
+        // the question is copied as is, additional records such as EDNS are dropped
+        int questionEnd = HEADER_LENGTH;
+        while (questionEnd < query.limit() && query.get(questionEnd) != 0) {
+            questionEnd += (query.get(questionEnd) & 0xFF) + 1;
+        }
+        questionEnd += 1 + 2 * Short.BYTES;
+        if (questionEnd > query.limit()) {
+            return false;
+        }
+        int queryType = query.getShort(questionEnd - 2 * Short.BYTES) & 0xFFFF;
+        boolean isAnswered = queryType == TYPE_A;
+
+        response.putShort(query.getShort(0));
+        response.putShort(RESPONSE_FLAGS);
+        response.putShort((short) 1);
+        response.putShort((short) (isAnswered ? 1 : 0));
+        response.putShort((short) 0);
+        response.putShort((short) 0);
+        response.put(query.array(), HEADER_LENGTH, questionEnd - HEADER_LENGTH);
+        if (isAnswered) {
+            response.putShort(NAME_POINTER);
+            response.putShort((short) TYPE_A);
+            response.putShort((short) CLASS_IN);
+            response.putInt(TTL_SECONDS);
+            response.putShort((short) LOOPBACK_ADDRESS.length);
+            response.put(LOOPBACK_ADDRESS);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        try {
+            datagramChannel.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
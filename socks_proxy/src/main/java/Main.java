@@ -1,24 +1,39 @@
+import proxy.BlockingProxyServer;
+import proxy.ProxyConfig;
+import proxy.ProxyConfigLoader;
 import proxy.ProxyServer;
 
 public class Main {
     private static final int SERVER_PORT_ARG_INDEX = 0;
-    private static final int ARGS_NUMBER = 1;
+    private static final int ENGINE_ARG_INDEX = 1;
+    private static final int MIN_ARGS_NUMBER = 1;
+    private static final int MAX_ARGS_NUMBER = 2;
+
+    private static final String BLOCKING_ENGINE_FLAG = "--blocking";
 
     private static final int SUCCESS_EXIT_CODE = 0;
     private static final int FAILURE_EXIT_CODE = -1;
 
     public static void main(String[] args) {
-        if (args.length != ARGS_NUMBER) {
+        if (args.length < MIN_ARGS_NUMBER || args.length > MAX_ARGS_NUMBER ||
+                (args.length == MAX_ARGS_NUMBER && !BLOCKING_ENGINE_FLAG.equals(args[ENGINE_ARG_INDEX]))) {
             printUsage();
             System.exit(FAILURE_EXIT_CODE);
         }
 
         try {
             int serverPort = Integer.parseInt(args[SERVER_PORT_ARG_INDEX]);
-            try (ProxyServer proxyServer = new ProxyServer(serverPort)) {
-                proxyServer.run();
-                System.exit(SUCCESS_EXIT_CODE);
+            ProxyConfig proxyConfig = ProxyConfigLoader.loadProxyConfig();
+            if (args.length == MAX_ARGS_NUMBER) {
+                try (BlockingProxyServer proxyServer = new BlockingProxyServer(serverPort, proxyConfig)) {
+                    proxyServer.run();
+                }
+            } else {
+                try (ProxyServer proxyServer = new ProxyServer(serverPort, proxyConfig)) {
+                    proxyServer.run();
+                }
             }
+            System.exit(SUCCESS_EXIT_CODE);
         } catch (NumberFormatException e) {
             System.err.println("Failed to parse the server port from command line arguments: " + e.getMessage());
         } catch (RuntimeException e) {
@@ -31,6 +46,8 @@ public class Main {
     }
 
     private static void printUsage() {
-        System.err.println("Usage: java <MainClassName> <server port>");
+        System.err.println("Usage: java <MainClassName> <server port> [" + BLOCKING_ENGINE_FLAG + "]");
+        System.err.println("  " + BLOCKING_ENGINE_FLAG + "  run the thread-per-direction engine, it applies the tunnel limits "
+                + "and writes the access log but refuses UDP ASSOCIATE and ignores the rate limits and the buffer pool settings");
     }
 }
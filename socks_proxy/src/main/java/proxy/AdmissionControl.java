@@ -0,0 +1,123 @@
+package proxy;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// process-wide tunnel limits, shared by the acceptor and all workers; 0 means unlimited
+class AdmissionControl {
+    private final int maxTunnelsNumber;
+    private final int maxTunnelsPerAddressNumber;
+    private final OverloadPolicy overloadPolicy;
+
+    private final AtomicInteger tunnelsNumber = new AtomicInteger();
+    private final Map<InetAddress, Integer> addressToTunnelsNumberMap = new ConcurrentHashMap<>();
+    private final List<Runnable> acceptingResumers = new CopyOnWriteArrayList<>();
+
+    private final LongAdder refusedTunnelsNumber = new LongAdder();
+    private final LongAdder refusedPerAddressTunnelsNumber = new LongAdder();
+    private final LongAdder acceptingPausesNumber = new LongAdder();
+    private final LongAdder acceptErrorsNumber = new LongAdder();
+
+    AdmissionControl(int maxTunnelsNumber, int maxTunnelsPerAddressNumber, OverloadPolicy overloadPolicy) {
+        this.maxTunnelsNumber = maxTunnelsNumber;
+        this.maxTunnelsPerAddressNumber = maxTunnelsPerAddressNumber;
+        this.overloadPolicy = overloadPolicy;
+    }
+
+    OverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    // an acceptor that has paused on overload is resumed through its callback once a tunnel closes
+    void addAcceptingResumer(Runnable acceptingResumer) {
+        acceptingResumers.add(acceptingResumer);
+    }
+
+    boolean isFull() {
+        return maxTunnelsNumber > 0 && tunnelsNumber.get() >= maxTunnelsNumber;
+    }
+
+    boolean tryAdmit(InetAddress clientAddress) {
+        if (tunnelsNumber.incrementAndGet() > maxTunnelsNumber && maxTunnelsNumber > 0) {
+            releaseTunnel();
+            refusedTunnelsNumber.increment();
+            return false;
+        }
+
+        if (maxTunnelsPerAddressNumber > 0 && !tryAdmitAddress(clientAddress)) {
+            releaseTunnel();
+            refusedPerAddressTunnelsNumber.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean tryAdmitAddress(InetAddress clientAddress) {
+        boolean[] isAdmitted = new boolean[1];
+        addressToTunnelsNumberMap.compute(clientAddress, (address, addressTunnelsNumber) -> {
+            int currentTunnelsNumber = addressTunnelsNumber == null ? 0 : addressTunnelsNumber;
+            isAdmitted[0] = currentTunnelsNumber < maxTunnelsPerAddressNumber;
+            return isAdmitted[0] ? currentTunnelsNumber + 1 : addressTunnelsNumber;
+        });
+        return isAdmitted[0];
+    }
+
+    void release(InetAddress clientAddress) {
+        if (maxTunnelsPerAddressNumber > 0) {
+            // an address is forgotten with its last tunnel, so the map only holds the active clients
+            addressToTunnelsNumberMap.computeIfPresent(
+                    clientAddress, (address, addressTunnelsNumber) ->
+                            addressTunnelsNumber == 1 ? null : addressTunnelsNumber - 1
+            );
+        }
+
+        releaseTunnel();
+    }
+
+    // a refused admission releases its slot the same way, otherwise a release racing with it could miss
+    // the moment the limit is no longer reached; the resumers do nothing unless their acceptor is paused,
+    // without a limit they still run, a closed tunnel gives back the descriptor an accept error ran out of
+    private void releaseTunnel() {
+        if (tunnelsNumber.getAndDecrement() <= maxTunnelsNumber || maxTunnelsNumber <= 0) {
+            acceptingResumers.forEach(Runnable::run);
+        }
+    }
+
+    void countAcceptingPause() {
+        acceptingPausesNumber.increment();
+    }
+
+    void countAcceptError() {
+        acceptErrorsNumber.increment();
+    }
+
+    int getTunnelsNumber() {
+        return tunnelsNumber.get();
+    }
+
+    int getAddressesNumber() {
+        return addressToTunnelsNumberMap.size();
+    }
+
+    long getRefusedTunnelsNumber() {
+        return refusedTunnelsNumber.sum();
+    }
+
+    long getRefusedPerAddressTunnelsNumber() {
+        return refusedPerAddressTunnelsNumber.sum();
+    }
+
+    long getAcceptingPausesNumber() {
+        return acceptingPausesNumber.sum();
+    }
+
+    long getAcceptErrorsNumber() {
+        return acceptErrorsNumber.sum();
+    }
+}
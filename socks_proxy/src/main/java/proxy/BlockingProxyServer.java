@@ -0,0 +1,214 @@
+package proxy;
+
+import proxy.accesslog.AccessLog;
+import proxy.dns.BlockingDomainNameResolver;
+import proxy.dns.DnsCache;
+import proxy.dns.HostsFile;
+import proxy.metrics.MetricsExporter;
+import proxy.metrics.ProxyMetrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// thread-per-direction engine: every tunnel blocks in plain socket reads and writes
+public class BlockingProxyServer implements Runnable, AutoCloseable {
+    // a failing accept is retried after a delay that doubles up to the maximum one
+    private static final long MIN_ACCEPT_RETRY_DELAY_MILLIS = 10;
+    private static final long MAX_ACCEPT_RETRY_DELAY_MILLIS = 1000;
+
+    private ServerSocket serverSocket;
+    private ProxyConfig proxyConfig;
+
+    private DnsCache dnsCache;
+    private BlockingDomainNameResolver domainNameResolver;
+
+    private ProxyMetrics metrics = new ProxyMetrics();
+    private MetricsExporter metricsExporter;
+    private DestinationCircuitBreaker circuitBreaker;
+    private AdmissionControl admissionControl;
+    private AccessLog accessLog;
+    private final Object acceptingLock = new Object();
+
+    private Set<BlockingTunnel> tunnels = ConcurrentHashMap.newKeySet();
+    private AtomicLong nextTunnelID = new AtomicLong();
+
+    public BlockingProxyServer(int port, ProxyConfig proxyConfig) throws IOException {
+        this.proxyConfig = proxyConfig;
+
+        dnsCache = new DnsCache(
+                proxyConfig.getDnsCacheSize(),
+                proxyConfig.getDnsMaxTtlSeconds(),
+                proxyConfig.getDnsNegativeTtlSeconds(),
+                proxyConfig.getDnsPrefetchNamesNumber(),
+                proxyConfig.getDnsPrefetchBeforeExpiryMillis()
+        );
+        if (!proxyConfig.getHostsFilepath().isEmpty()) {
+            dnsCache.putOverrides(HostsFile.load(proxyConfig.getHostsFilepath()));
+        }
+        domainNameResolver = new BlockingDomainNameResolver(
+                dnsCache, metrics, proxyConfig.getDnsTimeoutMillis(), proxyConfig.getDnsMaxAttemptsNumber()
+        );
+
+        circuitBreaker = new DestinationCircuitBreaker(
+                proxyConfig.getCircuitBreakerFailuresNumber(),
+                TimeUnit.MILLISECONDS.toNanos(proxyConfig.getCircuitBreakerCooldownMillis()),
+                proxyConfig.getCircuitBreakerSize()
+        );
+
+        admissionControl = new AdmissionControl(
+                proxyConfig.getMaxTunnelsNumber(),
+                proxyConfig.getMaxTunnelsPerAddressNumber(),
+                proxyConfig.getOverloadPolicy()
+        );
+        admissionControl.addAcceptingResumer(this::resumeAccepting);
+        if (!proxyConfig.getAccessLogFilepath().isEmpty()) {
+            accessLog = new AccessLog(
+                    proxyConfig.getAccessLogFilepath(), proxyConfig.getAccessLogRingSize(),
+                    proxyConfig.getAccessLogMaxFileBytes(), proxyConfig.getAccessLogFilesNumber()
+            );
+        }
+
+        metrics.registerGauge("tunnels.open", this::getTunnelsNumber);
+        ProxyServer.registerAdmissionControlGauges(metrics, admissionControl);
+        ProxyServer.registerCircuitBreakerGauges(metrics, circuitBreaker);
+        if (accessLog != null) {
+            ProxyServer.registerAccessLogGauges(metrics, accessLog);
+        }
+        metrics.registerGauge("dns.cache_entries", dnsCache::getEntriesNumber);
+        metrics.registerGauge("dns.cache_hits", dnsCache::getHitsNumber);
+        metrics.registerGauge("dns.cache_misses", dnsCache::getMissesNumber);
+        metrics.registerGauge("dns.override_hits", dnsCache::getOverrideHitsNumber);
+        metrics.registerGauge("dns.hot_names", dnsCache::getHotNamesNumber);
+        metrics.registerGauge("dns.prefetches", dnsCache::getPrefetchesNumber);
+        metrics.registerGauge("dns.mismatched_responses", domainNameResolver::getMismatchedResponsesNumber);
+
+        metricsExporter = new MetricsExporter(metrics);
+        metricsExporter.registerMBean();
+        if (!proxyConfig.getMetricsDumpFilepath().isEmpty()) {
+            metricsExporter.startDumping(
+                    proxyConfig.getMetricsDumpFilepath(), proxyConfig.getMetricsDumpIntervalSeconds()
+            );
+        }
+
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(port));
+    }
+
+    public DnsCache getDnsCache() {
+        return dnsCache;
+    }
+
+    public ProxyMetrics getMetrics() {
+        return metrics;
+    }
+
+    DestinationCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    public int getTunnelsNumber() {
+        return tunnels.size();
+    }
+
+    void removeTunnel(BlockingTunnel tunnel) {
+        if (tunnels.remove(tunnel)) {
+            admissionControl.release(tunnel.getClientAddress());
+        }
+    }
+
+    @Override
+    public void run() {
+        long acceptRetryDelayMillis = MIN_ACCEPT_RETRY_DELAY_MILLIS;
+        try {
+            while (!Thread.currentThread().isInterrupted() && !serverSocket.isClosed()) {
+                // paused connections wait in the listen backlog instead of being refused
+                if (admissionControl.getOverloadPolicy() == OverloadPolicy.PAUSE_ACCEPTING) {
+                    waitForAdmission();
+                }
+
+                Socket clientSocket;
+                try {
+                    clientSocket = serverSocket.accept();
+                    acceptRetryDelayMillis = MIN_ACCEPT_RETRY_DELAY_MILLIS;
+                } catch (IOException e) {
+                    if (serverSocket.isClosed()) {
+                        return;
+                    }
+                    // running out of descriptors must not stop the engine, the tunnels closing meanwhile free some
+                    System.err.println(e.getMessage());
+                    Thread.sleep(acceptRetryDelayMillis);
+                    acceptRetryDelayMillis = Math.min(acceptRetryDelayMillis * 2, MAX_ACCEPT_RETRY_DELAY_MILLIS);
+                    continue;
+                }
+
+                if (!admissionControl.tryAdmit(clientSocket.getInetAddress())) {
+                    closeSocket(clientSocket);
+                    continue;
+                }
+
+                BlockingTunnel tunnel = new BlockingTunnel(this, clientSocket, domainNameResolver, proxyConfig);
+                tunnels.add(tunnel);
+                metrics.countAcceptedTunnel();
+
+                Thread tunnelThread = new Thread(tunnel, "proxy-tunnel-" + nextTunnelID.getAndIncrement());
+                tunnelThread.setDaemon(true);
+                tunnelThread.start();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void waitForAdmission() throws InterruptedException {
+        synchronized (acceptingLock) {
+            if (admissionControl.isFull()) {
+                admissionControl.countAcceptingPause();
+            }
+            while (admissionControl.isFull() && !serverSocket.isClosed()) {
+                acceptingLock.wait();
+            }
+        }
+    }
+
+    // called by whichever tunnel thread closes a tunnel
+    private void resumeAccepting() {
+        synchronized (acceptingLock) {
+            acceptingLock.notifyAll();
+        }
+    }
+
+    private void closeSocket(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        resumeAccepting();
+
+        tunnels.forEach(BlockingTunnel::close);
+        tunnels.clear();
+        metricsExporter.close();
+        if (accessLog != null) {
+            accessLog.close();
+        }
+    }
+}
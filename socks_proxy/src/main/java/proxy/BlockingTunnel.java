@@ -0,0 +1,307 @@
+package proxy;
+
+import proxy.accesslog.AccessLog;
+import proxy.accesslog.AccessLogRecord;
+import proxy.accesslog.CloseReason;
+import proxy.dns.BlockingDomainNameResolver;
+import proxy.metrics.ProxyMetrics;
+import proxy.socks.ConnectionStatus;
+import proxy.socks.SocksProtocol;
+import proxy.socks.SocksSession;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+class BlockingTunnel implements Runnable, AutoCloseable {
+    private BlockingProxyServer proxyServer;
+    private BlockingDomainNameResolver domainNameResolver;
+    private ProxyMetrics metrics;
+
+    private Socket clientSocket;
+    private InetSocketAddress clientSocketAddress;
+    private volatile Socket serverSocket;
+
+    private SocksSession socksSession = new SocksSession();
+    private ByteBuffer clientBuffer;
+    private ByteBuffer serverBuffer;
+
+    private int handshakeTimeoutMillis;
+    private int connectTimeoutMillis;
+    private int idleTimeoutMillis;
+    private volatile long lastActivityTimeMillis;
+    private final long creationTimeNanos = System.nanoTime();
+    private long requestTimeNanos = 0;
+    private long establishmentTimeNanos = 0;
+
+    // every direction is counted by its own thread only
+    private volatile long bytesFromClient = 0;
+    private volatile long bytesFromServer = 0;
+    private CloseReason closeReason;
+
+    BlockingTunnel(BlockingProxyServer proxyServer, Socket clientSocket,
+                   BlockingDomainNameResolver domainNameResolver, ProxyConfig proxyConfig) {
+        this.proxyServer = proxyServer;
+        this.clientSocket = clientSocket;
+        clientSocketAddress = (InetSocketAddress) clientSocket.getRemoteSocketAddress();
+        this.domainNameResolver = domainNameResolver;
+        metrics = proxyServer.getMetrics();
+
+        // heap buffers, the streams of blocking sockets work on arrays
+        clientBuffer = ByteBuffer.allocate(proxyConfig.getBufferLength());
+        serverBuffer = ByteBuffer.allocate(proxyConfig.getBufferLength());
+
+        handshakeTimeoutMillis = proxyConfig.getHandshakeTimeoutMillis();
+        connectTimeoutMillis = proxyConfig.getConnectTimeoutMillis();
+        idleTimeoutMillis = proxyConfig.getIdleTimeoutMillis();
+    }
+
+    InetAddress getClientAddress() {
+        return clientSocketAddress.getAddress();
+    }
+
+    @Override
+    public void run() {
+        try {
+            // relayed writes must go out as they come, Nagle's algorithm would hold a tail back
+            // until the delayed acknowledgement of the previous segment
+            clientSocket.setTcpNoDelay(true);
+            clientSocket.setSoTimeout(handshakeTimeoutMillis);
+            if (!readRequest()) {
+                return;
+            }
+            requestTimeNanos = System.nanoTime();
+            metrics.recordHandshakeNanos(requestTimeNanos - creationTimeNanos);
+            metrics.countHandshake(socksSession.isPipelined());
+
+            // datagrams are only relayed by the selector engine
+            if (socksSession.isUdpAssociation()) {
+                setCloseReason(CloseReason.REQUEST_FAILED);
+                SocksProtocol.writeCommandNotSupported(socksSession, serverBuffer);
+                flush(serverBuffer, clientSocket.getOutputStream());
+                return;
+            }
+
+            // an unreachable destination is refused without tying up this thread for the connect timeout
+            InetSocketAddress destination =
+                    DestinationCircuitBreaker.getDestination(socksSession.getRequestedSocketAddress());
+            if (proxyServer.getCircuitBreaker().allowConnection(destination)) {
+                serverSocket = connect(socksSession.getRequestedSocketAddress(), destination);
+            }
+            if (serverSocket == null) {
+                setCloseReason(CloseReason.REQUEST_FAILED);
+                SocksProtocol.writeRequestFailure(socksSession, serverBuffer);
+                flush(serverBuffer, clientSocket.getOutputStream());
+                return;
+            }
+
+            SocksProtocol.writeRequestSuccess(socksSession, serverBuffer);
+            flush(serverBuffer, clientSocket.getOutputStream());
+            establishmentTimeNanos = System.nanoTime();
+            metrics.countEstablishedTunnel();
+
+            // the client may have sent data along with its connection request
+            flush(clientBuffer, serverSocket.getOutputStream());
+
+            lastActivityTimeMillis = System.currentTimeMillis();
+            clientSocket.setSoTimeout(idleTimeoutMillis);
+            serverSocket.setSoTimeout(idleTimeoutMillis);
+
+            Thread downstreamThread = new Thread(
+                    () -> relay(serverSocket, clientSocket, serverBuffer, false),
+                    Thread.currentThread().getName() + "-downstream"
+            );
+            downstreamThread.setDaemon(true);
+            downstreamThread.start();
+
+            relay(clientSocket, serverSocket, clientBuffer, true);
+            downstreamThread.join();
+            setCloseReason(CloseReason.COMPLETED);
+        } catch (SocketTimeoutException e) {
+            // the relay handles its own timeouts, so only the request can be late here
+            setCloseReason(CloseReason.HANDSHAKE_TIMEOUT);
+        } catch (IOException e) {
+            // the tunnel is closed below
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+            setCloseReason(CloseReason.ERROR);
+            AccessLog accessLog = proxyServer.getAccessLog();
+            if (accessLog != null) {
+                logTunnel(accessLog);
+            }
+            proxyServer.removeTunnel(this);
+            metrics.countClosedTunnel(socksSession.getConnectionStatus() == ConnectionStatus.ESTABLISHED);
+        }
+    }
+
+    // the first reason wins, the later ones are consequences of it
+    private synchronized void setCloseReason(CloseReason closeReason) {
+        if (this.closeReason == null) {
+            this.closeReason = closeReason;
+        }
+    }
+
+    private synchronized void logTunnel(AccessLog accessLog) {
+        AccessLogRecord record = accessLog.claimRecord();
+        if (record == null) {
+            return;
+        }
+
+        long closeTimeNanos = System.nanoTime();
+        record.setCloseTimeMillis(System.currentTimeMillis());
+        record.setClientSocketAddress(clientSocketAddress);
+        record.setRequestedSocketAddress(socksSession.getRequestedSocketAddress());
+        record.setUdpAssociation(false);
+        record.setBytesFromClient(bytesFromClient);
+        record.setBytesFromServer(bytesFromServer);
+        record.setHandshakeNanos(requestTimeNanos == 0 ? 0 : requestTimeNanos - creationTimeNanos);
+        record.setConnectNanos(establishmentTimeNanos == 0 ? 0 : establishmentTimeNanos - requestTimeNanos);
+        record.setDurationNanos(closeTimeNanos - creationTimeNanos);
+        record.setCloseReason(closeReason);
+        accessLog.publish(record);
+    }
+
+    private boolean readRequest() throws IOException {
+        InputStream inputStream = clientSocket.getInputStream();
+        OutputStream outputStream = clientSocket.getOutputStream();
+        while (clientBuffer.hasRemaining()) {
+            int bytesRead = inputStream.read(
+                    clientBuffer.array(), clientBuffer.position(), clientBuffer.remaining()
+            );
+            if (bytesRead == -1) {
+                setCloseReason(CloseReason.CLIENT_CLOSED);
+                return false;
+            }
+            clientBuffer.position(clientBuffer.position() + bytesRead);
+
+            clientBuffer.flip();
+            SocksProtocol.fillHandShakeInfo(socksSession, clientBuffer, serverBuffer);
+            clientBuffer.compact();
+            flush(serverBuffer, outputStream);
+
+            if (socksSession.getConnectionStatus() == ConnectionStatus.FAILED) {
+                setCloseReason(CloseReason.REQUEST_FAILED);
+                return false;
+            }
+
+            if (socksSession.getRequestedSocketAddress() != null) {
+                return true;
+            }
+        }
+
+        setCloseReason(CloseReason.REQUEST_FAILED);
+        return false;
+    }
+
+    private Socket connect(InetSocketAddress requestedSocketAddress,
+                           InetSocketAddress destination) throws IOException {
+        long deadlineMillis = System.currentTimeMillis() + connectTimeoutMillis;
+
+        List<InetSocketAddress> serverSocketAddresses = new ArrayList<>();
+        if (requestedSocketAddress.isUnresolved()) {
+            for (InetAddress address: domainNameResolver.resolve(requestedSocketAddress.getHostString())) {
+                serverSocketAddresses.add(new InetSocketAddress(address, requestedSocketAddress.getPort()));
+            }
+        } else {
+            serverSocketAddresses.add(requestedSocketAddress);
+        }
+
+        // addresses are tried one after another within the connect timeout
+        long connectStartTimeNanos = System.nanoTime();
+        for (InetSocketAddress serverSocketAddress: serverSocketAddresses) {
+            long remainingMillis = deadlineMillis - System.currentTimeMillis();
+            if (remainingMillis <= 0) {
+                break;
+            }
+
+            Socket socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(serverSocketAddress, (int) remainingMillis);
+                metrics.recordConnectNanos(System.nanoTime() - connectStartTimeNanos);
+                proxyServer.getCircuitBreaker().recordSuccess(destination);
+                return socket;
+            } catch (IOException e) {
+                closeSocket(socket);
+            }
+        }
+
+        // a name without addresses is the resolver's failure, not the destination's
+        if (!serverSocketAddresses.isEmpty()) {
+            proxyServer.getCircuitBreaker().recordFailure(destination);
+        }
+        return null;
+    }
+
+    private void relay(Socket sourceSocket, Socket destinationSocket, ByteBuffer buffer, boolean isFromClient) {
+        byte[] array = buffer.array();
+        try {
+            InputStream inputStream = sourceSocket.getInputStream();
+            OutputStream outputStream = destinationSocket.getOutputStream();
+            while (true) {
+                int bytesRead;
+                try {
+                    bytesRead = inputStream.read(array);
+                } catch (SocketTimeoutException e) {
+                    // the other direction may still be busy
+                    if (System.currentTimeMillis() - lastActivityTimeMillis < idleTimeoutMillis) {
+                        continue;
+                    }
+                    setCloseReason(CloseReason.IDLE_TIMEOUT);
+                    close();
+                    return;
+                }
+
+                if (bytesRead == -1) {
+                    // half-close: the peer sees the end of stream, the other direction keeps going
+                    destinationSocket.shutdownOutput();
+                    return;
+                }
+
+                outputStream.write(array, 0, bytesRead);
+                lastActivityTimeMillis = System.currentTimeMillis();
+                if (isFromClient) {
+                    bytesFromClient += bytesRead;
+                    metrics.addBytesFromClient(bytesRead);
+                } else {
+                    bytesFromServer += bytesRead;
+                    metrics.addBytesFromServer(bytesRead);
+                }
+            }
+        } catch (IOException e) {
+            setCloseReason(CloseReason.ERROR);
+            close();
+        }
+    }
+
+    private void flush(ByteBuffer buffer, OutputStream outputStream) throws IOException {
+        buffer.flip();
+        outputStream.write(buffer.array(), buffer.position(), buffer.remaining());
+        buffer.clear();
+    }
+
+    private void closeSocket(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        closeSocket(clientSocket);
+        if (serverSocket != null) {
+            closeSocket(serverSocket);
+        }
+    }
+}
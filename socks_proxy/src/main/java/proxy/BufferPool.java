@@ -0,0 +1,244 @@
+package proxy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// size classes double from the base buffer length up to the maximum one, every slab has the same size;
+// a slab is carved for one size class at a time and goes back to the empty slabs once all its buffers
+// are free, so any class can take it over. The memory budget is charged for the allocated slabs
+public class BufferPool {
+    // a pool keeps this many empty slabs around, the others are dropped and their memory goes back to the budget
+    private static final int KEPT_EMPTY_SLABS_NUMBER = 1;
+
+    private final int bufferLength;
+    private final int maxBufferLength;
+    private final int slabLength;
+    private final MemoryBudget memoryBudget;
+
+    // the slabs of a class that have free buffers, a slab knows its index to be removed in constant time
+    private final List<List<Slab>> partialSlabs = new ArrayList<>();
+    private final Deque<Slab> emptySlabs = new ArrayDeque<>();
+    // buffers are slices, so the slab of a released buffer can only be found by identity
+    private final Map<ByteBuffer, Slab> bufferToSlabMap = new IdentityHashMap<>();
+    private final int[] slabsNumbers;
+
+    private volatile int slabsNumber = 0;
+    private volatile int leasedBuffersNumber = 0;
+    private volatile int peakLeasedBuffersNumber = 0;
+    private volatile long allocatedBytes = 0;
+    private volatile long leasedBytes = 0;
+    private volatile long droppedSlabsNumber = 0;
+
+    private static class Slab {
+        final ByteBuffer memory;
+        final Deque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+        int sizeClass;
+        int buffersNumber;
+        int partialIndex = -1;
+
+        Slab(ByteBuffer memory) {
+            this.memory = memory;
+        }
+
+        boolean isEmpty() {
+            return freeBuffers.size() == buffersNumber;
+        }
+    }
+
+    public BufferPool(int bufferLength, int maxBufferLength, int buffersPerSlab, MemoryBudget memoryBudget) {
+        if (bufferLength <= 0 || buffersPerSlab <= 0) {
+            throw new IllegalArgumentException("Buffer length and buffers per slab number must be positive");
+        }
+        this.bufferLength = bufferLength;
+        this.memoryBudget = memoryBudget;
+        slabLength = bufferLength * buffersPerSlab;
+
+        int sizeClassesNumber = 1;
+        while ((long) bufferLength << sizeClassesNumber <= Math.min(maxBufferLength, slabLength)) {
+            ++sizeClassesNumber;
+        }
+        this.maxBufferLength = bufferLength << (sizeClassesNumber - 1);
+
+        slabsNumbers = new int[sizeClassesNumber];
+        for (int i = 0; i < sizeClassesNumber; ++i) {
+            partialSlabs.add(new ArrayList<>());
+        }
+    }
+
+    public ByteBuffer lease() {
+        return lease(bufferLength);
+    }
+
+    // the buffers a tunnel cannot work without are always granted, even over the budget
+    public ByteBuffer lease(int length) {
+        int sizeClass = getSizeClass(length);
+        if (partialSlabs.get(sizeClass).isEmpty() && emptySlabs.isEmpty()) {
+            memoryBudget.reserve(slabLength);
+            allocateSlab();
+        }
+        return leaseFromSizeClass(sizeClass);
+    }
+
+    // returns null when a new slab is needed and the memory budget has no room for it
+    public ByteBuffer tryLease(int length) {
+        int sizeClass = getSizeClass(length);
+        if (partialSlabs.get(sizeClass).isEmpty() && emptySlabs.isEmpty()) {
+            if (!memoryBudget.tryReserve(slabLength)) {
+                return null;
+            }
+            allocateSlab();
+        }
+        return leaseFromSizeClass(sizeClass);
+    }
+
+    public void release(ByteBuffer buffer) {
+        Slab slab = bufferToSlabMap.get(buffer);
+        if (slab.freeBuffers.isEmpty()) {
+            addPartialSlab(slab);
+        }
+        slab.freeBuffers.push(buffer);
+        --leasedBuffersNumber;
+        leasedBytes -= buffer.capacity();
+
+        if (slab.isEmpty()) {
+            removePartialSlab(slab);
+            uncarveSlab(slab);
+            if (emptySlabs.size() < KEPT_EMPTY_SLABS_NUMBER) {
+                emptySlabs.push(slab);
+            } else {
+                dropSlab();
+            }
+        }
+    }
+
+    private ByteBuffer leaseFromSizeClass(int sizeClass) {
+        List<Slab> classPartialSlabs = partialSlabs.get(sizeClass);
+        if (classPartialSlabs.isEmpty()) {
+            Slab slab = emptySlabs.pop();
+            carveSlab(slab, sizeClass);
+            addPartialSlab(slab);
+        }
+
+        Slab slab = classPartialSlabs.get(classPartialSlabs.size() - 1);
+        ByteBuffer buffer = slab.freeBuffers.pop();
+        if (slab.freeBuffers.isEmpty()) {
+            removePartialSlab(slab);
+        }
+        buffer.clear();
+
+        ++leasedBuffersNumber;
+        leasedBytes += buffer.capacity();
+        if (leasedBuffersNumber > peakLeasedBuffersNumber) {
+            peakLeasedBuffersNumber = leasedBuffersNumber;
+        }
+
+        return buffer;
+    }
+
+    private int getSizeClass(int length) {
+        int sizeClass = 0;
+        while (sizeClass < slabsNumbers.length - 1 && bufferLength << sizeClass < length) {
+            ++sizeClass;
+        }
+        return sizeClass;
+    }
+
+    public int getBufferLength() {
+        return bufferLength;
+    }
+
+    public int getMaxBufferLength() {
+        return maxBufferLength;
+    }
+
+    public int getSlabsNumber() {
+        return slabsNumber;
+    }
+
+    public int getTotalBuffersNumber() {
+        int totalBuffersNumber = 0;
+        for (int i = 0; i < slabsNumbers.length; ++i) {
+            totalBuffersNumber += slabsNumbers[i] * (slabLength / (bufferLength << i));
+        }
+        return totalBuffersNumber;
+    }
+
+    public int getLeasedBuffersNumber() {
+        return leasedBuffersNumber;
+    }
+
+    public int getPeakLeasedBuffersNumber() {
+        return peakLeasedBuffersNumber;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long getLeasedBytes() {
+        return leasedBytes;
+    }
+
+    public long getDroppedSlabsNumber() {
+        return droppedSlabsNumber;
+    }
+
+    private void allocateSlab() {
+        emptySlabs.push(new Slab(ByteBuffer.allocateDirect(slabLength)));
+        ++slabsNumber;
+        allocatedBytes += slabLength;
+    }
+
+    // the memory of a dropped slab is freed once the buffer objects are collected
+    private void dropSlab() {
+        memoryBudget.release(slabLength);
+        --slabsNumber;
+        allocatedBytes -= slabLength;
+        ++droppedSlabsNumber;
+    }
+
+    private void carveSlab(Slab slab, int sizeClass) {
+        int length = bufferLength << sizeClass;
+        ByteBuffer memory = slab.memory;
+        slab.sizeClass = sizeClass;
+        slab.buffersNumber = slabLength / length;
+        for (int i = 0; i < slab.buffersNumber; ++i) {
+            memory.limit((i + 1) * length);
+            memory.position(i * length);
+            ByteBuffer buffer = memory.slice();
+            slab.freeBuffers.push(buffer);
+            bufferToSlabMap.put(buffer, slab);
+        }
+        ++slabsNumbers[sizeClass];
+    }
+
+    private void uncarveSlab(Slab slab) {
+        for (ByteBuffer buffer: slab.freeBuffers) {
+            bufferToSlabMap.remove(buffer);
+        }
+        slab.freeBuffers.clear();
+        slab.buffersNumber = 0;
+        --slabsNumbers[slab.sizeClass];
+    }
+
+    private void addPartialSlab(Slab slab) {
+        List<Slab> classPartialSlabs = partialSlabs.get(slab.sizeClass);
+        slab.partialIndex = classPartialSlabs.size();
+        classPartialSlabs.add(slab);
+    }
+
+    private void removePartialSlab(Slab slab) {
+        List<Slab> classPartialSlabs = partialSlabs.get(slab.sizeClass);
+        Slab lastSlab = classPartialSlabs.remove(classPartialSlabs.size() - 1);
+        if (lastSlab != slab) {
+            lastSlab.partialIndex = slab.partialIndex;
+            classPartialSlabs.set(slab.partialIndex, lastSlab);
+        }
+        slab.partialIndex = -1;
+    }
+}
@@ -0,0 +1,91 @@
+package proxy;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+// accepts a bounded batch of connections per wakeup, so a connection flood cannot starve the established tunnels
+class ClientAcceptor {
+    static final long ACCEPT_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final SelectionKey acceptSelectionKey;
+    private final AdmissionControl admissionControl;
+    private final int acceptBatchSize;
+    private final AtomicBoolean isAcceptingPaused = new AtomicBoolean(false);
+
+    ClientAcceptor(SelectionKey acceptSelectionKey, AdmissionControl admissionControl, int acceptBatchSize) {
+        this.acceptSelectionKey = acceptSelectionKey;
+        this.admissionControl = admissionControl;
+        this.acceptBatchSize = acceptBatchSize;
+        admissionControl.addAcceptingResumer(this::resumeAccepting);
+    }
+
+    // returns false when accepting has failed and backs off, the owner resumes it once the backoff expires
+    boolean acceptClients(Consumer<SocketChannel> clientHandler) {
+        ServerSocketChannel serverSocketChannel = (ServerSocketChannel) acceptSelectionKey.channel();
+        for (int i = 0; i < acceptBatchSize; ++i) {
+            // paused connections wait in the listen backlog instead of being refused
+            if (admissionControl.getOverloadPolicy() == OverloadPolicy.PAUSE_ACCEPTING && admissionControl.isFull()) {
+                pauseAccepting();
+                return true;
+            }
+
+            SocketChannel socketChannel;
+            try {
+                socketChannel = serverSocketChannel.accept();
+            } catch (IOException e) {
+                // out of descriptors, the pending connection would wake the acceptor up again at once;
+                // it waits for the backoff or for a tunnel to close and give a descriptor back
+                System.err.println(e.getMessage());
+                stopAccepting();
+                admissionControl.countAcceptError();
+                return false;
+            }
+            if (socketChannel == null) {
+                return true;
+            }
+
+            if (!admissionControl.tryAdmit(socketChannel.socket().getInetAddress())) {
+                closeChannel(socketChannel);
+                continue;
+            }
+            clientHandler.accept(socketChannel);
+        }
+        return true;
+    }
+
+    private void pauseAccepting() {
+        stopAccepting();
+        admissionControl.countAcceptingPause();
+
+        // a tunnel may have been closed before the acceptor was marked as paused
+        if (!admissionControl.isFull()) {
+            resumeAccepting();
+        }
+    }
+
+    private void stopAccepting() {
+        acceptSelectionKey.interestOpsAnd(~SelectionKey.OP_ACCEPT);
+        isAcceptingPaused.set(true);
+    }
+
+    // called by whichever worker closes a tunnel
+    void resumeAccepting() {
+        if (isAcceptingPaused.compareAndSet(true, false) && acceptSelectionKey.isValid()) {
+            acceptSelectionKey.interestOpsOr(SelectionKey.OP_ACCEPT);
+            acceptSelectionKey.selector().wakeup();
+        }
+    }
+
+    private void closeChannel(SocketChannel socketChannel) {
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package proxy;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// one bucket per client address shared by all its tunnels on all the workers, so opening more connections
+// does not buy a client more bandwidth; a bucket is forgotten with the last tunnel of its client
+class ClientRateLimits {
+    private final long bytesPerSecond;
+    private final long capacity;
+    private final Map<InetAddress, ClientRateLimit> addressToRateLimitMap = new ConcurrentHashMap<>();
+
+    private static class ClientRateLimit {
+        final TokenBucket bucket;
+        int tunnelsNumber = 0;
+
+        ClientRateLimit(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    ClientRateLimits(long bytesPerSecond, long capacity) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.capacity = capacity;
+    }
+
+    TokenBucket acquireBucket(InetAddress clientAddress) {
+        return addressToRateLimitMap.compute(clientAddress, (address, clientRateLimit) -> {
+            if (clientRateLimit == null) {
+                clientRateLimit = new ClientRateLimit(new SharedTokenBucket(bytesPerSecond, capacity));
+            }
+            ++clientRateLimit.tunnelsNumber;
+            return clientRateLimit;
+        }).bucket;
+    }
+
+    void releaseBucket(InetAddress clientAddress) {
+        addressToRateLimitMap.computeIfPresent(
+                clientAddress, (address, clientRateLimit) ->
+                        --clientRateLimit.tunnelsNumber == 0 ? null : clientRateLimit
+        );
+    }
+
+    int getClientsNumber() {
+        return addressToRateLimitMap.size();
+    }
+}
@@ -1,5 +1,7 @@
 package proxy;
 
+import proxy.accesslog.CloseReason;
+import proxy.metrics.ProxyMetrics;
 import proxy.socks.ConnectionStatus;
 import proxy.socks.SocksConnectionManager;
 
@@ -11,65 +13,188 @@ import java.nio.channels.SocketChannel;
 import java.util.*;
 
 public class ConnectionManager {
+    // a shaped key waits for this many tokens instead of trickling through in tiny reads
+    private static final int MIN_RATE_LIMITED_READ_LENGTH = 4096;
+    // a direction gets a twice bigger buffer after this many reads in a row have filled it,
+    // and a twice smaller one after this many reads in a row have used less than a fraction of it
+    private static final int BUFFER_GROWTH_READS_NUMBER = 2;
+    private static final int BUFFER_SHRINK_READS_NUMBER = 16;
+    private static final int SMALL_READ_FRACTION = 8;
+
+    private BufferPool bufferPool;
+    private ProxyMetrics metrics;
     private SocksConnectionManager socksConnectionManager = new SocksConnectionManager();
-    private Map<Long, SelectionKey> selectionKeys = new HashMap<>();
     private Set<SelectionKey> closedConnectionsSet = new HashSet<>();
+    private volatile int throttledTunnelsNumber = 0;
+
+    private TimingWheel timingWheel;
+    private TokenBucket globalRateLimitBucket;
+    private ClientRateLimits clientRateLimits;
+    private long rateLimitBurstBytes;
+    private volatile int rateLimitedKeysNumber = 0;
+
+    private long bufferReleaseIdleNanos;
+    private volatile long bufferGrowthsNumber = 0;
+    private volatile long refusedBufferGrowthsNumber = 0;
+    private volatile long idleBufferReleasesNumber = 0;
+
+    // the rate limits are shared by all the workers, null means there is no such limit
+    public ConnectionManager(BufferPool bufferPool, ProxyMetrics metrics, TimingWheel timingWheel,
+                             ClientRateLimits clientRateLimits, TokenBucket globalRateLimitBucket,
+                             long rateLimitBurstBytes, long bufferReleaseIdleNanos) {
+        this.bufferPool = bufferPool;
+        this.bufferReleaseIdleNanos = bufferReleaseIdleNanos;
+        this.metrics = metrics;
+        this.timingWheel = timingWheel;
+        this.clientRateLimits = clientRateLimits;
+        this.globalRateLimitBucket = globalRateLimitBucket;
+        this.rateLimitBurstBytes = rateLimitBurstBytes;
+    }
 
     public boolean isConnectionPresent(SelectionKey selectionKey) {
         KeyAttachment keyAttachment = (KeyAttachment) selectionKey.attachment();
-        return keyAttachment != null && selectionKeys.containsKey(keyAttachment.getID());
+        return keyAttachment != null && !keyAttachment.getTunnel().isClosed();
+    }
+
+    public int getThrottledTunnelsNumber() {
+        return throttledTunnelsNumber;
+    }
+
+    public int getRateLimitedKeysNumber() {
+        return rateLimitedKeysNumber;
+    }
+
+    public long getBufferGrowthsNumber() {
+        return bufferGrowthsNumber;
+    }
+
+    public long getRefusedBufferGrowthsNumber() {
+        return refusedBufferGrowthsNumber;
+    }
+
+    public long getIdleBufferReleasesNumber() {
+        return idleBufferReleasesNumber;
     }
 
     public void addClientConnection(SelectionKey clientKey) {
-        addConnection(clientKey, true);
-        socksConnectionManager.addClient(clientKey);
+        Tunnel tunnel = new Tunnel(clientKey);
+        clientKey.attach(new KeyAttachment(tunnel, true, bufferPool.lease(), bufferPool.lease()));
+        metrics.countAcceptedTunnel();
     }
 
     public void addServerConnection(SelectionKey serverKey, SelectionKey clientKey) {
-        addConnection(serverKey, false);
         KeyAttachment clientKeyAttachment = (KeyAttachment) clientKey.attachment();
-        KeyAttachment serverKeyAttachment = (KeyAttachment) serverKey.attachment();
 
-        clientKeyAttachment.setRemoteID(serverKeyAttachment.getID());
-        serverKeyAttachment.setRemoteID(clientKeyAttachment.getID());
+        // the server reads into the buffer the client writes from and vice versa
+        Tunnel tunnel = clientKeyAttachment.getTunnel();
+        KeyAttachment serverKeyAttachment = new KeyAttachment(
+                tunnel, false, clientKeyAttachment.getWriteBuffer(), clientKeyAttachment.getReadBuffer()
+        );
+        serverKey.attach(serverKeyAttachment);
+        tunnel.setServerKey(serverKey);
+        if (clientRateLimits != null) {
+            // both directions of every tunnel of the client share the client's budget
+            tunnel.setRateLimitBucket(clientRateLimits.acquireBucket(tunnel.getClientSocketAddress().getAddress()));
+        }
+
+        // the client may have sent data along with its connection request
+        if (serverKeyAttachment.getWriteBuffer().position() > 0) {
+            serverKey.interestOpsOr(SelectionKey.OP_WRITE);
+        }
+    }
+
+    public ConnectionStatus getConnectionStatus(SelectionKey clientKey) {
+        return socksConnectionManager.getConnectionStatus(clientKey);
     }
 
-    public Map<SelectionKey, InetSocketAddress> getRequestedConnections() {
+    public long getLastActivityTimeNanos(SelectionKey clientKey) {
+        KeyAttachment clientKeyAttachment = (KeyAttachment) clientKey.attachment();
+        KeyAttachment serverKeyAttachment = getRemoteKeyAttachment(clientKeyAttachment);
+        long lastActivityTimeNanos = clientKeyAttachment.getLastActivityTimeNanos();
+        if (serverKeyAttachment != null && serverKeyAttachment.getLastActivityTimeNanos() - lastActivityTimeNanos > 0) {
+            lastActivityTimeNanos = serverKeyAttachment.getLastActivityTimeNanos();
+        }
+
+        return lastActivityTimeNanos;
+    }
+
+    public long getCreationTimeNanos(SelectionKey clientKey) {
+        return ((KeyAttachment) clientKey.attachment()).getTunnel().getCreationTimeNanos();
+    }
+
+    public boolean isHandshakePipelined(SelectionKey clientKey) {
+        return ((KeyAttachment) clientKey.attachment()).getSocksSession().isPipelined();
+    }
+
+    public List<SelectionKey> getRequestedConnections() {
         return socksConnectionManager.getRequestedConnections();
     }
 
+    public InetSocketAddress getRequestedSocketAddress(SelectionKey clientKey) {
+        return ((KeyAttachment) clientKey.attachment()).getSocksSession().getRequestedSocketAddress();
+    }
+
+    public boolean isUdpAssociationRequested(SelectionKey clientKey) {
+        return ((KeyAttachment) clientKey.attachment()).getSocksSession().isUdpAssociation();
+    }
+
+    public void notifyClientOfUdpAssociation(SelectionKey clientKey, InetSocketAddress relaySocketAddress) {
+        socksConnectionManager.notifyClientOfUdpAssociation(clientKey, relaySocketAddress);
+        ((KeyAttachment) clientKey.attachment()).getTunnel().setEstablishmentTimeNanos(System.nanoTime());
+        metrics.countEstablishedTunnel();
+        scheduleBufferRelease(clientKey, bufferReleaseIdleNanos);
+    }
+
     public void notifyClientOfRequestFailure(SelectionKey clientKey) {
         socksConnectionManager.notifyClientOfRequestFailure(clientKey);
     }
 
     public void notifyClientOfRequestSuccess(SelectionKey clientKey) {
         socksConnectionManager.notifyClientOfRequestSuccess(clientKey);
+        ((KeyAttachment) clientKey.attachment()).getTunnel().setEstablishmentTimeNanos(System.nanoTime());
+        metrics.countEstablishedTunnel();
+        scheduleBufferRelease(clientKey, bufferReleaseIdleNanos);
     }
 
-    private void addConnection(SelectionKey selectionKey, boolean isClient) {
-        KeyAttachment keyAttachment = new KeyAttachment(isClient);
-        selectionKey.attach(keyAttachment);
-        selectionKeys.put(keyAttachment.getID(), selectionKey);
-    }
-
-    public void closeConnection(SelectionKey selectionKey) {
+    public void closeConnection(SelectionKey selectionKey, CloseReason closeReason) {
         KeyAttachment keyAttachment = (KeyAttachment) selectionKey.attachment();
-        Long id = keyAttachment.getID();
+        Tunnel tunnel = keyAttachment.getTunnel();
+        if (tunnel.isClosed()) {
+            return;
+        }
+        tunnel.setCloseReason(closeReason);
 
-        selectionKeys.remove(id);
+        if (isTunnelThrottled(keyAttachment)) {
+            --throttledTunnelsNumber;
+        }
+
+        tunnel.setClosed();
+        if (tunnel.getBufferReleaseTimeout() != null) {
+            timingWheel.cancel(tunnel.getBufferReleaseTimeout());
+        }
+        if (tunnel.getRateLimitBucket() != null) {
+            clientRateLimits.releaseBucket(tunnel.getClientSocketAddress().getAddress());
+        }
+        metrics.countClosedTunnel(
+                tunnel.getSocksSession().getConnectionStatus() == ConnectionStatus.ESTABLISHED
+        );
+        closeKey(tunnel.getClientKey());
+        if (tunnel.getServerKey() != null) {
+            closeKey(tunnel.getServerKey());
+        }
+    }
+
+    private void closeKey(SelectionKey selectionKey) {
         closedConnectionsSet.add(selectionKey);
         selectionKey.cancel();
 
-        Long remoteID = keyAttachment.getRemoteID();
-        if (remoteID != null) {
-            SelectionKey remoteKey = selectionKeys.remove(remoteID);
-            closedConnectionsSet.add(remoteKey);
-            remoteKey.cancel();
+        KeyAttachment keyAttachment = (KeyAttachment) selectionKey.attachment();
+        keyAttachment.releaseBuffers(bufferPool);
+        if (keyAttachment.getReadingResumeTimeout() != null) {
+            timingWheel.cancel(keyAttachment.getReadingResumeTimeout());
         }
-
-        Long clientID = keyAttachment.isClient() ? id : remoteID;
-        if (clientID != null) {
-            socksConnectionManager.removeClient(selectionKey);
+        if (keyAttachment.isRateLimited()) {
+            --rateLimitedKeysNumber;
         }
     }
 
@@ -80,39 +205,76 @@ public class ConnectionManager {
     public void readData(SelectionKey selectionKey) throws IOException {
         SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
         KeyAttachment keyAttachment = (KeyAttachment) selectionKey.attachment();
+        if (keyAttachment.getReadBuffer() == null) {
+            acquireBuffers(keyAttachment.getTunnel());
+        }
 
         ByteBuffer readBuffer = keyAttachment.getReadBuffer();
-        int bytesRead = socketChannel.read(readBuffer);
-        readBuffer.flip();
+        int freeSpaceBeforeRead = readBuffer.remaining();
+        int bytesRead;
+        if (isRateLimitApplied(keyAttachment)) {
+            bytesRead = readRateLimited(selectionKey, keyAttachment);
+            if (bytesRead == 0 && keyAttachment.isRateLimited()) {
+                return;
+            }
+        } else {
+            bytesRead = socketChannel.read(readBuffer);
+        }
+
+        if (bytesRead > 0) {
+            keyAttachment.setLastActivityTimeNanos(System.nanoTime());
+            if (keyAttachment.isClient()) {
+                metrics.addBytesFromClient(bytesRead);
+                keyAttachment.getTunnel().addBytesFromClient(bytesRead);
+            } else {
+                metrics.addBytesFromServer(bytesRead);
+                keyAttachment.getTunnel().addBytesFromServer(bytesRead);
+            }
+        }
 
         if (keyAttachment.isClient()) {
             ConnectionStatus connectionStatus = socksConnectionManager.getConnectionStatus(selectionKey);
             if (connectionStatus == ConnectionStatus.NOT_ESTABLISHED) {
+                readBuffer.flip();
                 socksConnectionManager.fillHandShakeInfo(selectionKey);
                 readBuffer.compact();
+                if (bytesRead == -1) {
+                    closeConnection(selectionKey, CloseReason.CLIENT_CLOSED);
+                } else if (!readBuffer.hasRemaining()) {
+                    pauseReading(selectionKey, keyAttachment);
+                }
                 return;
             }
         }
 
-        Long remoteID = keyAttachment.getRemoteID();
-        SelectionKey remoteKey = selectionKeys.get(remoteID);
-        remoteKey.interestOpsOr(SelectionKey.OP_WRITE);
-        KeyAttachment remoteKeyAttachment = (KeyAttachment) remoteKey.attachment();
-        ByteBuffer remoteWriteBuffer = remoteKeyAttachment.getWriteBuffer();
+        // the control connection of a UDP association carries no data, it only has to stay open
+        SelectionKey remoteKey = keyAttachment.getRemoteKey();
+        if (remoteKey == null) {
+            readBuffer.clear();
+            if (bytesRead == -1) {
+                closeConnection(selectionKey, CloseReason.COMPLETED);
+            }
+            return;
+        }
 
-        int bytesToReadAvailable = readBuffer.remaining();
-        int bytesToWriteAvailable = remoteWriteBuffer.remaining();
-        int oldReadBufferLimit = readBuffer.limit();
-        int newReadBufferLimit = (bytesToReadAvailable <= bytesToWriteAvailable) ?
-                oldReadBufferLimit : (oldReadBufferLimit - (bytesToReadAvailable - bytesToWriteAvailable));
+        // the read buffer is the remote write buffer, so there is nothing to copy
+        if (bytesRead > 0) {
+            remoteKey.interestOpsOr(SelectionKey.OP_WRITE);
+            adaptReadBufferLength(keyAttachment, bytesRead, freeSpaceBeforeRead);
+            readBuffer = keyAttachment.getReadBuffer();
+        }
 
-        readBuffer.limit(newReadBufferLimit);
-        remoteWriteBuffer.put(readBuffer);
-        readBuffer.limit(oldReadBufferLimit);
+        if (!readBuffer.hasRemaining()) {
+            pauseReading(selectionKey, keyAttachment);
+        }
 
-        readBuffer.compact();
-        if (bytesRead == -1 && !readBuffer.hasRemaining()) {
-            closeConnection(selectionKey);
+        // the end of stream is passed on as a half-close once the remote side has written everything before it
+        if (bytesRead == -1) {
+            keyAttachment.setEndOfStreamReached();
+            selectionKey.interestOpsAnd(~SelectionKey.OP_READ);
+            if (readBuffer.position() == 0) {
+                shutdownOutput(remoteKey);
+            }
         }
     }
 
@@ -121,19 +283,261 @@ public class ConnectionManager {
         SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
 
         ByteBuffer writeBuffer = keyAttachment.getWriteBuffer();
+        if (writeBuffer == null) {
+            // the buffers of an idle tunnel have been released after the last write
+            selectionKey.interestOpsAnd(~SelectionKey.OP_WRITE);
+            return;
+        }
+
         writeBuffer.flip();
-        socketChannel.write(writeBuffer);
+        if (socketChannel.write(writeBuffer) > 0) {
+            keyAttachment.setLastActivityTimeNanos(System.nanoTime());
+        }
         boolean writeHasFinished = !writeBuffer.hasRemaining();
         writeBuffer.compact();
 
+        KeyAttachment remoteKeyAttachment = getRemoteKeyAttachment(keyAttachment);
+        if (remoteKeyAttachment != null && remoteKeyAttachment.isReadingPaused()) {
+            resumeReading(keyAttachment.getRemoteKey(), remoteKeyAttachment);
+        }
+
         if (writeHasFinished) {
             selectionKey.interestOpsAnd(~SelectionKey.OP_WRITE);
             if (keyAttachment.isClient()) {
                 ConnectionStatus connectionStatus = socksConnectionManager.getConnectionStatus(selectionKey);
                 if (connectionStatus == ConnectionStatus.FAILED) {
-                    closeConnection(selectionKey);
+                    closeConnection(selectionKey, CloseReason.REQUEST_FAILED);
+                    return;
                 }
             }
+
+            if (remoteKeyAttachment != null && remoteKeyAttachment.isEndOfStreamReached() &&
+                    !keyAttachment.isOutputShutdown()) {
+                shutdownOutput(selectionKey);
+            }
         }
     }
+
+    private void shutdownOutput(SelectionKey selectionKey) throws IOException {
+        KeyAttachment keyAttachment = (KeyAttachment) selectionKey.attachment();
+        ((SocketChannel) selectionKey.channel()).shutdownOutput();
+        keyAttachment.setOutputShutdown();
+
+        // the tunnel is torn down only when both directions have finished
+        KeyAttachment remoteKeyAttachment = getRemoteKeyAttachment(keyAttachment);
+        if (remoteKeyAttachment.isOutputShutdown()) {
+            closeConnection(selectionKey, CloseReason.COMPLETED);
+        }
+    }
+
+    private void adaptReadBufferLength(KeyAttachment keyAttachment, int bytesRead, int freeSpaceBeforeRead) {
+        ByteBuffer readBuffer = keyAttachment.getReadBuffer();
+        int bufferLength = readBuffer.capacity();
+        if (bytesRead == freeSpaceBeforeRead && 2 * freeSpaceBeforeRead >= bufferLength) {
+            if (keyAttachment.countFullRead() < BUFFER_GROWTH_READS_NUMBER ||
+                    bufferLength >= bufferPool.getMaxBufferLength()) {
+                return;
+            }
+
+            keyAttachment.resetReadsNumbers();
+            ByteBuffer grownBuffer = bufferPool.tryLease(2 * bufferLength);
+            if (grownBuffer == null) {
+                ++refusedBufferGrowthsNumber;
+                return;
+            }
+            replaceReadBuffer(keyAttachment, grownBuffer);
+            ++bufferGrowthsNumber;
+        } else if (bytesRead <= bufferLength / SMALL_READ_FRACTION) {
+            if (keyAttachment.countSmallRead() < BUFFER_SHRINK_READS_NUMBER ||
+                    bufferLength <= bufferPool.getBufferLength() || readBuffer.position() > bufferLength / 2) {
+                return;
+            }
+
+            keyAttachment.resetReadsNumbers();
+            replaceReadBuffer(keyAttachment, bufferPool.lease(bufferLength / 2));
+        } else {
+            keyAttachment.resetReadsNumbers();
+        }
+    }
+
+    // the read buffer of a key is the write buffer of its remote key, both have to point to the new one
+    private void replaceReadBuffer(KeyAttachment keyAttachment, ByteBuffer newReadBuffer) {
+        ByteBuffer readBuffer = keyAttachment.getReadBuffer();
+        readBuffer.flip();
+        newReadBuffer.put(readBuffer);
+        bufferPool.release(readBuffer);
+
+        keyAttachment.setReadBuffer(newReadBuffer);
+        getRemoteKeyAttachment(keyAttachment).setWriteBuffer(newReadBuffer);
+    }
+
+    private void acquireBuffers(Tunnel tunnel) {
+        KeyAttachment clientKeyAttachment = (KeyAttachment) tunnel.getClientKey().attachment();
+        clientKeyAttachment.setReadBuffer(bufferPool.lease());
+        clientKeyAttachment.setWriteBuffer(bufferPool.lease());
+        if (tunnel.getServerKey() != null) {
+            KeyAttachment serverKeyAttachment = (KeyAttachment) tunnel.getServerKey().attachment();
+            serverKeyAttachment.setReadBuffer(clientKeyAttachment.getWriteBuffer());
+            serverKeyAttachment.setWriteBuffer(clientKeyAttachment.getReadBuffer());
+        }
+
+        scheduleBufferRelease(tunnel.getClientKey(), bufferReleaseIdleNanos);
+    }
+
+    // an idle tunnel with nothing buffered gives its buffers back to the pool until it has data to relay again
+    public void releaseIdleBuffers(SelectionKey clientKey) {
+        KeyAttachment clientKeyAttachment = (KeyAttachment) clientKey.attachment();
+        KeyAttachment serverKeyAttachment = getRemoteKeyAttachment(clientKeyAttachment);
+        long idleTimeNanos = System.nanoTime() - getLastActivityTimeNanos(clientKey);
+        if (idleTimeNanos < bufferReleaseIdleNanos) {
+            scheduleBufferRelease(clientKey, bufferReleaseIdleNanos - idleTimeNanos);
+            return;
+        }
+
+        if (clientKeyAttachment.getReadBuffer().position() > 0 || clientKeyAttachment.getWriteBuffer().position() > 0) {
+            scheduleBufferRelease(clientKey, bufferReleaseIdleNanos);
+            return;
+        }
+
+        bufferPool.release(clientKeyAttachment.getReadBuffer());
+        bufferPool.release(clientKeyAttachment.getWriteBuffer());
+        clientKeyAttachment.setReadBuffer(null);
+        clientKeyAttachment.setWriteBuffer(null);
+        clientKeyAttachment.resetReadsNumbers();
+        if (serverKeyAttachment != null) {
+            serverKeyAttachment.setReadBuffer(null);
+            serverKeyAttachment.setWriteBuffer(null);
+            serverKeyAttachment.resetReadsNumbers();
+        }
+        ++idleBufferReleasesNumber;
+    }
+
+    private void scheduleBufferRelease(SelectionKey clientKey, long delayNanos) {
+        if (bufferReleaseIdleNanos <= 0) {
+            return;
+        }
+
+        Tunnel tunnel = ((KeyAttachment) clientKey.attachment()).getTunnel();
+        ConnectionTimeout bufferReleaseTimeout = tunnel.getBufferReleaseTimeout();
+        if (bufferReleaseTimeout == null) {
+            bufferReleaseTimeout = new ConnectionTimeout(clientKey);
+            tunnel.setBufferReleaseTimeout(bufferReleaseTimeout);
+        }
+
+        timingWheel.schedule(bufferReleaseTimeout, TimeoutType.RELEASE_BUFFERS, delayNanos);
+    }
+
+    public void resumeRateLimitedReading(SelectionKey selectionKey) {
+        KeyAttachment keyAttachment = (KeyAttachment) selectionKey.attachment();
+        if (!keyAttachment.isRateLimited()) {
+            return;
+        }
+
+        keyAttachment.setRateLimited(false);
+        --rateLimitedKeysNumber;
+        if (!keyAttachment.isReadingPaused() && !keyAttachment.isEndOfStreamReached()) {
+            selectionKey.interestOpsOr(SelectionKey.OP_READ);
+        }
+    }
+
+    private boolean isRateLimitApplied(KeyAttachment keyAttachment) {
+        // the handshake is never shaped, only the relayed bytes are
+        return (globalRateLimitBucket != null || keyAttachment.getTunnel().getRateLimitBucket() != null) &&
+                keyAttachment.getRemoteKey() != null;
+    }
+
+    // every relayed byte is read exactly once, so shaping the reads shapes the writes as well
+    private int readRateLimited(SelectionKey selectionKey, KeyAttachment keyAttachment) throws IOException {
+        long currentTimeNanos = System.nanoTime();
+        TokenBucket clientRateLimitBucket = keyAttachment.getTunnel().getRateLimitBucket();
+
+        long allowedBytesNumber = Long.MAX_VALUE;
+        if (clientRateLimitBucket != null) {
+            allowedBytesNumber = clientRateLimitBucket.getTokensNumber(currentTimeNanos);
+        }
+        if (globalRateLimitBucket != null) {
+            allowedBytesNumber = Math.min(allowedBytesNumber, globalRateLimitBucket.getTokensNumber(currentTimeNanos));
+        }
+
+        ByteBuffer readBuffer = keyAttachment.getReadBuffer();
+        long requiredBytesNumber = Math.min(
+                Math.min(MIN_RATE_LIMITED_READ_LENGTH, rateLimitBurstBytes), readBuffer.remaining()
+        );
+        if (allowedBytesNumber < requiredBytesNumber) {
+            parkReading(selectionKey, keyAttachment, clientRateLimitBucket, requiredBytesNumber);
+            return 0;
+        }
+
+        int limit = readBuffer.limit();
+        if (allowedBytesNumber < readBuffer.remaining()) {
+            readBuffer.limit(readBuffer.position() + (int) allowedBytesNumber);
+        }
+        int bytesRead = ((SocketChannel) selectionKey.channel()).read(readBuffer);
+        readBuffer.limit(limit);
+
+        if (bytesRead > 0) {
+            if (clientRateLimitBucket != null) {
+                clientRateLimitBucket.consume(bytesRead);
+            }
+            if (globalRateLimitBucket != null) {
+                globalRateLimitBucket.consume(bytesRead);
+            }
+        }
+
+        return bytesRead;
+    }
+
+    private void parkReading(SelectionKey selectionKey, KeyAttachment keyAttachment,
+                             TokenBucket clientRateLimitBucket, long requiredBytesNumber) {
+        // the key sleeps with OP_READ cleared until the buckets have refilled, the timing wheel wakes it up
+        long parkingNanos = 0;
+        if (clientRateLimitBucket != null) {
+            parkingNanos = clientRateLimitBucket.getNanosUntilAvailable(requiredBytesNumber);
+        }
+        if (globalRateLimitBucket != null) {
+            parkingNanos = Math.max(parkingNanos, globalRateLimitBucket.getNanosUntilAvailable(requiredBytesNumber));
+        }
+
+        ConnectionTimeout readingResumeTimeout = keyAttachment.getReadingResumeTimeout();
+        if (readingResumeTimeout == null) {
+            readingResumeTimeout = new ConnectionTimeout(selectionKey);
+            keyAttachment.setReadingResumeTimeout(readingResumeTimeout);
+        }
+
+        keyAttachment.setRateLimited(true);
+        ++rateLimitedKeysNumber;
+        selectionKey.interestOpsAnd(~SelectionKey.OP_READ);
+        timingWheel.schedule(readingResumeTimeout, TimeoutType.RESUME_READING, parkingNanos);
+    }
+
+    private void pauseReading(SelectionKey selectionKey, KeyAttachment keyAttachment) {
+        if (!isTunnelThrottled(keyAttachment)) {
+            ++throttledTunnelsNumber;
+        }
+
+        keyAttachment.setReadingPaused(true);
+        selectionKey.interestOpsAnd(~SelectionKey.OP_READ);
+    }
+
+    private void resumeReading(SelectionKey selectionKey, KeyAttachment keyAttachment) {
+        keyAttachment.setReadingPaused(false);
+        if (!keyAttachment.isEndOfStreamReached() && !keyAttachment.isRateLimited()) {
+            selectionKey.interestOpsOr(SelectionKey.OP_READ);
+        }
+
+        if (!isTunnelThrottled(keyAttachment)) {
+            --throttledTunnelsNumber;
+        }
+    }
+
+    private boolean isTunnelThrottled(KeyAttachment keyAttachment) {
+        KeyAttachment remoteKeyAttachment = getRemoteKeyAttachment(keyAttachment);
+        return keyAttachment.isReadingPaused() ||
+                (remoteKeyAttachment != null && remoteKeyAttachment.isReadingPaused());
+    }
+
+    private KeyAttachment getRemoteKeyAttachment(KeyAttachment keyAttachment) {
+        SelectionKey remoteKey = keyAttachment.getRemoteKey();
+        return remoteKey == null ? null : (KeyAttachment) remoteKey.attachment();
+    }
 }
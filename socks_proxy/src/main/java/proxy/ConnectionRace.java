@@ -0,0 +1,48 @@
+package proxy;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+class ConnectionRace {
+    private final SelectionKey clientKey;
+    private final Queue<InetSocketAddress> remainingSocketAddresses;
+    private final Set<SelectionKey> attemptKeys = new HashSet<>();
+    // the tunnel timeout of the client key is taken by the connect timeout, the next attempt has its own
+    private final ConnectionTimeout nextAttemptTimeout;
+    private final long startTimeNanos = System.nanoTime();
+
+    ConnectionRace(SelectionKey clientKey, List<InetSocketAddress> serverSocketAddresses) {
+        this.clientKey = clientKey;
+        remainingSocketAddresses = new ArrayDeque<>(serverSocketAddresses);
+        nextAttemptTimeout = new ConnectionTimeout(clientKey);
+    }
+
+    SelectionKey getClientKey() {
+        return clientKey;
+    }
+
+    boolean hasRemainingSocketAddresses() {
+        return !remainingSocketAddresses.isEmpty();
+    }
+
+    InetSocketAddress pollSocketAddress() {
+        return remainingSocketAddresses.poll();
+    }
+
+    Set<SelectionKey> getAttemptKeys() {
+        return attemptKeys;
+    }
+
+    long getStartTimeNanos() {
+        return startTimeNanos;
+    }
+
+    ConnectionTimeout getNextAttemptTimeout() {
+        return nextAttemptTimeout;
+    }
+}
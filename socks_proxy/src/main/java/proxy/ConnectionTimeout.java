@@ -0,0 +1,34 @@
+package proxy;
+
+import java.nio.channels.SelectionKey;
+
+class ConnectionTimeout {
+    private final SelectionKey selectionKey;
+    private TimeoutType type;
+
+    // intrusive links of the timing wheel slot list, so cancellation is O(1)
+    long deadlineTick;
+    int slotIndex = TimingWheel.NO_SLOT;
+    ConnectionTimeout previous;
+    ConnectionTimeout next;
+
+    ConnectionTimeout(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+    }
+
+    SelectionKey getSelectionKey() {
+        return selectionKey;
+    }
+
+    TimeoutType getType() {
+        return type;
+    }
+
+    void setType(TimeoutType type) {
+        this.type = type;
+    }
+
+    boolean isScheduled() {
+        return slotIndex != TimingWheel.NO_SLOT;
+    }
+}
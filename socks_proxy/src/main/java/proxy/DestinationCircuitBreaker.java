@@ -0,0 +1,108 @@
+package proxy;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// tracks connect failures per requested destination, shared by all workers; an unreachable destination
+// fails fast for a cooldown, then a single probe connection is let through to find out if it is back
+class DestinationCircuitBreaker {
+    private final int failuresThreshold;
+    private final long cooldownNanos;
+    private final int maxDestinationsNumber;
+
+    // access order makes the eldest destination the least recently used one
+    private final Map<InetSocketAddress, Destination> destinations = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, Destination> eldest) {
+            return size() > maxDestinationsNumber;
+        }
+    };
+
+    private volatile long tripsNumber = 0;
+    private volatile long fastFailuresNumber = 0;
+
+    private static class Destination {
+        int failuresNumber = 0;
+        long openingTimeNanos;
+        boolean isProbing = false;
+        long probeStartTimeNanos;
+    }
+
+    DestinationCircuitBreaker(int failuresThreshold, long cooldownNanos, int maxDestinationsNumber) {
+        this.failuresThreshold = failuresThreshold;
+        this.cooldownNanos = cooldownNanos;
+        this.maxDestinationsNumber = maxDestinationsNumber;
+    }
+
+    // the requested address is used before resolution, so an open breaker saves the DNS lookup as well
+    static InetSocketAddress getDestination(InetSocketAddress requestedSocketAddress) {
+        if (!requestedSocketAddress.isUnresolved()) {
+            return requestedSocketAddress;
+        }
+        return InetSocketAddress.createUnresolved(
+                requestedSocketAddress.getHostString().toLowerCase(Locale.ROOT), requestedSocketAddress.getPort()
+        );
+    }
+
+    synchronized boolean allowConnection(InetSocketAddress destinationAddress) {
+        if (failuresThreshold <= 0) {
+            return true;
+        }
+
+        Destination destination = destinations.get(destinationAddress);
+        if (destination == null || destination.failuresNumber < failuresThreshold) {
+            return true;
+        }
+
+        long currentTimeNanos = System.nanoTime();
+        boolean isCoolingDown = currentTimeNanos - destination.openingTimeNanos < cooldownNanos;
+        // a probe whose client has gone away never reports back, so it is only waited for one cooldown
+        boolean isProbeRunning = destination.isProbing &&
+                currentTimeNanos - destination.probeStartTimeNanos < cooldownNanos;
+        if (isCoolingDown || isProbeRunning) {
+            ++fastFailuresNumber;
+            return false;
+        }
+
+        destination.isProbing = true;
+        destination.probeStartTimeNanos = currentTimeNanos;
+        return true;
+    }
+
+    synchronized void recordSuccess(InetSocketAddress destinationAddress) {
+        if (failuresThreshold > 0) {
+            destinations.remove(destinationAddress);
+        }
+    }
+
+    synchronized void recordFailure(InetSocketAddress destinationAddress) {
+        if (failuresThreshold <= 0) {
+            return;
+        }
+
+        Destination destination = destinations.computeIfAbsent(destinationAddress, address -> new Destination());
+        ++destination.failuresNumber;
+        // a failed probe opens the breaker for one more cooldown
+        if (destination.failuresNumber >= failuresThreshold) {
+            if (destination.failuresNumber == failuresThreshold || destination.isProbing) {
+                ++tripsNumber;
+            }
+            destination.openingTimeNanos = System.nanoTime();
+            destination.isProbing = false;
+        }
+    }
+
+    synchronized int getDestinationsNumber() {
+        return destinations.size();
+    }
+
+    long getTripsNumber() {
+        return tripsNumber;
+    }
+
+    long getFastFailuresNumber() {
+        return fastFailuresNumber;
+    }
+}
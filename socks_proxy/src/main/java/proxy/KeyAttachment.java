@@ -1,42 +1,97 @@
 package proxy;
 
-import proxy.socks.ConnectionStatus;
+import proxy.socks.SocksSession;
 
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
 
 public class KeyAttachment {
-    private static long nextID = 0;
-    private static final int BUFFER_LENGTH = 8192;
+    private final Tunnel tunnel;
+    private final boolean isClient;
 
-    private final Long id;
-    private Long remoteID;
+    private boolean isEndOfStreamReached = false;
+    private boolean isOutputShutdown = false;
+    private boolean isReadingPaused = false;
+    private boolean isRateLimited = false;
+    private ConnectionTimeout readingResumeTimeout;
+    private long lastActivityTimeNanos = System.nanoTime();
 
-    private boolean isClient;
+    // consecutive reads that filled the read buffer or used only a small part of it
+    private int fullReadsNumber = 0;
+    private int smallReadsNumber = 0;
 
-    private final ByteBuffer readBuffer;
-    private final ByteBuffer writeBuffer;
+    private ByteBuffer readBuffer;
+    private ByteBuffer writeBuffer;
 
-    KeyAttachment(boolean isClient) {
-        id = nextID++;
+    KeyAttachment(Tunnel tunnel, boolean isClient, ByteBuffer readBuffer, ByteBuffer writeBuffer) {
+        this.tunnel = tunnel;
         this.isClient = isClient;
-        readBuffer = ByteBuffer.allocate(BUFFER_LENGTH);
-        writeBuffer = ByteBuffer.allocate(BUFFER_LENGTH);
+        this.readBuffer = readBuffer;
+        this.writeBuffer = writeBuffer;
     }
 
-    public long getID() {
-        return id;
+    public Tunnel getTunnel() {
+        return tunnel;
+    }
+
+    public SocksSession getSocksSession() {
+        return tunnel.getSocksSession();
     }
 
     public boolean isClient() {
         return isClient;
     }
 
-    public Long getRemoteID() {
-        return remoteID;
+    public SelectionKey getRemoteKey() {
+        return isClient ? tunnel.getServerKey() : tunnel.getClientKey();
+    }
+
+    public boolean isEndOfStreamReached() {
+        return isEndOfStreamReached;
+    }
+
+    public void setEndOfStreamReached() {
+        isEndOfStreamReached = true;
+    }
+
+    public boolean isOutputShutdown() {
+        return isOutputShutdown;
+    }
+
+    public void setOutputShutdown() {
+        isOutputShutdown = true;
     }
 
-    public void setRemoteID(long remoteID) {
-        this.remoteID = remoteID;
+    public boolean isReadingPaused() {
+        return isReadingPaused;
+    }
+
+    public void setReadingPaused(boolean isReadingPaused) {
+        this.isReadingPaused = isReadingPaused;
+    }
+
+    public boolean isRateLimited() {
+        return isRateLimited;
+    }
+
+    public void setRateLimited(boolean isRateLimited) {
+        this.isRateLimited = isRateLimited;
+    }
+
+    ConnectionTimeout getReadingResumeTimeout() {
+        return readingResumeTimeout;
+    }
+
+    void setReadingResumeTimeout(ConnectionTimeout readingResumeTimeout) {
+        this.readingResumeTimeout = readingResumeTimeout;
+    }
+
+    public long getLastActivityTimeNanos() {
+        return lastActivityTimeNanos;
+    }
+
+    public void setLastActivityTimeNanos(long lastActivityTimeNanos) {
+        this.lastActivityTimeNanos = lastActivityTimeNanos;
     }
 
     public ByteBuffer getReadBuffer() {
@@ -46,4 +101,38 @@ public class KeyAttachment {
     public ByteBuffer getWriteBuffer() {
         return writeBuffer;
     }
+
+    void setReadBuffer(ByteBuffer readBuffer) {
+        this.readBuffer = readBuffer;
+    }
+
+    void setWriteBuffer(ByteBuffer writeBuffer) {
+        this.writeBuffer = writeBuffer;
+    }
+
+    int countFullRead() {
+        smallReadsNumber = 0;
+        return ++fullReadsNumber;
+    }
+
+    int countSmallRead() {
+        fullReadsNumber = 0;
+        return ++smallReadsNumber;
+    }
+
+    void resetReadsNumbers() {
+        fullReadsNumber = 0;
+        smallReadsNumber = 0;
+    }
+
+    void releaseBuffers(BufferPool bufferPool) {
+        // buffers are leased by the client side of a tunnel and only borrowed by the server side
+        if (isClient && readBuffer != null) {
+            bufferPool.release(readBuffer);
+            bufferPool.release(writeBuffer);
+        }
+
+        readBuffer = null;
+        writeBuffer = null;
+    }
 }
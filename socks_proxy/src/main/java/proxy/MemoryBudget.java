@@ -0,0 +1,42 @@
+package proxy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// process-wide limit on the bytes of the allocated relay buffer slabs, shared by all workers
+class MemoryBudget {
+    private final long limitBytes;
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    MemoryBudget(long limitBytes) {
+        this.limitBytes = limitBytes;
+    }
+
+    // the slabs for the buffers a tunnel cannot work without are always granted, only growth is refused
+    void reserve(long bytesNumber) {
+        usedBytes.addAndGet(bytesNumber);
+    }
+
+    boolean tryReserve(long bytesNumber) {
+        long currentUsedBytes;
+        do {
+            currentUsedBytes = usedBytes.get();
+            if (currentUsedBytes + bytesNumber > limitBytes) {
+                return false;
+            }
+        } while (!usedBytes.compareAndSet(currentUsedBytes, currentUsedBytes + bytesNumber));
+
+        return true;
+    }
+
+    void release(long bytesNumber) {
+        usedBytes.addAndGet(-bytesNumber);
+    }
+
+    long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    long getLimitBytes() {
+        return limitBytes;
+    }
+}
@@ -0,0 +1,7 @@
+package proxy;
+
+// what the acceptor does with new connections while the tunnel limit is reached
+public enum OverloadPolicy {
+    REFUSE,
+    PAUSE_ACCEPTING;
+}
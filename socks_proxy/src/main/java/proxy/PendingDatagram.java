@@ -0,0 +1,28 @@
+package proxy;
+
+import java.nio.ByteBuffer;
+
+// a datagram to a name that is not in the cache yet, it is sent once the lookup completes
+class PendingDatagram {
+    private final String hostname;
+    private final int port;
+    private final ByteBuffer payload;
+
+    PendingDatagram(String hostname, int port, ByteBuffer payload) {
+        this.hostname = hostname;
+        this.port = port;
+        this.payload = payload;
+    }
+
+    String getHostname() {
+        return hostname;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    ByteBuffer getPayload() {
+        return payload;
+    }
+}
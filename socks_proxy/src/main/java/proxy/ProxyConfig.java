@@ -0,0 +1,363 @@
+package proxy;
+
+public class ProxyConfig {
+    private int workersNumber;
+    private boolean isReusePortEnabled;
+
+    private int acceptBatchSize;
+    private int maxTunnelsNumber;
+    private int maxTunnelsPerAddressNumber;
+    private OverloadPolicy overloadPolicy;
+
+    private int bufferLength;
+    private int buffersPerSlab;
+    private int maxBufferLength;
+    private long bufferMemoryBudgetBytes;
+    private int bufferReleaseIdleMillis;
+
+    private int dnsCacheSize;
+    private int dnsMaxTtlSeconds;
+    private int dnsNegativeTtlSeconds;
+    private int dnsTimeoutMillis;
+    private int dnsMaxAttemptsNumber;
+    private int dnsResolutionDelayMillis;
+    private String hostsFilepath;
+    private int dnsPrefetchNamesNumber;
+    private int dnsPrefetchBeforeExpiryMillis;
+    private int connectionAttemptDelayMillis;
+
+    private int circuitBreakerFailuresNumber;
+    private int circuitBreakerCooldownMillis;
+    private int circuitBreakerSize;
+
+    private int handshakeTimeoutMillis;
+    private int connectTimeoutMillis;
+    private int idleTimeoutMillis;
+    private int udpIdleTimeoutMillis;
+
+    private long clientRateLimitBytesPerSecond;
+    private long globalRateLimitBytesPerSecond;
+    private int rateLimitBurstBytes;
+
+    private String accessLogFilepath;
+    private int accessLogRingSize;
+    private long accessLogMaxFileBytes;
+    private int accessLogFilesNumber;
+
+    private String metricsDumpFilepath;
+    private int metricsDumpIntervalSeconds;
+    private int timerTickMillis;
+    private int timerSlotsNumber;
+
+    public int getWorkersNumber() {
+        return workersNumber;
+    }
+
+    public void setWorkersNumber(int workersNumber) {
+        this.workersNumber = workersNumber;
+    }
+
+    public int getAcceptBatchSize() {
+        return acceptBatchSize;
+    }
+
+    public void setAcceptBatchSize(int acceptBatchSize) {
+        this.acceptBatchSize = acceptBatchSize;
+    }
+
+    public int getMaxTunnelsNumber() {
+        return maxTunnelsNumber;
+    }
+
+    public void setMaxTunnelsNumber(int maxTunnelsNumber) {
+        this.maxTunnelsNumber = maxTunnelsNumber;
+    }
+
+    public int getMaxTunnelsPerAddressNumber() {
+        return maxTunnelsPerAddressNumber;
+    }
+
+    public void setMaxTunnelsPerAddressNumber(int maxTunnelsPerAddressNumber) {
+        this.maxTunnelsPerAddressNumber = maxTunnelsPerAddressNumber;
+    }
+
+    public OverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    public void setOverloadPolicy(OverloadPolicy overloadPolicy) {
+        this.overloadPolicy = overloadPolicy;
+    }
+
+    public int getBufferLength() {
+        return bufferLength;
+    }
+
+    public void setBufferLength(int bufferLength) {
+        this.bufferLength = bufferLength;
+    }
+
+    public int getBuffersPerSlab() {
+        return buffersPerSlab;
+    }
+
+    public void setBuffersPerSlab(int buffersPerSlab) {
+        this.buffersPerSlab = buffersPerSlab;
+    }
+
+    public int getMaxBufferLength() {
+        return maxBufferLength;
+    }
+
+    public void setMaxBufferLength(int maxBufferLength) {
+        this.maxBufferLength = maxBufferLength;
+    }
+
+    public long getBufferMemoryBudgetBytes() {
+        return bufferMemoryBudgetBytes;
+    }
+
+    public void setBufferMemoryBudgetBytes(long bufferMemoryBudgetBytes) {
+        this.bufferMemoryBudgetBytes = bufferMemoryBudgetBytes;
+    }
+
+    public int getBufferReleaseIdleMillis() {
+        return bufferReleaseIdleMillis;
+    }
+
+    public void setBufferReleaseIdleMillis(int bufferReleaseIdleMillis) {
+        this.bufferReleaseIdleMillis = bufferReleaseIdleMillis;
+    }
+
+    public int getDnsCacheSize() {
+        return dnsCacheSize;
+    }
+
+    public void setDnsCacheSize(int dnsCacheSize) {
+        this.dnsCacheSize = dnsCacheSize;
+    }
+
+    public int getDnsMaxTtlSeconds() {
+        return dnsMaxTtlSeconds;
+    }
+
+    public void setDnsMaxTtlSeconds(int dnsMaxTtlSeconds) {
+        this.dnsMaxTtlSeconds = dnsMaxTtlSeconds;
+    }
+
+    public int getDnsNegativeTtlSeconds() {
+        return dnsNegativeTtlSeconds;
+    }
+
+    public void setDnsNegativeTtlSeconds(int dnsNegativeTtlSeconds) {
+        this.dnsNegativeTtlSeconds = dnsNegativeTtlSeconds;
+    }
+
+    public int getDnsTimeoutMillis() {
+        return dnsTimeoutMillis;
+    }
+
+    public void setDnsTimeoutMillis(int dnsTimeoutMillis) {
+        this.dnsTimeoutMillis = dnsTimeoutMillis;
+    }
+
+    public int getDnsMaxAttemptsNumber() {
+        return dnsMaxAttemptsNumber;
+    }
+
+    public void setDnsMaxAttemptsNumber(int dnsMaxAttemptsNumber) {
+        this.dnsMaxAttemptsNumber = dnsMaxAttemptsNumber;
+    }
+
+    public int getDnsResolutionDelayMillis() {
+        return dnsResolutionDelayMillis;
+    }
+
+    public void setDnsResolutionDelayMillis(int dnsResolutionDelayMillis) {
+        this.dnsResolutionDelayMillis = dnsResolutionDelayMillis;
+    }
+
+    public String getHostsFilepath() {
+        return hostsFilepath;
+    }
+
+    public void setHostsFilepath(String hostsFilepath) {
+        this.hostsFilepath = hostsFilepath;
+    }
+
+    public int getDnsPrefetchNamesNumber() {
+        return dnsPrefetchNamesNumber;
+    }
+
+    public void setDnsPrefetchNamesNumber(int dnsPrefetchNamesNumber) {
+        this.dnsPrefetchNamesNumber = dnsPrefetchNamesNumber;
+    }
+
+    public int getDnsPrefetchBeforeExpiryMillis() {
+        return dnsPrefetchBeforeExpiryMillis;
+    }
+
+    public void setDnsPrefetchBeforeExpiryMillis(int dnsPrefetchBeforeExpiryMillis) {
+        this.dnsPrefetchBeforeExpiryMillis = dnsPrefetchBeforeExpiryMillis;
+    }
+
+    public int getConnectionAttemptDelayMillis() {
+        return connectionAttemptDelayMillis;
+    }
+
+    public void setConnectionAttemptDelayMillis(int connectionAttemptDelayMillis) {
+        this.connectionAttemptDelayMillis = connectionAttemptDelayMillis;
+    }
+
+    public int getCircuitBreakerFailuresNumber() {
+        return circuitBreakerFailuresNumber;
+    }
+
+    public void setCircuitBreakerFailuresNumber(int circuitBreakerFailuresNumber) {
+        this.circuitBreakerFailuresNumber = circuitBreakerFailuresNumber;
+    }
+
+    public int getCircuitBreakerCooldownMillis() {
+        return circuitBreakerCooldownMillis;
+    }
+
+    public void setCircuitBreakerCooldownMillis(int circuitBreakerCooldownMillis) {
+        this.circuitBreakerCooldownMillis = circuitBreakerCooldownMillis;
+    }
+
+    public int getCircuitBreakerSize() {
+        return circuitBreakerSize;
+    }
+
+    public void setCircuitBreakerSize(int circuitBreakerSize) {
+        this.circuitBreakerSize = circuitBreakerSize;
+    }
+
+    public int getHandshakeTimeoutMillis() {
+        return handshakeTimeoutMillis;
+    }
+
+    public void setHandshakeTimeoutMillis(int handshakeTimeoutMillis) {
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public void setIdleTimeoutMillis(int idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public int getTimerTickMillis() {
+        return timerTickMillis;
+    }
+
+    public void setTimerTickMillis(int timerTickMillis) {
+        this.timerTickMillis = timerTickMillis;
+    }
+
+    public int getTimerSlotsNumber() {
+        return timerSlotsNumber;
+    }
+
+    public void setTimerSlotsNumber(int timerSlotsNumber) {
+        this.timerSlotsNumber = timerSlotsNumber;
+    }
+
+    public boolean isReusePortEnabled() {
+        return isReusePortEnabled;
+    }
+
+    public void setReusePortEnabled(boolean isReusePortEnabled) {
+        this.isReusePortEnabled = isReusePortEnabled;
+    }
+
+    public int getUdpIdleTimeoutMillis() {
+        return udpIdleTimeoutMillis;
+    }
+
+    public void setUdpIdleTimeoutMillis(int udpIdleTimeoutMillis) {
+        this.udpIdleTimeoutMillis = udpIdleTimeoutMillis;
+    }
+
+    public long getClientRateLimitBytesPerSecond() {
+        return clientRateLimitBytesPerSecond;
+    }
+
+    public void setClientRateLimitBytesPerSecond(long clientRateLimitBytesPerSecond) {
+        this.clientRateLimitBytesPerSecond = clientRateLimitBytesPerSecond;
+    }
+
+    public long getGlobalRateLimitBytesPerSecond() {
+        return globalRateLimitBytesPerSecond;
+    }
+
+    public void setGlobalRateLimitBytesPerSecond(long globalRateLimitBytesPerSecond) {
+        this.globalRateLimitBytesPerSecond = globalRateLimitBytesPerSecond;
+    }
+
+    public int getRateLimitBurstBytes() {
+        return rateLimitBurstBytes;
+    }
+
+    public void setRateLimitBurstBytes(int rateLimitBurstBytes) {
+        this.rateLimitBurstBytes = rateLimitBurstBytes;
+    }
+
+    public String getAccessLogFilepath() {
+        return accessLogFilepath;
+    }
+
+    public void setAccessLogFilepath(String accessLogFilepath) {
+        this.accessLogFilepath = accessLogFilepath;
+    }
+
+    public int getAccessLogRingSize() {
+        return accessLogRingSize;
+    }
+
+    public void setAccessLogRingSize(int accessLogRingSize) {
+        this.accessLogRingSize = accessLogRingSize;
+    }
+
+    public long getAccessLogMaxFileBytes() {
+        return accessLogMaxFileBytes;
+    }
+
+    public void setAccessLogMaxFileBytes(long accessLogMaxFileBytes) {
+        this.accessLogMaxFileBytes = accessLogMaxFileBytes;
+    }
+
+    public int getAccessLogFilesNumber() {
+        return accessLogFilesNumber;
+    }
+
+    public void setAccessLogFilesNumber(int accessLogFilesNumber) {
+        this.accessLogFilesNumber = accessLogFilesNumber;
+    }
+
+    public String getMetricsDumpFilepath() {
+        return metricsDumpFilepath;
+    }
+
+    public void setMetricsDumpFilepath(String metricsDumpFilepath) {
+        this.metricsDumpFilepath = metricsDumpFilepath;
+    }
+
+    public int getMetricsDumpIntervalSeconds() {
+        return metricsDumpIntervalSeconds;
+    }
+
+    public void setMetricsDumpIntervalSeconds(int metricsDumpIntervalSeconds) {
+        this.metricsDumpIntervalSeconds = metricsDumpIntervalSeconds;
+    }
+}
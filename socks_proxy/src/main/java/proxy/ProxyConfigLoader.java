@@ -0,0 +1,188 @@
+package proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+public class ProxyConfigLoader {
+    private static final String CONFIG_FILEPATH = "proxy.properties";
+
+    public static ProxyConfig loadProxyConfig() throws ProxyConfigLoadingException {
+        Properties props = new Properties();
+        try (InputStream configFile = ProxyConfigLoader.class.getClassLoader().getResourceAsStream(CONFIG_FILEPATH)) {
+            if (configFile == null) {
+                throw new ProxyConfigLoadingException(
+                        String.format("Failed to open proxy config file \"%s\"", CONFIG_FILEPATH)
+                );
+            }
+            props.load(configFile);
+            return parseProxyConfig(props);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new ProxyConfigLoadingException("Failed to load proxy config", e);
+        }
+    }
+
+    private static ProxyConfig parseProxyConfig(Properties props) {
+        ProxyConfig proxyConfig = new ProxyConfig();
+
+        int workersNumber = Integer.parseInt(props.getProperty("workers_number"));
+        if (workersNumber <= 0) {
+            workersNumber = Runtime.getRuntime().availableProcessors();
+        }
+        proxyConfig.setWorkersNumber(workersNumber);
+
+        proxyConfig.setAcceptBatchSize(
+                Integer.parseInt(props.getProperty("accept_batch_size"))
+        );
+
+        proxyConfig.setMaxTunnelsNumber(
+                Integer.parseInt(props.getProperty("max_tunnels"))
+        );
+
+        proxyConfig.setMaxTunnelsPerAddressNumber(
+                Integer.parseInt(props.getProperty("max_tunnels_per_address"))
+        );
+
+        proxyConfig.setOverloadPolicy(
+                OverloadPolicy.valueOf(props.getProperty("overload_policy").trim().toUpperCase())
+        );
+
+        proxyConfig.setBufferLength(
+                Integer.parseInt(props.getProperty("buffer_length"))
+        );
+
+        proxyConfig.setBuffersPerSlab(
+                Integer.parseInt(props.getProperty("buffers_per_slab"))
+        );
+
+        proxyConfig.setMaxBufferLength(
+                Integer.parseInt(props.getProperty("max_buffer_length"))
+        );
+
+        proxyConfig.setBufferMemoryBudgetBytes(
+                Long.parseLong(props.getProperty("buffer_memory_budget_bytes"))
+        );
+
+        proxyConfig.setBufferReleaseIdleMillis(
+                Integer.parseInt(props.getProperty("buffer_release_idle_ms"))
+        );
+
+        proxyConfig.setDnsCacheSize(
+                Integer.parseInt(props.getProperty("dns_cache_size"))
+        );
+
+        proxyConfig.setDnsMaxTtlSeconds(
+                Integer.parseInt(props.getProperty("dns_max_ttl_s"))
+        );
+
+        proxyConfig.setDnsNegativeTtlSeconds(
+                Integer.parseInt(props.getProperty("dns_negative_ttl_s"))
+        );
+
+        proxyConfig.setDnsTimeoutMillis(
+                Integer.parseInt(props.getProperty("dns_timeout_ms"))
+        );
+
+        proxyConfig.setDnsMaxAttemptsNumber(
+                Integer.parseInt(props.getProperty("dns_max_attempts"))
+        );
+
+        proxyConfig.setDnsResolutionDelayMillis(
+                Integer.parseInt(props.getProperty("dns_resolution_delay_ms"))
+        );
+
+        proxyConfig.setHostsFilepath(
+                props.getProperty("hosts_file").trim()
+        );
+
+        proxyConfig.setDnsPrefetchNamesNumber(
+                Integer.parseInt(props.getProperty("dns_prefetch_names"))
+        );
+
+        proxyConfig.setDnsPrefetchBeforeExpiryMillis(
+                Integer.parseInt(props.getProperty("dns_prefetch_before_expiry_ms"))
+        );
+
+        proxyConfig.setConnectionAttemptDelayMillis(
+                Integer.parseInt(props.getProperty("connection_attempt_delay_ms"))
+        );
+
+        proxyConfig.setCircuitBreakerFailuresNumber(
+                Integer.parseInt(props.getProperty("circuit_breaker_failures"))
+        );
+
+        proxyConfig.setCircuitBreakerCooldownMillis(
+                Integer.parseInt(props.getProperty("circuit_breaker_cooldown_ms"))
+        );
+
+        proxyConfig.setCircuitBreakerSize(
+                Integer.parseInt(props.getProperty("circuit_breaker_size"))
+        );
+
+        proxyConfig.setHandshakeTimeoutMillis(
+                Integer.parseInt(props.getProperty("handshake_timeout_ms"))
+        );
+
+        proxyConfig.setConnectTimeoutMillis(
+                Integer.parseInt(props.getProperty("connect_timeout_ms"))
+        );
+
+        proxyConfig.setIdleTimeoutMillis(
+                Integer.parseInt(props.getProperty("idle_timeout_ms"))
+        );
+
+        proxyConfig.setTimerTickMillis(
+                Integer.parseInt(props.getProperty("timer_tick_ms"))
+        );
+
+        proxyConfig.setTimerSlotsNumber(
+                Integer.parseInt(props.getProperty("timer_slots"))
+        );
+
+        proxyConfig.setReusePortEnabled(
+                Boolean.parseBoolean(props.getProperty("reuse_port"))
+        );
+
+        proxyConfig.setUdpIdleTimeoutMillis(
+                Integer.parseInt(props.getProperty("udp_idle_timeout_ms"))
+        );
+
+        proxyConfig.setClientRateLimitBytesPerSecond(
+                Long.parseLong(props.getProperty("client_rate_limit_bytes_per_s"))
+        );
+
+        proxyConfig.setGlobalRateLimitBytesPerSecond(
+                Long.parseLong(props.getProperty("global_rate_limit_bytes_per_s"))
+        );
+
+        proxyConfig.setRateLimitBurstBytes(
+                Integer.parseInt(props.getProperty("rate_limit_burst_bytes"))
+        );
+
+        proxyConfig.setAccessLogFilepath(
+                props.getProperty("access_log_path").trim()
+        );
+
+        proxyConfig.setAccessLogRingSize(
+                Integer.parseInt(props.getProperty("access_log_ring_size"))
+        );
+
+        proxyConfig.setAccessLogMaxFileBytes(
+                Long.parseLong(props.getProperty("access_log_max_file_bytes"))
+        );
+
+        proxyConfig.setAccessLogFilesNumber(
+                Integer.parseInt(props.getProperty("access_log_files"))
+        );
+
+        proxyConfig.setMetricsDumpFilepath(
+                props.getProperty("metrics_dump_path").trim()
+        );
+
+        proxyConfig.setMetricsDumpIntervalSeconds(
+                Integer.parseInt(props.getProperty("metrics_dump_interval_s"))
+        );
+
+        return proxyConfig;
+    }
+}
@@ -0,0 +1,21 @@
+package proxy;
+
+public class ProxyConfigLoadingException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public ProxyConfigLoadingException() {
+        super();
+    }
+
+    public ProxyConfigLoadingException(String message) {
+        super(message);
+    }
+
+    public ProxyConfigLoadingException(Throwable cause) {
+        super(cause);
+    }
+
+    public ProxyConfigLoadingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -1,193 +1,317 @@
 package proxy;
 
-import proxy.dns.DnsResponse;
-import proxy.dns.DomainNameResolver;
+import proxy.accesslog.AccessLog;
+import proxy.dns.DnsCache;
+import proxy.dns.HostsFile;
+import proxy.metrics.MetricsExporter;
+import proxy.metrics.ProxyMetrics;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.channels.*;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
 
 public class ProxyServer implements Runnable, AutoCloseable {
     private ServerSocketChannel serverSocketChannel;
-    private DatagramChannel datagramChannel;
     private Selector selector;
 
-    private DomainNameResolver domainNameResolver;
-    private SelectionKey dnsSelectionKey;
-
-    private ConnectionManager connectionManager;
-    private Map<SelectionKey, SelectionKey> requestedServerKeyToClientKeyMap = new HashMap<>();
-
-    public ProxyServer(int port) throws IOException {
+    private List<ProxyWorker> workers = new ArrayList<>();
+    private List<Thread> workerThreads = new ArrayList<>();
+    private int nextWorkerIndex = 0;
+
+    private DnsCache dnsCache;
+    private ProxyMetrics metrics = new ProxyMetrics();
+    private MetricsExporter metricsExporter;
+    private MemoryBudget memoryBudget;
+    private AdmissionControl admissionControl;
+    private ClientAcceptor clientAcceptor;
+    private boolean isAcceptingBackedOff = false;
+    private long acceptingResumeTimeNanos;
+    private DestinationCircuitBreaker circuitBreaker;
+    private ClientRateLimits clientRateLimits;
+    private TokenBucket globalRateLimitBucket;
+    private AccessLog accessLog;
+
+    public ProxyServer(int port, ProxyConfig proxyConfig) throws IOException {
         selector = Selector.open();
 
-        connectionManager = new ConnectionManager();
+        dnsCache = new DnsCache(
+                proxyConfig.getDnsCacheSize(),
+                proxyConfig.getDnsMaxTtlSeconds(),
+                proxyConfig.getDnsNegativeTtlSeconds(),
+                proxyConfig.getDnsPrefetchNamesNumber(),
+                proxyConfig.getDnsPrefetchBeforeExpiryMillis()
+        );
+        if (!proxyConfig.getHostsFilepath().isEmpty()) {
+            dnsCache.putOverrides(HostsFile.load(proxyConfig.getHostsFilepath()));
+        }
 
-        datagramChannel = DatagramChannel.open();
-        datagramChannel.bind(null);
-        datagramChannel.configureBlocking(false);
-        dnsSelectionKey = datagramChannel.register(
-                selector, SelectionKey.OP_READ
+        // the budget is shared, so a worker may grow its buffers while the others are quiet
+        memoryBudget = new MemoryBudget(proxyConfig.getBufferMemoryBudgetBytes());
+        admissionControl = new AdmissionControl(
+                proxyConfig.getMaxTunnelsNumber(),
+                proxyConfig.getMaxTunnelsPerAddressNumber(),
+                proxyConfig.getOverloadPolicy()
+        );
+        circuitBreaker = new DestinationCircuitBreaker(
+                proxyConfig.getCircuitBreakerFailuresNumber(),
+                TimeUnit.MILLISECONDS.toNanos(proxyConfig.getCircuitBreakerCooldownMillis()),
+                proxyConfig.getCircuitBreakerSize()
         );
-        domainNameResolver = new DomainNameResolver(dnsSelectionKey);
+        createRateLimits(proxyConfig);
+        if (!proxyConfig.getAccessLogFilepath().isEmpty()) {
+            accessLog = new AccessLog(
+                    proxyConfig.getAccessLogFilepath(), proxyConfig.getAccessLogRingSize(),
+                    proxyConfig.getAccessLogMaxFileBytes(), proxyConfig.getAccessLogFilesNumber()
+            );
+        }
+        for (int i = 0; i < proxyConfig.getWorkersNumber(); ++i) {
+            workers.add(new ProxyWorker(
+                    proxyConfig, dnsCache, metrics, memoryBudget, admissionControl, circuitBreaker,
+                    clientRateLimits, globalRateLimitBucket, accessLog
+            ));
+        }
+        registerGauges();
+
+        metricsExporter = new MetricsExporter(metrics);
+        metricsExporter.registerMBean();
+        if (!proxyConfig.getMetricsDumpFilepath().isEmpty()) {
+            metricsExporter.startDumping(
+                    proxyConfig.getMetricsDumpFilepath(), proxyConfig.getMetricsDumpIntervalSeconds()
+            );
+        }
 
         SocketAddress serverSocketAddress = new InetSocketAddress(port);
+        if (proxyConfig.isReusePortEnabled()) {
+            if (isReusePortSupported()) {
+                for (ProxyWorker worker: workers) {
+                    worker.listen(serverSocketAddress);
+                }
+                return;
+            }
+            System.err.println("SO_REUSEPORT is not supported, falling back to a single acceptor");
+        }
+
         serverSocketChannel = ServerSocketChannel.open();
         serverSocketChannel.bind(serverSocketAddress);
         serverSocketChannel.configureBlocking(false);
-        serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+        SelectionKey acceptSelectionKey = serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+        clientAcceptor = new ClientAcceptor(acceptSelectionKey, admissionControl, proxyConfig.getAcceptBatchSize());
+    }
+
+    // the buckets are shared by all the workers, so a busy worker may use the whole rate while the others are quiet
+    private void createRateLimits(ProxyConfig proxyConfig) {
+        long tickNanos = TimeUnit.MILLISECONDS.toNanos(proxyConfig.getTimerTickMillis());
+        long clientRateLimitBytesPerSecond = proxyConfig.getClientRateLimitBytesPerSecond();
+        if (clientRateLimitBytesPerSecond > 0) {
+            clientRateLimits = new ClientRateLimits(clientRateLimitBytesPerSecond, TokenBucket.getCapacity(
+                    clientRateLimitBytesPerSecond, proxyConfig.getRateLimitBurstBytes(), tickNanos
+            ));
+        }
+
+        long globalRateLimitBytesPerSecond = proxyConfig.getGlobalRateLimitBytesPerSecond();
+        if (globalRateLimitBytesPerSecond > 0) {
+            globalRateLimitBucket = new SharedTokenBucket(globalRateLimitBytesPerSecond, TokenBucket.getCapacity(
+                    globalRateLimitBytesPerSecond, proxyConfig.getRateLimitBurstBytes(), tickNanos
+            ));
+        }
+    }
+
+    private static boolean isReusePortSupported() throws IOException {
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+    }
+
+    private void registerGauges() {
+        registerWorkersGauge("buffers.slabs", worker -> worker.getBufferPool().getSlabsNumber());
+        registerWorkersGauge("buffers.total", worker -> worker.getBufferPool().getTotalBuffersNumber());
+        registerWorkersGauge("buffers.leased", worker -> worker.getBufferPool().getLeasedBuffersNumber());
+        registerWorkersGauge("buffers.peak_leased", worker -> worker.getBufferPool().getPeakLeasedBuffersNumber());
+        registerWorkersGauge("buffers.allocated_bytes", worker -> worker.getBufferPool().getAllocatedBytes());
+        registerWorkersGauge("buffers.leased_bytes", worker -> worker.getBufferPool().getLeasedBytes());
+        registerWorkersGauge("buffers.growths", ProxyWorker::getBufferGrowthsNumber);
+        registerWorkersGauge("buffers.refused_growths", ProxyWorker::getRefusedBufferGrowthsNumber);
+        registerWorkersGauge("buffers.idle_releases", ProxyWorker::getIdleBufferReleasesNumber);
+        registerWorkersGauge("buffers.dropped_slabs", worker -> worker.getBufferPool().getDroppedSlabsNumber());
+        // the occupancy of all the pools together, the ratios of separate pools cannot be summed
+        metrics.registerGauge("buffers.occupancy_percent", () -> {
+            long allocatedBytes = 0;
+            long leasedBytes = 0;
+            for (ProxyWorker worker: workers) {
+                allocatedBytes += worker.getBufferPool().getAllocatedBytes();
+                leasedBytes += worker.getBufferPool().getLeasedBytes();
+            }
+            return allocatedBytes == 0 ? 0 : leasedBytes * 100 / allocatedBytes;
+        });
+        metrics.registerGauge("buffers.budget_used_bytes", memoryBudget::getUsedBytes);
+        metrics.registerGauge("buffers.budget_limit_bytes", memoryBudget::getLimitBytes);
+        registerWorkersGauge("tunnels.throttled", ProxyWorker::getThrottledTunnelsNumber);
+        registerWorkersGauge("tunnels.rate_limited_keys", ProxyWorker::getRateLimitedKeysNumber);
+        registerWorkersGauge("timeouts.scheduled", ProxyWorker::getScheduledTimeoutsNumber);
+        registerWorkersGauge("udp.associations", ProxyWorker::getUdpAssociationsNumber);
+        registerWorkersGauge("udp.relayed_packets", ProxyWorker::getUdpRelayedPacketsNumber);
+        registerWorkersGauge("udp.dropped_packets", ProxyWorker::getUdpDroppedPacketsNumber);
+        registerWorkersGauge("udp.packets_per_second", ProxyWorker::getUdpPacketsPerSecond);
+        registerWorkersGauge("udp.failed_associations", ProxyWorker::getUdpFailedAssociationsNumber);
+        registerWorkersGauge("udp.relay_errors", ProxyWorker::getUdpRelayErrorsNumber);
+
+        if (clientRateLimits != null) {
+            metrics.registerGauge("tunnels.rate_limited_clients", clientRateLimits::getClientsNumber);
+        }
+        registerAdmissionControlGauges(metrics, admissionControl);
+        registerCircuitBreakerGauges(metrics, circuitBreaker);
+        if (accessLog != null) {
+            registerAccessLogGauges(metrics, accessLog);
+        }
+
+        metrics.registerGauge("dns.cache_entries", dnsCache::getEntriesNumber);
+        metrics.registerGauge("dns.cache_hits", dnsCache::getHitsNumber);
+        metrics.registerGauge("dns.cache_misses", dnsCache::getMissesNumber);
+        metrics.registerGauge("dns.override_hits", dnsCache::getOverrideHitsNumber);
+        metrics.registerGauge("dns.hot_names", dnsCache::getHotNamesNumber);
+        metrics.registerGauge("dns.prefetches", dnsCache::getPrefetchesNumber);
+        registerWorkersGauge("dns.mismatched_responses", ProxyWorker::getDnsMismatchedResponsesNumber);
+        registerWorkersGauge("dns.send_errors", ProxyWorker::getDnsSendErrorsNumber);
+    }
+
+    static void registerAdmissionControlGauges(ProxyMetrics metrics, AdmissionControl admissionControl) {
+        metrics.registerGauge("tunnels.admitted", admissionControl::getTunnelsNumber);
+        metrics.registerGauge("tunnels.client_addresses", admissionControl::getAddressesNumber);
+        metrics.registerGauge("admission.refused", admissionControl::getRefusedTunnelsNumber);
+        metrics.registerGauge("admission.refused_per_address", admissionControl::getRefusedPerAddressTunnelsNumber);
+        metrics.registerGauge("admission.accepting_pauses", admissionControl::getAcceptingPausesNumber);
+        metrics.registerGauge("admission.accept_errors", admissionControl::getAcceptErrorsNumber);
+    }
+
+    static void registerAccessLogGauges(ProxyMetrics metrics, AccessLog accessLog) {
+        metrics.registerGauge("access_log.written_records", accessLog::getWrittenRecordsNumber);
+        metrics.registerGauge("access_log.dropped_records", accessLog::getDroppedRecordsNumber);
+        metrics.registerGauge("access_log.batches", accessLog::getBatchesNumber);
+        metrics.registerGauge("access_log.rotations", accessLog::getRotationsNumber);
+    }
+
+    static void registerCircuitBreakerGauges(ProxyMetrics metrics, DestinationCircuitBreaker circuitBreaker) {
+        metrics.registerGauge("circuit_breaker.destinations", circuitBreaker::getDestinationsNumber);
+        metrics.registerGauge("circuit_breaker.trips", circuitBreaker::getTripsNumber);
+        metrics.registerGauge("circuit_breaker.fast_failures", circuitBreaker::getFastFailuresNumber);
+    }
+
+    private void registerWorkersGauge(String name, ToLongFunction<ProxyWorker> workerGauge) {
+        metrics.registerGauge(name, () -> workers.stream().mapToLong(workerGauge).sum());
+    }
+
+    public DnsCache getDnsCache() {
+        return dnsCache;
+    }
+
+    public ProxyMetrics getMetrics() {
+        return metrics;
     }
 
     @Override
     public void run() {
+        startWorkers();
         try {
+            // with SO_REUSEPORT the workers accept connections themselves
+            if (serverSocketChannel == null) {
+                for (Thread workerThread: workerThreads) {
+                    workerThread.join();
+                }
+                return;
+            }
+
             while (!Thread.currentThread().isInterrupted()) {
-                selector.select();
+                selector.select(getSelectTimeoutMillis());
+                if (isAcceptingBackedOff && System.nanoTime() - acceptingResumeTimeNanos >= 0) {
+                    isAcceptingBackedOff = false;
+                    clientAcceptor.resumeAccepting();
+                }
+
                 Set<SelectionKey> selectedKeys = selector.selectedKeys();
                 Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
                 while (keyIterator.hasNext()) {
                     SelectionKey key = keyIterator.next();
                     keyIterator.remove();
 
-                    if (!key.isValid()) {
-                        continue;
-                    }
-
-                    if (key.equals(dnsSelectionKey)) {
-                        handleDnsEvents();
-                        continue;
-                    }
-
-                    try {
-                        if (key.isAcceptable()) {
-                            createClientConnection();
-                        }
-
-                        if (key.isConnectable()) {
-                            finishConnectionProcess(key);
-                        }
-
-                        if (key.isReadable()) {
-                            connectionManager.readData(key);
-                        }
-
-                        if (key.isWritable()) {
-                            connectionManager.writeData(key);
-                        }
-                    } catch (Exception e) {
-                        closeConnection(key);
-
-                        if (connectionManager.isConnectionPresent(key)) {
-                            connectionManager.closeConnection(key);
-                        }
+                    if (key.isValid() && key.isAcceptable()) {
+                        createClientConnections();
                     }
                 }
-
-                handleRequestedConnections();
-                handleClosedConnections();
             }
         } catch (IOException e) {
             System.err.println(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopWorkers();
         }
     }
 
-    private void handleRequestedConnections() {
-        var requestedConnectionsMap = connectionManager.getRequestedConnections();
-        for (var clientKey: requestedConnectionsMap.keySet()) {
-            InetSocketAddress serverSocketAddress = requestedConnectionsMap.get(clientKey);
-            if (serverSocketAddress.isUnresolved()) {
-                boolean requestWasMade = domainNameResolver.addRequestToQueue(clientKey, serverSocketAddress);
-                if (!requestWasMade) {
-                    connectionManager.notifyClientOfRequestFailure(clientKey);
-                }
-            } else {
-                createServerConnection(clientKey, serverSocketAddress);
-            }
+    private void startWorkers() {
+        for (int i = 0; i < workers.size(); ++i) {
+            Thread workerThread = new Thread(workers.get(i), "proxy-worker-" + i);
+            workerThreads.add(workerThread);
+            workerThread.start();
         }
-
-        requestedConnectionsMap.clear();
     }
 
-    private void handleDnsEvents() throws IOException {
-        if (dnsSelectionKey.isReadable()) {
-            domainNameResolver.readResponses();
-        }
-
-        if (dnsSelectionKey.isWritable()) {
-            domainNameResolver.writeRequests();
-        }
-
-        var dnsResponseSet = domainNameResolver.getDnsResponseSet();
-        for (DnsResponse response: dnsResponseSet) {
-            SelectionKey clientKey = response.getClientKey();
-            if (response.isSuccess()) {
-                InetSocketAddress serverSocketAddress = response.getResolvedSocketAddress();
-                createServerConnection(clientKey, serverSocketAddress);
-            } else {
-                connectionManager.notifyClientOfRequestFailure(clientKey);
+    private void stopWorkers() {
+        workerThreads.forEach(Thread::interrupt);
+        for (Thread workerThread: workerThreads) {
+            try {
+                workerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
         }
-
-        dnsResponseSet.clear();
+        workerThreads.clear();
     }
 
-    private void handleClosedConnections() {
-        var closedConnectionsSet = connectionManager.getClosedConnections();
-        closedConnectionsSet.forEach(this::closeConnection);
-        closedConnectionsSet.clear();
-    }
-
-    private void finishConnectionProcess(SelectionKey serverKey) throws IOException {
-        SelectionKey clientKey = requestedServerKeyToClientKeyMap.remove(serverKey);
-        SocketChannel socketChannel = (SocketChannel) serverKey.channel();
-        try {
-            socketChannel.finishConnect();
-            serverKey.interestOpsAnd(~SelectionKey.OP_CONNECT);
-            connectionManager.addServerConnection(serverKey, clientKey);
-            connectionManager.notifyClientOfRequestSuccess(clientKey);
-        } catch (IOException e) {
-            connectionManager.notifyClientOfRequestFailure(clientKey);
-            throw new IOException(e);
+    // the acceptor backs off after an accept error, the boss has no timing wheel and waits in select instead
+    private long getSelectTimeoutMillis() {
+        if (!isAcceptingBackedOff) {
+            return 0;
         }
+        long remainingNanos = acceptingResumeTimeNanos - System.nanoTime();
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos) + 1);
     }
 
-    private void createClientConnection() {
-        SocketChannel socketChannel = null;
-        try {
-            socketChannel = serverSocketChannel.accept();
-            socketChannel.configureBlocking(false);
-            SelectionKey clientKey = socketChannel.register(selector, SelectionKey.OP_READ);
-            connectionManager.addClientConnection(clientKey);
-        } catch (IOException e) {
-            if (socketChannel != null) {
-                closeChannel(socketChannel);
+    private void createClientConnections() {
+        boolean isAccepting = clientAcceptor.acceptClients(socketChannel -> {
+            ProxyWorker worker = getNextWorker();
+            if (worker != null) {
+                worker.addClientChannel(socketChannel);
+                return;
             }
-        }
-    }
 
-    private void createServerConnection(SelectionKey clientKey, InetSocketAddress serverSocketAddress) {
-        SocketChannel socketChannel = null;
-        try {
-            socketChannel = SocketChannel.open();
-            socketChannel.configureBlocking(false);
-            socketChannel.connect(serverSocketAddress);
-            SelectionKey serverKey = socketChannel.register(
-                    selector, SelectionKey.OP_READ | SelectionKey.OP_CONNECT
-            );
-            requestedServerKeyToClientKeyMap.put(serverKey, clientKey);
-        } catch (IOException e) {
-            if (socketChannel != null) {
-                closeChannel(socketChannel);
+            var clientSocketAddress = (InetSocketAddress) socketChannel.socket().getRemoteSocketAddress();
+            if (clientSocketAddress != null) {
+                admissionControl.release(clientSocketAddress.getAddress());
             }
-            connectionManager.notifyClientOfRequestFailure(clientKey);
+            closeChannel(socketChannel);
+        });
+        if (!isAccepting) {
+            isAcceptingBackedOff = true;
+            acceptingResumeTimeNanos = System.nanoTime() + ClientAcceptor.ACCEPT_BACKOFF_NANOS;
         }
     }
 
-    private void closeConnection(SelectionKey key) {
-        key.cancel();
-        closeChannel(key.channel());
+    // a stopped worker is skipped, the clients handed to it would never be served
+    private ProxyWorker getNextWorker() {
+        for (int i = 0; i < workers.size(); ++i) {
+            ProxyWorker worker = workers.get(nextWorkerIndex);
+            nextWorkerIndex = (nextWorkerIndex + 1) % workers.size();
+            if (!worker.isStopped()) {
+                return worker;
+            }
+        }
+        return null;
     }
 
     private void closeChannel(Channel channel) {
@@ -200,8 +324,17 @@ public class ProxyServer implements Runnable, AutoCloseable {
 
     @Override
     public void close() {
+        stopWorkers();
+        if (metricsExporter != null) {
+            metricsExporter.close();
+        }
+        workers.forEach(ProxyWorker::close);
+        // the workers have stopped, so the writer gets every record they have published
+        if (accessLog != null) {
+            accessLog.close();
+        }
+
         if (selector != null) {
-            selector.keys().forEach(this::closeConnection);
             try {
                 selector.close();
             } catch (IOException e) {
@@ -209,10 +342,6 @@ public class ProxyServer implements Runnable, AutoCloseable {
             }
         }
 
-        if (datagramChannel != null) {
-            closeChannel(datagramChannel);
-        }
-
         if (serverSocketChannel != null) {
             closeChannel(serverSocketChannel);
         }
@@ -0,0 +1,747 @@
+package proxy;
+
+import proxy.accesslog.AccessLog;
+import proxy.accesslog.AccessLogRecord;
+import proxy.accesslog.CloseReason;
+import proxy.dns.DnsCache;
+import proxy.dns.DnsCacheEntry;
+import proxy.dns.DnsResponse;
+import proxy.dns.DomainNameResolver;
+import proxy.metrics.LatencyHistograms;
+import proxy.metrics.ProxyMetrics;
+import proxy.socks.ConnectionStatus;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class ProxyWorker implements Runnable, AutoCloseable {
+    private DatagramChannel datagramChannel;
+    private ServerSocketChannel serverSocketChannel;
+    private Selector selector;
+    private SelectionKey acceptSelectionKey;
+    private ClientAcceptor clientAcceptor;
+    private ConnectionTimeout acceptingResumeTimeout;
+    private AdmissionControl admissionControl;
+    private int acceptBatchSize;
+
+    private DomainNameResolver domainNameResolver;
+    private SelectionKey dnsSelectionKey;
+
+    private UdpRelay udpRelay;
+    private BufferPool bufferPool;
+    private ConnectionManager connectionManager;
+
+    private Map<SelectionKey, ConnectionRace> attemptKeyToRaceMap = new HashMap<>();
+    private Map<SelectionKey, ConnectionRace> clientKeyToRaceMap = new HashMap<>();
+    private long connectionAttemptDelayNanos;
+    private DestinationCircuitBreaker circuitBreaker;
+
+    private TimingWheel timingWheel;
+    private List<ConnectionTimeout> expiredTimeouts = new ArrayList<>();
+    private long selectTimeoutMillis;
+    private long handshakeTimeoutNanos;
+    private long connectTimeoutNanos;
+    private long idleTimeoutNanos;
+    private long udpIdleTimeoutNanos;
+
+    private ProxyMetrics metrics;
+    private LatencyHistograms latencyHistograms;
+    private AccessLog accessLog;
+
+    private Queue<SocketChannel> acceptedChannelsQueue = new ConcurrentLinkedQueue<>();
+    private volatile boolean isStopped = false;
+
+    public ProxyWorker(ProxyConfig proxyConfig, DnsCache dnsCache, ProxyMetrics metrics,
+                       MemoryBudget memoryBudget, AdmissionControl admissionControl,
+                       DestinationCircuitBreaker circuitBreaker, ClientRateLimits clientRateLimits,
+                       TokenBucket globalRateLimitBucket, AccessLog accessLog) throws IOException {
+        selector = Selector.open();
+        this.metrics = metrics;
+        latencyHistograms = metrics.createLatencyHistograms();
+        this.accessLog = accessLog;
+        this.admissionControl = admissionControl;
+        this.circuitBreaker = circuitBreaker;
+        acceptBatchSize = proxyConfig.getAcceptBatchSize();
+
+        bufferPool = new BufferPool(
+                proxyConfig.getBufferLength(), proxyConfig.getMaxBufferLength(),
+                proxyConfig.getBuffersPerSlab(), memoryBudget
+        );
+        timingWheel = new TimingWheel(proxyConfig.getTimerSlotsNumber(), proxyConfig.getTimerTickMillis());
+        connectionManager = new ConnectionManager(
+                bufferPool, metrics, timingWheel, clientRateLimits, globalRateLimitBucket, proxyConfig.getRateLimitBurstBytes(),
+                TimeUnit.MILLISECONDS.toNanos(proxyConfig.getBufferReleaseIdleMillis())
+        );
+        connectionAttemptDelayNanos = TimeUnit.MILLISECONDS.toNanos(proxyConfig.getConnectionAttemptDelayMillis());
+
+        selectTimeoutMillis = proxyConfig.getTimerTickMillis();
+        handshakeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(proxyConfig.getHandshakeTimeoutMillis());
+        connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(proxyConfig.getConnectTimeoutMillis());
+        idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(proxyConfig.getIdleTimeoutMillis());
+        udpIdleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(proxyConfig.getUdpIdleTimeoutMillis());
+
+        datagramChannel = DatagramChannel.open();
+        datagramChannel.bind(null);
+        datagramChannel.configureBlocking(false);
+        dnsSelectionKey = datagramChannel.register(
+                selector, SelectionKey.OP_READ
+        );
+        domainNameResolver = new DomainNameResolver(
+                dnsSelectionKey, dnsCache, latencyHistograms, proxyConfig.getDnsTimeoutMillis(),
+                proxyConfig.getDnsMaxAttemptsNumber(), proxyConfig.getDnsResolutionDelayMillis()
+        );
+        udpRelay = new UdpRelay(selector, domainNameResolver);
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public long getBufferGrowthsNumber() {
+        return connectionManager.getBufferGrowthsNumber();
+    }
+
+    public long getRefusedBufferGrowthsNumber() {
+        return connectionManager.getRefusedBufferGrowthsNumber();
+    }
+
+    public long getIdleBufferReleasesNumber() {
+        return connectionManager.getIdleBufferReleasesNumber();
+    }
+
+    public int getThrottledTunnelsNumber() {
+        return connectionManager.getThrottledTunnelsNumber();
+    }
+
+    public int getRateLimitedKeysNumber() {
+        return connectionManager.getRateLimitedKeysNumber();
+    }
+
+    public long getDnsMismatchedResponsesNumber() {
+        return domainNameResolver.getMismatchedResponsesNumber();
+    }
+
+    public long getDnsSendErrorsNumber() {
+        return domainNameResolver.getSendErrorsNumber();
+    }
+
+    public int getScheduledTimeoutsNumber() {
+        return timingWheel.getScheduledTimeoutsNumber();
+    }
+
+    public int getUdpAssociationsNumber() {
+        return udpRelay.getAssociationsNumber();
+    }
+
+    public long getUdpRelayedPacketsNumber() {
+        return udpRelay.getRelayedPacketsNumber();
+    }
+
+    public long getUdpDroppedPacketsNumber() {
+        return udpRelay.getDroppedPacketsNumber();
+    }
+
+    public long getUdpPacketsPerSecond() {
+        return udpRelay.getPacketsPerSecond();
+    }
+
+    public long getUdpFailedAssociationsNumber() {
+        return udpRelay.getFailedAssociationsNumber();
+    }
+
+    public long getUdpRelayErrorsNumber() {
+        return udpRelay.getRelayErrorsNumber();
+    }
+
+    public void listen(SocketAddress serverSocketAddress) throws IOException {
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        serverSocketChannel.bind(serverSocketAddress);
+        serverSocketChannel.configureBlocking(false);
+        acceptSelectionKey = serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+        clientAcceptor = new ClientAcceptor(acceptSelectionKey, admissionControl, acceptBatchSize);
+        acceptingResumeTimeout = new ConnectionTimeout(acceptSelectionKey);
+    }
+
+    public boolean isStopped() {
+        return isStopped;
+    }
+
+    public void addClientChannel(SocketChannel socketChannel) {
+        acceptedChannelsQueue.add(socketChannel);
+        // a channel handed over while the worker was stopping would otherwise stay in the queue
+        if (isStopped) {
+            rejectAcceptedChannels();
+        }
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    handleEvents();
+                } catch (Exception e) {
+                    if (!selector.isOpen()) {
+                        break;
+                    }
+                    // a failed iteration must not end the loop, the tunnels of the worker would be left unserved
+                    System.err.println("Worker iteration failed: " + e);
+                }
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    private void handleEvents() throws IOException {
+        selector.select(selectTimeoutMillis);
+        // the iteration time covers the event handling, not the wait for events
+        long iterationStartTimeNanos = System.nanoTime();
+        registerAcceptedChannels();
+
+        Set<SelectionKey> selectedKeys = selector.selectedKeys();
+        Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+        while (keyIterator.hasNext()) {
+            SelectionKey key = keyIterator.next();
+            keyIterator.remove();
+
+            if (!key.isValid()) {
+                continue;
+            }
+
+            if (key.equals(dnsSelectionKey)) {
+                handleDnsEvents();
+                continue;
+            }
+
+            if (key.equals(acceptSelectionKey)) {
+                acceptClientChannels();
+                continue;
+            }
+
+            if (key.equals(udpRelay.getSelectionKey()) || key.attachment() instanceof UdpAssociation) {
+                try {
+                    handleUdpEvents(key);
+                } catch (Exception e) {
+                    udpRelay.handleError(key);
+                    closeFailedUdpAssociations();
+                }
+                continue;
+            }
+
+            try {
+                if (key.isConnectable()) {
+                    finishConnectionProcess(key);
+                }
+
+                if (key.isValid() && key.isReadable()) {
+                    connectionManager.readData(key);
+                }
+
+                if (key.isValid() && key.isWritable()) {
+                    connectionManager.writeData(key);
+                }
+            } catch (Exception e) {
+                closeConnection(key);
+
+                if (connectionManager.isConnectionPresent(key)) {
+                    connectionManager.closeConnection(key, CloseReason.ERROR);
+                }
+            }
+
+            // a parsed request starts its lookup or connect before the remaining keys are handled
+            if (!connectionManager.getRequestedConnections().isEmpty()) {
+                handleRequestedConnections();
+            }
+        }
+
+        domainNameResolver.handleTimeouts();
+        domainNameResolver.prefetchHotNames();
+        handleDnsResponses();
+        handleRequestedConnections();
+        udpRelay.updatePacketRate(System.nanoTime());
+        handleExpiredTimeouts();
+        handleClosedConnections();
+        latencyHistograms.recordSelectLoopIterationNanos(System.nanoTime() - iterationStartTimeNanos);
+    }
+
+    // a worker that exits leaves the rotation and gives back the descriptors and admission slots of its clients
+    private void stop() {
+        isStopped = true;
+        if (!Thread.currentThread().isInterrupted()) {
+            System.err.println("Worker stopped unexpectedly");
+        }
+
+        rejectAcceptedChannels();
+        try {
+            for (SelectionKey key: selector.keys()) {
+                if (key.attachment() instanceof KeyAttachment && connectionManager.isConnectionPresent(key)) {
+                    connectionManager.closeConnection(key, CloseReason.ERROR);
+                }
+            }
+            handleClosedConnections();
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        }
+
+        if (serverSocketChannel != null) {
+            closeChannel(serverSocketChannel);
+        }
+    }
+
+    private void rejectAcceptedChannels() {
+        SocketChannel socketChannel;
+        while ((socketChannel = acceptedChannelsQueue.poll()) != null) {
+            var clientSocketAddress = (InetSocketAddress) socketChannel.socket().getRemoteSocketAddress();
+            if (clientSocketAddress != null) {
+                admissionControl.release(clientSocketAddress.getAddress());
+            }
+            closeChannel(socketChannel);
+        }
+    }
+
+    private void registerAcceptedChannels() {
+        SocketChannel socketChannel;
+        while ((socketChannel = acceptedChannelsQueue.poll()) != null) {
+            registerClientChannel(socketChannel);
+        }
+    }
+
+    private void acceptClientChannels() {
+        if (!clientAcceptor.acceptClients(this::registerClientChannel)) {
+            timingWheel.schedule(
+                    acceptingResumeTimeout, TimeoutType.RESUME_ACCEPTING, ClientAcceptor.ACCEPT_BACKOFF_NANOS
+            );
+        }
+    }
+
+    // the channel has already been admitted, its slot is given back when the tunnel is closed
+    private void registerClientChannel(SocketChannel socketChannel) {
+        var clientSocketAddress = (InetSocketAddress) socketChannel.socket().getRemoteSocketAddress();
+        try {
+            socketChannel.configureBlocking(false);
+            // relayed writes must go out as they come, Nagle's algorithm would hold a tail back
+            // until the delayed acknowledgement of the previous segment
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey clientKey = socketChannel.register(selector, SelectionKey.OP_READ);
+            connectionManager.addClientConnection(clientKey);
+            ((KeyAttachment) clientKey.attachment()).getTunnel().setClientSocketAddress(clientSocketAddress);
+            scheduleTimeout(clientKey, TimeoutType.HANDSHAKE, handshakeTimeoutNanos);
+        } catch (IOException e) {
+            admissionControl.release(clientSocketAddress.getAddress());
+            closeChannel(socketChannel);
+        }
+    }
+
+    private void handleRequestedConnections() {
+        var requestedConnections = connectionManager.getRequestedConnections();
+        for (SelectionKey clientKey: requestedConnections) {
+            // the client may have been closed after its request was parsed
+            if (!connectionManager.isConnectionPresent(clientKey)) {
+                continue;
+            }
+            long requestTimeNanos = System.nanoTime();
+            ((KeyAttachment) clientKey.attachment()).getTunnel().setRequestTimeNanos(requestTimeNanos);
+            latencyHistograms.recordHandshakeNanos(requestTimeNanos - connectionManager.getCreationTimeNanos(clientKey));
+            metrics.countHandshake(connectionManager.isHandshakePipelined(clientKey));
+
+            InetSocketAddress serverSocketAddress = connectionManager.getRequestedSocketAddress(clientKey);
+            if (connectionManager.isUdpAssociationRequested(clientKey)) {
+                createUdpAssociation(clientKey, serverSocketAddress);
+                continue;
+            }
+
+            scheduleTimeout(clientKey, TimeoutType.CONNECT, connectTimeoutNanos);
+            if (!circuitBreaker.allowConnection(getDestination(clientKey))) {
+                connectionManager.notifyClientOfRequestFailure(clientKey);
+                continue;
+            }
+
+            if (serverSocketAddress.isUnresolved()) {
+                DnsCacheEntry cacheEntry = domainNameResolver.getCachedEntry(serverSocketAddress.getHostName());
+                if (cacheEntry != null) {
+                    if (cacheEntry.isNegative()) {
+                        connectionManager.notifyClientOfRequestFailure(clientKey);
+                    } else {
+                        int serverPort = serverSocketAddress.getPort();
+                        List<InetSocketAddress> resolvedSocketAddresses = cacheEntry.getAddresses().stream()
+                                .map(address -> new InetSocketAddress(address, serverPort))
+                                .collect(Collectors.toList());
+                        createServerConnection(clientKey, resolvedSocketAddresses);
+                    }
+                    continue;
+                }
+
+                boolean requestWasMade = domainNameResolver.addRequestToQueue(clientKey, serverSocketAddress);
+                if (!requestWasMade) {
+                    connectionManager.notifyClientOfRequestFailure(clientKey);
+                }
+            } else {
+                createServerConnection(clientKey, List.of(serverSocketAddress));
+            }
+        }
+
+        requestedConnections.clear();
+    }
+
+    private void createUdpAssociation(SelectionKey clientKey, InetSocketAddress requestedSocketAddress) {
+        try {
+            UdpAssociation association = udpRelay.createAssociation(clientKey, requestedSocketAddress);
+            ((KeyAttachment) clientKey.attachment()).getTunnel().setUdpAssociation(association);
+
+            // the relay is announced on the address the client has reached the proxy at
+            InetAddress localAddress = ((SocketChannel) clientKey.channel()).socket().getLocalAddress();
+            InetSocketAddress relaySocketAddress = new InetSocketAddress(localAddress, udpRelay.getPort());
+            connectionManager.notifyClientOfUdpAssociation(clientKey, relaySocketAddress);
+            scheduleTimeout(clientKey, TimeoutType.IDLE, udpIdleTimeoutNanos);
+        } catch (IOException e) {
+            connectionManager.notifyClientOfRequestFailure(clientKey);
+        }
+    }
+
+    private void handleUdpEvents(SelectionKey key) {
+        if (key.equals(udpRelay.getSelectionKey())) {
+            udpRelay.receiveFromClients();
+        } else {
+            udpRelay.receiveFromRemote(key);
+        }
+        closeFailedUdpAssociations();
+    }
+
+    private void closeFailedUdpAssociations() {
+        var failedAssociations = udpRelay.getFailedAssociations();
+        for (UdpAssociation association: failedAssociations) {
+            SelectionKey controlKey = association.getControlKey();
+            if (connectionManager.isConnectionPresent(controlKey)) {
+                connectionManager.closeConnection(controlKey, CloseReason.ERROR);
+            }
+        }
+
+        failedAssociations.clear();
+    }
+
+    private void handleDnsEvents() throws IOException {
+        if (dnsSelectionKey.isReadable()) {
+            domainNameResolver.readResponses();
+        }
+
+        if (dnsSelectionKey.isWritable()) {
+            domainNameResolver.writeRequests();
+        }
+    }
+
+    private void handleDnsResponses() {
+        var dnsResponseSet = domainNameResolver.getDnsResponseSet();
+        for (DnsResponse response: dnsResponseSet) {
+            SelectionKey clientKey = response.getClientKey();
+            if (clientKey.attachment() instanceof UdpAssociation) {
+                udpRelay.sendPendingDatagrams((UdpAssociation) clientKey.attachment(), response);
+                continue;
+            }
+
+            if (!isAwaitingConnection(clientKey)) {
+                continue;
+            }
+
+            if (response.isSuccess()) {
+                createServerConnection(clientKey, response.getResolvedSocketAddresses());
+            } else {
+                connectionManager.notifyClientOfRequestFailure(clientKey);
+            }
+        }
+
+        dnsResponseSet.clear();
+        closeFailedUdpAssociations();
+    }
+
+    private void handleClosedConnections() {
+        var closedConnectionsSet = connectionManager.getClosedConnections();
+        for (SelectionKey closedKey: closedConnectionsSet) {
+            Tunnel tunnel = ((KeyAttachment) closedKey.attachment()).getTunnel();
+            if (closedKey == tunnel.getClientKey()) {
+                admissionControl.release(tunnel.getClientSocketAddress().getAddress());
+                if (accessLog != null) {
+                    logTunnel(tunnel);
+                }
+            }
+
+            if (tunnel.getTimeout() != null) {
+                timingWheel.cancel(tunnel.getTimeout());
+            }
+
+            if (tunnel.getUdpAssociation() != null) {
+                udpRelay.closeAssociation(tunnel.getUdpAssociation());
+            }
+
+            ConnectionRace race = clientKeyToRaceMap.get(closedKey);
+            if (race != null) {
+                abandonConnectionRace(race);
+            }
+
+            closeConnection(closedKey);
+        }
+        closedConnectionsSet.clear();
+    }
+
+    private void scheduleTimeout(SelectionKey clientKey, TimeoutType type, long delayNanos) {
+        Tunnel tunnel = ((KeyAttachment) clientKey.attachment()).getTunnel();
+        ConnectionTimeout timeout = tunnel.getTimeout();
+        if (timeout == null) {
+            timeout = new ConnectionTimeout(clientKey);
+            tunnel.setTimeout(timeout);
+        }
+
+        timingWheel.schedule(timeout, type, delayNanos);
+    }
+
+    private void handleExpiredTimeouts() {
+        long currentTimeNanos = System.nanoTime();
+        timingWheel.advance(currentTimeNanos, expiredTimeouts);
+        for (ConnectionTimeout timeout: expiredTimeouts) {
+            if (timeout.getType() == TimeoutType.RESUME_ACCEPTING) {
+                clientAcceptor.resumeAccepting();
+                continue;
+            }
+
+            SelectionKey clientKey = timeout.getSelectionKey();
+            if (!connectionManager.isConnectionPresent(clientKey)) {
+                continue;
+            }
+
+            if (timeout.getType() == TimeoutType.RESUME_READING) {
+                // the key of a reading resume timeout may be either side of the tunnel
+                connectionManager.resumeRateLimitedReading(clientKey);
+                continue;
+            }
+
+            if (timeout.getType() == TimeoutType.RELEASE_BUFFERS) {
+                connectionManager.releaseIdleBuffers(clientKey);
+                continue;
+            }
+
+            if (timeout.getType() == TimeoutType.NEXT_CONNECTION_ATTEMPT) {
+                ConnectionRace race = clientKeyToRaceMap.get(clientKey);
+                if (race != null) {
+                    startNextConnectionAttempt(race);
+                }
+                continue;
+            }
+
+            if (timeout.getType() == TimeoutType.IDLE) {
+                // activity only stamps the attachments, the timeout is pushed forward lazily when it fires
+                long tunnelIdleTimeoutNanos = getIdleTimeoutNanos(clientKey);
+                long idleTimeNanos = currentTimeNanos - connectionManager.getLastActivityTimeNanos(clientKey);
+                if (idleTimeNanos < tunnelIdleTimeoutNanos) {
+                    timingWheel.schedule(timeout, TimeoutType.IDLE, tunnelIdleTimeoutNanos - idleTimeNanos);
+                    continue;
+                }
+            } else if (timeout.getType() == TimeoutType.CONNECT && isAwaitingConnection(clientKey)) {
+                ConnectionRace race = clientKeyToRaceMap.get(clientKey);
+                if (race != null) {
+                    // a slow lookup is not the destination's fault, only a connect running out of time is
+                    circuitBreaker.recordFailure(getDestination(clientKey));
+                    abandonConnectionRace(race);
+                }
+
+                // the client gets a failure reply and one more handshake timeout to read it
+                ((KeyAttachment) clientKey.attachment()).getTunnel().setCloseReason(CloseReason.CONNECT_TIMEOUT);
+                connectionManager.notifyClientOfRequestFailure(clientKey);
+                timingWheel.schedule(timeout, TimeoutType.HANDSHAKE, handshakeTimeoutNanos);
+                continue;
+            }
+
+            connectionManager.closeConnection(clientKey, getCloseReason(timeout.getType()));
+        }
+
+        expiredTimeouts.clear();
+    }
+
+    private static CloseReason getCloseReason(TimeoutType timeoutType) {
+        if (timeoutType == TimeoutType.CONNECT) {
+            return CloseReason.CONNECT_TIMEOUT;
+        }
+        if (timeoutType == TimeoutType.IDLE) {
+            return CloseReason.IDLE_TIMEOUT;
+        }
+        return CloseReason.HANDSHAKE_TIMEOUT;
+    }
+
+    // a full ring drops the record, the worker never waits for the log writer
+    private void logTunnel(Tunnel tunnel) {
+        AccessLogRecord record = accessLog.claimRecord();
+        if (record == null) {
+            return;
+        }
+
+        long closeTimeNanos = System.nanoTime();
+        long requestTimeNanos = tunnel.getRequestTimeNanos();
+        long establishmentTimeNanos = tunnel.getEstablishmentTimeNanos();
+        record.setCloseTimeMillis(System.currentTimeMillis());
+        record.setClientSocketAddress(tunnel.getClientSocketAddress());
+        record.setRequestedSocketAddress(tunnel.getSocksSession().getRequestedSocketAddress());
+        record.setUdpAssociation(tunnel.getUdpAssociation() != null);
+        record.setBytesFromClient(tunnel.getBytesFromClient());
+        record.setBytesFromServer(tunnel.getBytesFromServer());
+        record.setHandshakeNanos(requestTimeNanos == 0 ? 0 : requestTimeNanos - tunnel.getCreationTimeNanos());
+        record.setConnectNanos(establishmentTimeNanos == 0 ? 0 : establishmentTimeNanos - requestTimeNanos);
+        record.setDurationNanos(closeTimeNanos - tunnel.getCreationTimeNanos());
+        record.setCloseReason(tunnel.getCloseReason());
+        accessLog.publish(record);
+    }
+
+    private long getIdleTimeoutNanos(SelectionKey clientKey) {
+        Tunnel tunnel = ((KeyAttachment) clientKey.attachment()).getTunnel();
+        return tunnel.getUdpAssociation() == null ? idleTimeoutNanos : udpIdleTimeoutNanos;
+    }
+
+    private boolean isAwaitingConnection(SelectionKey clientKey) {
+        return connectionManager.isConnectionPresent(clientKey) &&
+                connectionManager.getConnectionStatus(clientKey) == ConnectionStatus.NOT_ESTABLISHED;
+    }
+
+    private void finishConnectionProcess(SelectionKey serverKey) throws IOException {
+        ConnectionRace race = attemptKeyToRaceMap.get(serverKey);
+        SelectionKey clientKey = race.getClientKey();
+        if (!connectionManager.isConnectionPresent(clientKey)) {
+            abandonConnectionRace(race);
+            return;
+        }
+
+        SocketChannel socketChannel = (SocketChannel) serverKey.channel();
+        try {
+            if (!socketChannel.finishConnect()) {
+                return;
+            }
+        } catch (IOException e) {
+            attemptKeyToRaceMap.remove(serverKey);
+            race.getAttemptKeys().remove(serverKey);
+            closeConnection(serverKey);
+            // a failed attempt lets the next address go without waiting for the attempt delay
+            startNextConnectionAttempt(race);
+            return;
+        }
+
+        // the first established connection wins, the other attempts are cancelled
+        attemptKeyToRaceMap.remove(serverKey);
+        race.getAttemptKeys().remove(serverKey);
+        abandonConnectionRace(race);
+
+        serverKey.interestOpsAnd(~SelectionKey.OP_CONNECT);
+        circuitBreaker.recordSuccess(getDestination(clientKey));
+        connectionManager.addServerConnection(serverKey, clientKey);
+        connectionManager.notifyClientOfRequestSuccess(clientKey);
+        latencyHistograms.recordConnectNanos(System.nanoTime() - race.getStartTimeNanos());
+        scheduleTimeout(clientKey, TimeoutType.IDLE, idleTimeoutNanos);
+    }
+
+    private void createServerConnection(SelectionKey clientKey, List<InetSocketAddress> serverSocketAddresses) {
+        ConnectionRace race = new ConnectionRace(clientKey, serverSocketAddresses);
+        clientKeyToRaceMap.put(clientKey, race);
+        startNextConnectionAttempt(race);
+    }
+
+    private void startNextConnectionAttempt(ConnectionRace race) {
+        while (race.hasRemainingSocketAddresses()) {
+            InetSocketAddress serverSocketAddress = race.pollSocketAddress();
+            SocketChannel socketChannel = null;
+            try {
+                socketChannel = SocketChannel.open();
+                socketChannel.configureBlocking(false);
+                socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                boolean isConnected = socketChannel.connect(serverSocketAddress);
+                SelectionKey serverKey = socketChannel.register(
+                        selector, SelectionKey.OP_READ | SelectionKey.OP_CONNECT
+                );
+                race.getAttemptKeys().add(serverKey);
+                attemptKeyToRaceMap.put(serverKey, race);
+                // the next address joins the race once this attempt has run for the attempt delay
+                if (race.hasRemainingSocketAddresses()) {
+                    timingWheel.schedule(
+                            race.getNextAttemptTimeout(), TimeoutType.NEXT_CONNECTION_ATTEMPT,
+                            connectionAttemptDelayNanos
+                    );
+                } else {
+                    timingWheel.cancel(race.getNextAttemptTimeout());
+                }
+
+                if (isConnected) {
+                    finishConnectionProcess(serverKey);
+                }
+                return;
+            } catch (IOException e) {
+                if (socketChannel != null) {
+                    closeChannel(socketChannel);
+                }
+            }
+        }
+
+        if (race.getAttemptKeys().isEmpty()) {
+            clientKeyToRaceMap.remove(race.getClientKey());
+            timingWheel.cancel(race.getNextAttemptTimeout());
+            circuitBreaker.recordFailure(getDestination(race.getClientKey()));
+            connectionManager.notifyClientOfRequestFailure(race.getClientKey());
+        }
+    }
+
+    private InetSocketAddress getDestination(SelectionKey clientKey) {
+        return DestinationCircuitBreaker.getDestination(connectionManager.getRequestedSocketAddress(clientKey));
+    }
+
+    private void abandonConnectionRace(ConnectionRace race) {
+        clientKeyToRaceMap.remove(race.getClientKey());
+        timingWheel.cancel(race.getNextAttemptTimeout());
+        for (SelectionKey attemptKey: race.getAttemptKeys()) {
+            attemptKeyToRaceMap.remove(attemptKey);
+            closeConnection(attemptKey);
+        }
+        race.getAttemptKeys().clear();
+    }
+
+    private void closeConnection(SelectionKey key) {
+        key.cancel();
+        closeChannel(key.channel());
+    }
+
+    private void closeChannel(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        SocketChannel socketChannel;
+        while ((socketChannel = acceptedChannelsQueue.poll()) != null) {
+            closeChannel(socketChannel);
+        }
+
+        if (selector != null) {
+            selector.keys().forEach(this::closeConnection);
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+
+        if (datagramChannel != null) {
+            closeChannel(datagramChannel);
+        }
+
+        if (serverSocketChannel != null) {
+            closeChannel(serverSocketChannel);
+        }
+    }
+}
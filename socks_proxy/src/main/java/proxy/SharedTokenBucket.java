@@ -0,0 +1,24 @@
+package proxy;
+
+// a bucket several workers draw from; a worker reads what it was allowed before consuming, so under contention
+// the tokens may briefly go below zero, the debt is paid back before anyone reads again
+class SharedTokenBucket extends TokenBucket {
+    SharedTokenBucket(long bytesPerSecond, long capacity) {
+        super(bytesPerSecond, capacity);
+    }
+
+    @Override
+    synchronized long getTokensNumber(long currentTimeNanos) {
+        return super.getTokensNumber(currentTimeNanos);
+    }
+
+    @Override
+    synchronized void consume(long bytesNumber) {
+        super.consume(bytesNumber);
+    }
+
+    @Override
+    synchronized long getNanosUntilAvailable(long bytesNumber) {
+        return super.getNanosUntilAvailable(bytesNumber);
+    }
+}
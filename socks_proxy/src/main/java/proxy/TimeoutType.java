@@ -0,0 +1,11 @@
+package proxy;
+
+enum TimeoutType {
+    HANDSHAKE,
+    CONNECT,
+    IDLE,
+    RESUME_READING,
+    RELEASE_BUFFERS,
+    RESUME_ACCEPTING,
+    NEXT_CONNECTION_ATTEMPT;
+}
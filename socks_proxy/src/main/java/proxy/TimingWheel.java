@@ -0,0 +1,92 @@
+package proxy;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+class TimingWheel {
+    static final int NO_SLOT = -1;
+
+    private final ConnectionTimeout[] slots;
+    private final int slotMask;
+    private final long tickNanos;
+
+    private long currentTick = 0;
+    private long lastTickTimeNanos;
+    private int scheduledTimeoutsNumber = 0;
+
+    TimingWheel(int slotsNumber, long tickMillis) {
+        if (Integer.bitCount(slotsNumber) != 1) {
+            throw new IllegalArgumentException("Timing wheel slots number must be a power of two");
+        }
+
+        slots = new ConnectionTimeout[slotsNumber];
+        slotMask = slotsNumber - 1;
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        lastTickTimeNanos = System.nanoTime();
+    }
+
+    long getTickNanos() {
+        return tickNanos;
+    }
+
+    int getScheduledTimeoutsNumber() {
+        return scheduledTimeoutsNumber;
+    }
+
+    void schedule(ConnectionTimeout timeout, TimeoutType type, long delayNanos) {
+        cancel(timeout);
+
+        long ticks = Math.max(1, (delayNanos + tickNanos - 1) / tickNanos);
+        timeout.setType(type);
+        timeout.deadlineTick = currentTick + ticks;
+        timeout.slotIndex = (int) (timeout.deadlineTick & slotMask);
+
+        // timeouts beyond one wheel revolution stay in their slot until their deadline tick comes
+        ConnectionTimeout head = slots[timeout.slotIndex];
+        timeout.previous = null;
+        timeout.next = head;
+        if (head != null) {
+            head.previous = timeout;
+        }
+        slots[timeout.slotIndex] = timeout;
+        ++scheduledTimeoutsNumber;
+    }
+
+    void cancel(ConnectionTimeout timeout) {
+        if (!timeout.isScheduled()) {
+            return;
+        }
+
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            slots[timeout.slotIndex] = timeout.next;
+        }
+
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.slotIndex = NO_SLOT;
+        --scheduledTimeoutsNumber;
+    }
+
+    void advance(long currentTimeNanos, List<ConnectionTimeout> expiredTimeouts) {
+        while (currentTimeNanos - lastTickTimeNanos >= tickNanos) {
+            lastTickTimeNanos += tickNanos;
+            ++currentTick;
+
+            ConnectionTimeout timeout = slots[(int) (currentTick & slotMask)];
+            while (timeout != null) {
+                ConnectionTimeout next = timeout.next;
+                if (timeout.deadlineTick <= currentTick) {
+                    cancel(timeout);
+                    expiredTimeouts.add(timeout);
+                }
+                timeout = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package proxy;
+
+import java.util.concurrent.TimeUnit;
+
+class TokenBucket {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long bytesPerSecond;
+    private final long capacity;
+    private final long fullRefillNanos;
+
+    private long tokensNumber;
+    private long lastRefillTimeNanos;
+
+    TokenBucket(long bytesPerSecond, long capacity) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.capacity = capacity;
+        fullRefillNanos = capacity * NANOS_PER_SECOND / bytesPerSecond;
+
+        tokensNumber = capacity;
+        lastRefillTimeNanos = System.nanoTime();
+    }
+
+    // parked keys wake up on timing wheel ticks, so a bucket has to hold what is earned in a couple of ticks
+    static long getCapacity(long bytesPerSecond, long burstBytes, long tickNanos) {
+        long tickBytesNumber = bytesPerSecond * tickNanos / NANOS_PER_SECOND;
+        return Math.max(burstBytes, 2 * tickBytesNumber);
+    }
+
+    long getTokensNumber(long currentTimeNanos) {
+        refill(currentTimeNanos);
+        return tokensNumber;
+    }
+
+    void consume(long bytesNumber) {
+        tokensNumber -= bytesNumber;
+    }
+
+    long getNanosUntilAvailable(long bytesNumber) {
+        long missingTokensNumber = bytesNumber - tokensNumber;
+        if (missingTokensNumber <= 0) {
+            return 0;
+        }
+
+        return (missingTokensNumber * NANOS_PER_SECOND + bytesPerSecond - 1) / bytesPerSecond;
+    }
+
+    private void refill(long currentTimeNanos) {
+        long elapsedNanos = currentTimeNanos - lastRefillTimeNanos;
+        if (elapsedNanos >= fullRefillNanos) {
+            tokensNumber = capacity;
+            lastRefillTimeNanos = currentTimeNanos;
+            return;
+        }
+
+        long newTokensNumber = elapsedNanos * bytesPerSecond / NANOS_PER_SECOND;
+        if (newTokensNumber > 0) {
+            tokensNumber = Math.min(capacity, tokensNumber + newTokensNumber);
+            // only the time the new tokens account for is used up, the remainder carries over
+            lastRefillTimeNanos += newTokensNumber * NANOS_PER_SECOND / bytesPerSecond;
+        }
+    }
+}
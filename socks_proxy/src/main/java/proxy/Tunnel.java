@@ -0,0 +1,143 @@
+package proxy;
+
+import proxy.accesslog.CloseReason;
+import proxy.socks.SocksSession;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+
+public class Tunnel {
+    private final SelectionKey clientKey;
+    private SelectionKey serverKey;
+    private InetSocketAddress clientSocketAddress;
+
+    private final SocksSession socksSession = new SocksSession();
+    private ConnectionTimeout timeout;
+    private ConnectionTimeout bufferReleaseTimeout;
+    private UdpAssociation udpAssociation;
+    private TokenBucket rateLimitBucket;
+    private boolean isClosed = false;
+    private final long creationTimeNanos = System.nanoTime();
+
+    // what the access log reports about the tunnel, the times stay 0 for the stages it has not reached
+    private long requestTimeNanos;
+    private long establishmentTimeNanos;
+    private long bytesFromClient = 0;
+    private long bytesFromServer = 0;
+    private CloseReason closeReason;
+
+    Tunnel(SelectionKey clientKey) {
+        this.clientKey = clientKey;
+    }
+
+    public SelectionKey getClientKey() {
+        return clientKey;
+    }
+
+    public SelectionKey getServerKey() {
+        return serverKey;
+    }
+
+    void setServerKey(SelectionKey serverKey) {
+        this.serverKey = serverKey;
+    }
+
+    InetSocketAddress getClientSocketAddress() {
+        return clientSocketAddress;
+    }
+
+    void setClientSocketAddress(InetSocketAddress clientSocketAddress) {
+        this.clientSocketAddress = clientSocketAddress;
+    }
+
+    long getRequestTimeNanos() {
+        return requestTimeNanos;
+    }
+
+    void setRequestTimeNanos(long requestTimeNanos) {
+        this.requestTimeNanos = requestTimeNanos;
+    }
+
+    long getEstablishmentTimeNanos() {
+        return establishmentTimeNanos;
+    }
+
+    void setEstablishmentTimeNanos(long establishmentTimeNanos) {
+        this.establishmentTimeNanos = establishmentTimeNanos;
+    }
+
+    long getBytesFromClient() {
+        return bytesFromClient;
+    }
+
+    long getBytesFromServer() {
+        return bytesFromServer;
+    }
+
+    void addBytesFromClient(long bytesNumber) {
+        bytesFromClient += bytesNumber;
+    }
+
+    void addBytesFromServer(long bytesNumber) {
+        bytesFromServer += bytesNumber;
+    }
+
+    CloseReason getCloseReason() {
+        return closeReason;
+    }
+
+    // the first known reason wins, e.g. a connect timeout over the failure reply it has caused
+    void setCloseReason(CloseReason closeReason) {
+        if (this.closeReason == null) {
+            this.closeReason = closeReason;
+        }
+    }
+
+    public long getCreationTimeNanos() {
+        return creationTimeNanos;
+    }
+
+    public SocksSession getSocksSession() {
+        return socksSession;
+    }
+
+    ConnectionTimeout getTimeout() {
+        return timeout;
+    }
+
+    void setTimeout(ConnectionTimeout timeout) {
+        this.timeout = timeout;
+    }
+
+    ConnectionTimeout getBufferReleaseTimeout() {
+        return bufferReleaseTimeout;
+    }
+
+    void setBufferReleaseTimeout(ConnectionTimeout bufferReleaseTimeout) {
+        this.bufferReleaseTimeout = bufferReleaseTimeout;
+    }
+
+    UdpAssociation getUdpAssociation() {
+        return udpAssociation;
+    }
+
+    void setUdpAssociation(UdpAssociation udpAssociation) {
+        this.udpAssociation = udpAssociation;
+    }
+
+    TokenBucket getRateLimitBucket() {
+        return rateLimitBucket;
+    }
+
+    void setRateLimitBucket(TokenBucket rateLimitBucket) {
+        this.rateLimitBucket = rateLimitBucket;
+    }
+
+    public boolean isClosed() {
+        return isClosed;
+    }
+
+    void setClosed() {
+        isClosed = true;
+    }
+}
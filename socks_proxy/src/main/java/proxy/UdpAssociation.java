@@ -0,0 +1,58 @@
+package proxy;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+class UdpAssociation {
+    private final SelectionKey controlKey;
+    private final InetAddress clientAddress;
+    private InetSocketAddress clientSocketAddress;
+
+    private SelectionKey remoteKey;
+    private Queue<PendingDatagram> pendingDatagrams = new ArrayDeque<>();
+    private boolean isClosed = false;
+
+    UdpAssociation(SelectionKey controlKey, InetAddress clientAddress) {
+        this.controlKey = controlKey;
+        this.clientAddress = clientAddress;
+    }
+
+    SelectionKey getControlKey() {
+        return controlKey;
+    }
+
+    InetAddress getClientAddress() {
+        return clientAddress;
+    }
+
+    InetSocketAddress getClientSocketAddress() {
+        return clientSocketAddress;
+    }
+
+    void setClientSocketAddress(InetSocketAddress clientSocketAddress) {
+        this.clientSocketAddress = clientSocketAddress;
+    }
+
+    SelectionKey getRemoteKey() {
+        return remoteKey;
+    }
+
+    void setRemoteKey(SelectionKey remoteKey) {
+        this.remoteKey = remoteKey;
+    }
+
+    Queue<PendingDatagram> getPendingDatagrams() {
+        return pendingDatagrams;
+    }
+
+    boolean isClosed() {
+        return isClosed;
+    }
+
+    void setClosed() {
+        isClosed = true;
+    }
+}
@@ -0,0 +1,398 @@
+package proxy;
+
+import proxy.dns.DnsCache;
+import proxy.dns.DnsCacheEntry;
+import proxy.dns.DnsResponse;
+import proxy.dns.DomainNameResolver;
+import proxy.socks.SocksProtocol;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnsupportedAddressTypeException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+class UdpRelay {
+    private static final int MAX_DATAGRAM_LENGTH = 65535;
+    private static final int MAX_DATAGRAMS_PER_EVENT = 64;
+    // datagrams to names that are not in the cache wait for the lookup, the others beyond this number are dropped
+    private static final int MAX_PENDING_DATAGRAMS_NUMBER = 16;
+    private static final long PACKET_RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private Selector selector;
+    private DatagramChannel relayChannel;
+    private SelectionKey relaySelectionKey;
+    private DomainNameResolver domainNameResolver;
+    // the channels are opened in the family of the stack, an IPv4 only stack cannot send to IPv6 addresses
+    private boolean isIpv6Supported;
+
+    // every datagram is received into this buffer, a reply gets its SOCKS header put in front of the payload in place
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(SocksProtocol.MAX_UDP_HEADER_LENGTH + MAX_DATAGRAM_LENGTH);
+
+    private Map<InetSocketAddress, UdpAssociation> clientSocketAddressToAssociationMap = new HashMap<>();
+    // associations of clients that did not tell their port are bound by the first datagram from their address
+    private Map<InetAddress, Queue<UdpAssociation>> pendingAssociationsMap = new HashMap<>();
+    // associations whose channels have failed, the worker closes their control connections
+    private Set<UdpAssociation> failedAssociations = new HashSet<>();
+
+    private volatile int associationsNumber = 0;
+    private volatile long relayedPacketsNumber = 0;
+    private volatile long droppedPacketsNumber = 0;
+    private volatile long packetsPerSecond = 0;
+    private volatile long failedAssociationsNumber = 0;
+    private volatile long relayErrorsNumber = 0;
+    private long packetRateWindowStartNanos = System.nanoTime();
+    private long packetRateWindowStartPacketsNumber = 0;
+
+    UdpRelay(Selector selector, DomainNameResolver domainNameResolver) throws IOException {
+        this.selector = selector;
+        this.domainNameResolver = domainNameResolver;
+
+        relayChannel = DatagramChannel.open();
+        relayChannel.bind(new InetSocketAddress(0));
+        relayChannel.configureBlocking(false);
+        relaySelectionKey = relayChannel.register(selector, SelectionKey.OP_READ);
+        isIpv6Supported = ((InetSocketAddress) relayChannel.getLocalAddress()).getAddress() instanceof Inet6Address;
+    }
+
+    SelectionKey getSelectionKey() {
+        return relaySelectionKey;
+    }
+
+    int getPort() throws IOException {
+        return ((InetSocketAddress) relayChannel.getLocalAddress()).getPort();
+    }
+
+    int getAssociationsNumber() {
+        return associationsNumber;
+    }
+
+    long getRelayedPacketsNumber() {
+        return relayedPacketsNumber;
+    }
+
+    long getDroppedPacketsNumber() {
+        return droppedPacketsNumber;
+    }
+
+    long getPacketsPerSecond() {
+        return packetsPerSecond;
+    }
+
+    long getFailedAssociationsNumber() {
+        return failedAssociationsNumber;
+    }
+
+    long getRelayErrorsNumber() {
+        return relayErrorsNumber;
+    }
+
+    Set<UdpAssociation> getFailedAssociations() {
+        return failedAssociations;
+    }
+
+    UdpAssociation createAssociation(SelectionKey controlKey, InetSocketAddress requestedSocketAddress)
+            throws IOException {
+        SocketChannel controlChannel = (SocketChannel) controlKey.channel();
+        InetAddress clientAddress = ((InetSocketAddress) controlChannel.getRemoteAddress()).getAddress();
+        UdpAssociation association = new UdpAssociation(controlKey, clientAddress);
+
+        // datagrams to the destinations go out of a channel of their own, so the replies need no lookup
+        DatagramChannel remoteChannel = DatagramChannel.open();
+        try {
+            remoteChannel.bind(null);
+            remoteChannel.configureBlocking(false);
+            association.setRemoteKey(remoteChannel.register(selector, SelectionKey.OP_READ, association));
+        } catch (IOException e) {
+            remoteChannel.close();
+            throw e;
+        }
+
+        // RFC 1928: the request carries the address the client will send from, zeros if it does not know it yet
+        if (!requestedSocketAddress.isUnresolved() && requestedSocketAddress.getPort() != 0) {
+            InetAddress requestedAddress = requestedSocketAddress.getAddress();
+            InetSocketAddress clientSocketAddress = new InetSocketAddress(
+                    requestedAddress.isAnyLocalAddress() ? clientAddress : requestedAddress,
+                    requestedSocketAddress.getPort()
+            );
+            association.setClientSocketAddress(clientSocketAddress);
+            clientSocketAddressToAssociationMap.put(clientSocketAddress, association);
+        } else {
+            pendingAssociationsMap.computeIfAbsent(clientAddress, address -> new ArrayDeque<>()).add(association);
+        }
+
+        ++associationsNumber;
+        return association;
+    }
+
+    void closeAssociation(UdpAssociation association) {
+        if (association.isClosed()) {
+            return;
+        }
+        association.setClosed();
+        --associationsNumber;
+        droppedPacketsNumber += association.getPendingDatagrams().size();
+        association.getPendingDatagrams().clear();
+
+        InetSocketAddress clientSocketAddress = association.getClientSocketAddress();
+        if (clientSocketAddress != null) {
+            clientSocketAddressToAssociationMap.remove(clientSocketAddress, association);
+        } else {
+            Queue<UdpAssociation> pendingAssociations = pendingAssociationsMap.get(association.getClientAddress());
+            if (pendingAssociations != null) {
+                pendingAssociations.remove(association);
+                if (pendingAssociations.isEmpty()) {
+                    pendingAssociationsMap.remove(association.getClientAddress());
+                }
+            }
+        }
+
+        SelectionKey remoteKey = association.getRemoteKey();
+        remoteKey.cancel();
+        try {
+            remoteKey.channel().close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    void receiveFromClients() {
+        long currentTimeNanos = System.nanoTime();
+        for (int i = 0; i < MAX_DATAGRAMS_PER_EVENT; ++i) {
+            buffer.clear();
+            InetSocketAddress senderSocketAddress;
+            try {
+                senderSocketAddress = (InetSocketAddress) relayChannel.receive(buffer);
+            } catch (IOException e) {
+                // the relay channel belongs to no association, the error is only counted
+                ++relayErrorsNumber;
+                return;
+            }
+            if (senderSocketAddress == null) {
+                return;
+            }
+            buffer.flip();
+
+            UdpAssociation association = findAssociation(senderSocketAddress);
+            InetSocketAddress destinationSocketAddress = association == null ?
+                    null : SocksProtocol.readUdpHeader(buffer);
+            if (destinationSocketAddress != null && destinationSocketAddress.isUnresolved()) {
+                DnsCacheEntry cacheEntry = domainNameResolver.getCachedEntry(destinationSocketAddress.getHostString());
+                if (cacheEntry == null) {
+                    if (!addPendingDatagram(association, destinationSocketAddress)) {
+                        ++droppedPacketsNumber;
+                    }
+                    continue;
+                }
+
+                // a negative entry has no addresses, its datagrams are dropped
+                relayToRemote(association, cacheEntry.getAddresses(), destinationSocketAddress.getPort(),
+                        currentTimeNanos);
+                continue;
+            }
+
+            if (destinationSocketAddress == null) {
+                ++droppedPacketsNumber;
+                continue;
+            }
+
+            relayToRemote(association, destinationSocketAddress, currentTimeNanos);
+        }
+    }
+
+    // the remote key of the association waits for the lookup, so the answer comes back to this relay
+    void sendPendingDatagrams(UdpAssociation association, DnsResponse dnsResponse) {
+        long currentTimeNanos = System.nanoTime();
+        List<InetAddress> resolvedAddresses = null;
+        Iterator<PendingDatagram> iterator = association.getPendingDatagrams().iterator();
+        while (iterator.hasNext() && !association.isClosed()) {
+            PendingDatagram datagram = iterator.next();
+            if (!datagram.getHostname().equals(dnsResponse.getHostname())) {
+                continue;
+            }
+            iterator.remove();
+
+            if (!dnsResponse.isSuccess()) {
+                ++droppedPacketsNumber;
+                continue;
+            }
+
+            if (resolvedAddresses == null) {
+                resolvedAddresses = new ArrayList<>();
+                for (InetSocketAddress resolvedSocketAddress: dnsResponse.getResolvedSocketAddresses()) {
+                    resolvedAddresses.add(resolvedSocketAddress.getAddress());
+                }
+            }
+            buffer.clear();
+            buffer.put(datagram.getPayload()).flip();
+            relayToRemote(association, resolvedAddresses, datagram.getPort(), currentTimeNanos);
+        }
+    }
+
+    void receiveFromRemote(SelectionKey remoteKey) {
+        UdpAssociation association = (UdpAssociation) remoteKey.attachment();
+        DatagramChannel remoteChannel = (DatagramChannel) remoteKey.channel();
+        long currentTimeNanos = System.nanoTime();
+        for (int i = 0; i < MAX_DATAGRAMS_PER_EVENT && !association.isClosed(); ++i) {
+            // the payload lands after the room for the longest header
+            buffer.clear().position(SocksProtocol.MAX_UDP_HEADER_LENGTH);
+            InetSocketAddress sourceSocketAddress;
+            try {
+                sourceSocketAddress = (InetSocketAddress) remoteChannel.receive(buffer);
+            } catch (IOException e) {
+                failAssociation(association);
+                return;
+            }
+            if (sourceSocketAddress == null) {
+                return;
+            }
+
+            if (association.getClientSocketAddress() == null) {
+                ++droppedPacketsNumber;
+                continue;
+            }
+
+            int datagramEnd = buffer.position();
+            int datagramStart = SocksProtocol.MAX_UDP_HEADER_LENGTH - SocksProtocol.getUdpHeaderLength(sourceSocketAddress);
+            buffer.position(datagramStart);
+            SocksProtocol.putUdpHeader(buffer, sourceSocketAddress);
+            buffer.limit(datagramEnd).position(datagramStart);
+
+            try {
+                relay(relayChannel, association.getClientSocketAddress(), association, currentTimeNanos);
+            } catch (IOException e) {
+                // a failed send to the client only concerns its association
+                failAssociation(association);
+            }
+        }
+    }
+
+    void updatePacketRate(long currentTimeNanos) {
+        long elapsedNanos = currentTimeNanos - packetRateWindowStartNanos;
+        if (elapsedNanos < PACKET_RATE_WINDOW_NANOS) {
+            return;
+        }
+
+        long packetsNumber = relayedPacketsNumber - packetRateWindowStartPacketsNumber;
+        packetsPerSecond = packetsNumber * PACKET_RATE_WINDOW_NANOS / elapsedNanos;
+        packetRateWindowStartNanos = currentTimeNanos;
+        packetRateWindowStartPacketsNumber = relayedPacketsNumber;
+    }
+
+    private void relayToRemote(UdpAssociation association, InetSocketAddress destinationSocketAddress,
+                               long currentTimeNanos) {
+        DatagramChannel remoteChannel = (DatagramChannel) association.getRemoteKey().channel();
+        try {
+            relay(remoteChannel, destinationSocketAddress, association, currentTimeNanos);
+        } catch (IOException | UnsupportedAddressTypeException e) {
+            dropFailedDatagram();
+        }
+    }
+
+    // the addresses of a name come IPv6 first: they are skipped when the stack has no IPv6,
+    // and a send that fails because the host has no route for a family falls back to the next address
+    private void relayToRemote(UdpAssociation association, List<InetAddress> addresses, int port,
+                               long currentTimeNanos) {
+        DatagramChannel remoteChannel = (DatagramChannel) association.getRemoteKey().channel();
+        int datagramStart = buffer.position();
+        boolean isSendFailed = false;
+        for (InetAddress address: addresses) {
+            if (address instanceof Inet6Address && !isIpv6Supported) {
+                continue;
+            }
+
+            try {
+                relay(remoteChannel, new InetSocketAddress(address, port), association, currentTimeNanos);
+                return;
+            } catch (IOException | UnsupportedAddressTypeException e) {
+                isSendFailed = true;
+                buffer.position(datagramStart);
+            }
+        }
+
+        if (isSendFailed) {
+            dropFailedDatagram();
+        } else {
+            ++droppedPacketsNumber;
+        }
+    }
+
+    // the destination is chosen by the client for each datagram, a send error for one of them
+    // (no route, a broadcast address, port 0) does not concern the rest of the association
+    private void dropFailedDatagram() {
+        ++relayErrorsNumber;
+        ++droppedPacketsNumber;
+    }
+
+    // an unexpected error fails the association of a remote key, the relay channel is shared and only counts it
+    void handleError(SelectionKey key) {
+        if (key.attachment() instanceof UdpAssociation) {
+            failAssociation((UdpAssociation) key.attachment());
+        } else {
+            ++relayErrorsNumber;
+        }
+    }
+
+    private void failAssociation(UdpAssociation association) {
+        if (association.isClosed()) {
+            return;
+        }
+        ++failedAssociationsNumber;
+        closeAssociation(association);
+        failedAssociations.add(association);
+    }
+
+    private void relay(DatagramChannel channel, InetSocketAddress socketAddress,
+                       UdpAssociation association, long currentTimeNanos) throws IOException {
+        // a full socket buffer drops the datagram, as the network would
+        if (channel.send(buffer, socketAddress) == 0) {
+            ++droppedPacketsNumber;
+            return;
+        }
+
+        ++relayedPacketsNumber;
+        ((KeyAttachment) association.getControlKey().attachment()).setLastActivityTimeNanos(currentTimeNanos);
+    }
+
+    private UdpAssociation findAssociation(InetSocketAddress senderSocketAddress) {
+        UdpAssociation association = clientSocketAddressToAssociationMap.get(senderSocketAddress);
+        if (association != null) {
+            return association;
+        }
+
+        Queue<UdpAssociation> pendingAssociations = pendingAssociationsMap.get(senderSocketAddress.getAddress());
+        if (pendingAssociations == null) {
+            return null;
+        }
+
+        association = pendingAssociations.poll();
+        if (pendingAssociations.isEmpty()) {
+            pendingAssociationsMap.remove(senderSocketAddress.getAddress());
+        }
+
+        association.setClientSocketAddress(senderSocketAddress);
+        clientSocketAddressToAssociationMap.put(senderSocketAddress, association);
+        return association;
+    }
+
+    private boolean addPendingDatagram(UdpAssociation association, InetSocketAddress unresolvedSocketAddress) {
+        Queue<PendingDatagram> pendingDatagrams = association.getPendingDatagrams();
+        if (pendingDatagrams.size() >= MAX_PENDING_DATAGRAMS_NUMBER ||
+                !domainNameResolver.addRequestToQueue(association.getRemoteKey(), unresolvedSocketAddress)) {
+            return false;
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(buffer.remaining());
+        payload.put(buffer).flip();
+        String hostname = DnsCache.normalizeHostname(unresolvedSocketAddress.getHostString());
+        pendingDatagrams.add(new PendingDatagram(hostname, unresolvedSocketAddress.getPort(), payload));
+        return true;
+    }
+}
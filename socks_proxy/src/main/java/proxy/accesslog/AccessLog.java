@@ -0,0 +1,235 @@
+package proxy.accesslog;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// the workers publish closed tunnels into a ring and never wait, a background thread formats them
+// and appends every batch to the log file with a single write
+public class AccessLog implements AutoCloseable {
+    private static final int BATCH_BUFFER_LENGTH = 256 * 1024;
+    // a SOCKS hostname is at most 255 bytes long, so a line always fits
+    private static final int MAX_LINE_LENGTH = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final String UNKNOWN_FIELD = "-";
+
+    private final AccessLogRing ring;
+    private final Path logPath;
+    private final long maxFileBytes;
+    private final int rotatedFilesNumber;
+
+    private FileChannel fileChannel;
+    private long fileBytes;
+    private final ByteBuffer batchBuffer = ByteBuffer.allocateDirect(BATCH_BUFFER_LENGTH);
+    private final StringBuilder line = new StringBuilder(MAX_LINE_LENGTH);
+
+    private final Thread writerThread;
+    private volatile boolean isClosed = false;
+
+    private volatile long writtenRecordsNumber = 0;
+    private volatile long batchesNumber = 0;
+    private volatile long rotationsNumber = 0;
+
+    public AccessLog(String logFilepath, int ringCapacity, long maxFileBytes, int rotatedFilesNumber)
+            throws IOException {
+        ring = new AccessLogRing(ringCapacity);
+        logPath = Paths.get(logFilepath);
+        this.maxFileBytes = maxFileBytes;
+        this.rotatedFilesNumber = rotatedFilesNumber;
+        openLogFile();
+
+        writerThread = new Thread(this::writeRecords, "proxy-access-log");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // a claimed record has to be published, null means the ring is full and the record is dropped
+    public AccessLogRecord claimRecord() {
+        return ring.claim();
+    }
+
+    public void publish(AccessLogRecord record) {
+        ring.publish(record);
+    }
+
+    public long getWrittenRecordsNumber() {
+        return writtenRecordsNumber;
+    }
+
+    public long getDroppedRecordsNumber() {
+        return ring.getDroppedRecordsNumber();
+    }
+
+    public long getBatchesNumber() {
+        return batchesNumber;
+    }
+
+    public long getRotationsNumber() {
+        return rotationsNumber;
+    }
+
+    private void writeRecords() {
+        while (!isClosed) {
+            if (!writeBatch()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+
+        // the records published before closing are still written
+        while (writeBatch()) {
+            continue;
+        }
+    }
+
+    private boolean writeBatch() {
+        int recordsNumber = 0;
+        AccessLogRecord record;
+        while (batchBuffer.remaining() >= MAX_LINE_LENGTH && (record = ring.poll()) != null) {
+            formatRecord(record);
+            ring.release(record);
+            ++recordsNumber;
+        }
+        if (recordsNumber == 0) {
+            return false;
+        }
+
+        batchBuffer.flip();
+        try {
+            if (fileBytes > 0 && fileBytes + batchBuffer.remaining() > maxFileBytes) {
+                rotateLogFile();
+            }
+            fileBytes += batchBuffer.remaining();
+            while (batchBuffer.hasRemaining()) {
+                fileChannel.write(batchBuffer);
+            }
+            writtenRecordsNumber += recordsNumber;
+            ++batchesNumber;
+        } catch (IOException e) {
+            System.err.println("Failed to write the access log: " + e.getMessage());
+        } finally {
+            batchBuffer.clear();
+        }
+
+        return true;
+    }
+
+    // <close time> <client> <command> <destination> <bytes from client> <bytes from server>
+    // <handshake us> <connect us> <duration us> <close reason>
+    private void formatRecord(AccessLogRecord record) {
+        line.setLength(0);
+        DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(record.getCloseTimeMillis()), line);
+        line.append(' ');
+        appendSocketAddress(record.getClientSocketAddress());
+        line.append(' ');
+        if (record.getRequestedSocketAddress() == null) {
+            line.append(UNKNOWN_FIELD);
+        } else {
+            line.append(record.isUdpAssociation() ? "UDP_ASSOCIATE" : "CONNECT");
+        }
+        line.append(' ');
+        appendSocketAddress(record.getRequestedSocketAddress());
+        line.append(' ').append(record.getBytesFromClient());
+        line.append(' ').append(record.getBytesFromServer());
+        line.append(' ');
+        appendMicros(record.getHandshakeNanos());
+        line.append(' ');
+        appendMicros(record.getConnectNanos());
+        line.append(' ');
+        appendMicros(record.getDurationNanos());
+        line.append(' ').append(record.getCloseReason()).append('\n');
+
+        for (int i = 0; i < line.length(); ++i) {
+            batchBuffer.put((byte) line.charAt(i));
+        }
+    }
+
+    private void appendSocketAddress(InetSocketAddress socketAddress) {
+        if (socketAddress == null) {
+            line.append(UNKNOWN_FIELD);
+            return;
+        }
+
+        if (socketAddress.isUnresolved()) {
+            // a requested hostname comes from the client as is, it must not break the line format
+            String hostname = socketAddress.getHostString();
+            for (int i = 0; i < hostname.length(); ++i) {
+                char c = hostname.charAt(i);
+                line.append(c > ' ' && c < 0x7F ? c : '?');
+            }
+        } else if (socketAddress.getAddress() instanceof Inet6Address) {
+            line.append('[').append(socketAddress.getAddress().getHostAddress()).append(']');
+        } else {
+            line.append(socketAddress.getAddress().getHostAddress());
+        }
+        line.append(':').append(socketAddress.getPort());
+    }
+
+    private void appendMicros(long nanos) {
+        if (nanos <= 0) {
+            line.append(UNKNOWN_FIELD);
+        } else {
+            line.append(TimeUnit.NANOSECONDS.toMicros(nanos));
+        }
+    }
+
+    private void openLogFile() throws IOException {
+        fileChannel = FileChannel.open(
+                logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND
+        );
+        fileBytes = fileChannel.size();
+    }
+
+    // log -> log.1 -> log.2 ... the oldest file is overwritten
+    private void rotateLogFile() throws IOException {
+        fileChannel.close();
+        try {
+            if (rotatedFilesNumber > 0) {
+                for (int i = rotatedFilesNumber - 1; i >= 1; --i) {
+                    Path rotatedPath = getRotatedPath(i);
+                    if (Files.exists(rotatedPath)) {
+                        Files.move(rotatedPath, getRotatedPath(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                Files.move(logPath, getRotatedPath(1), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.delete(logPath);
+            }
+            ++rotationsNumber;
+        } finally {
+            // a failed rotation keeps appending to the current file
+            openLogFile();
+        }
+    }
+
+    private Path getRotatedPath(int index) {
+        return logPath.resolveSibling(logPath.getFileName() + "." + index);
+    }
+
+    @Override
+    public void close() {
+        isClosed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            fileChannel.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
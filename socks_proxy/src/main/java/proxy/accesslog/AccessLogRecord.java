@@ -0,0 +1,106 @@
+package proxy.accesslog;
+
+import java.net.InetSocketAddress;
+
+// a reusable slot of the ring, the addresses are immutable and only referenced, so filling it allocates nothing
+public class AccessLogRecord {
+    long sequence;
+
+    private long closeTimeMillis;
+    private InetSocketAddress clientSocketAddress;
+    private InetSocketAddress requestedSocketAddress;
+    private boolean isUdpAssociation;
+    private long bytesFromClient;
+    private long bytesFromServer;
+    private long handshakeNanos;
+    private long connectNanos;
+    private long durationNanos;
+    private CloseReason closeReason;
+
+    public void setCloseTimeMillis(long closeTimeMillis) {
+        this.closeTimeMillis = closeTimeMillis;
+    }
+
+    public void setClientSocketAddress(InetSocketAddress clientSocketAddress) {
+        this.clientSocketAddress = clientSocketAddress;
+    }
+
+    public void setRequestedSocketAddress(InetSocketAddress requestedSocketAddress) {
+        this.requestedSocketAddress = requestedSocketAddress;
+    }
+
+    public void setUdpAssociation(boolean isUdpAssociation) {
+        this.isUdpAssociation = isUdpAssociation;
+    }
+
+    public void setBytesFromClient(long bytesFromClient) {
+        this.bytesFromClient = bytesFromClient;
+    }
+
+    public void setBytesFromServer(long bytesFromServer) {
+        this.bytesFromServer = bytesFromServer;
+    }
+
+    public void setHandshakeNanos(long handshakeNanos) {
+        this.handshakeNanos = handshakeNanos;
+    }
+
+    public void setConnectNanos(long connectNanos) {
+        this.connectNanos = connectNanos;
+    }
+
+    public void setDurationNanos(long durationNanos) {
+        this.durationNanos = durationNanos;
+    }
+
+    public void setCloseReason(CloseReason closeReason) {
+        this.closeReason = closeReason;
+    }
+
+    long getCloseTimeMillis() {
+        return closeTimeMillis;
+    }
+
+    InetSocketAddress getClientSocketAddress() {
+        return clientSocketAddress;
+    }
+
+    InetSocketAddress getRequestedSocketAddress() {
+        return requestedSocketAddress;
+    }
+
+    boolean isUdpAssociation() {
+        return isUdpAssociation;
+    }
+
+    long getBytesFromClient() {
+        return bytesFromClient;
+    }
+
+    long getBytesFromServer() {
+        return bytesFromServer;
+    }
+
+    long getHandshakeNanos() {
+        return handshakeNanos;
+    }
+
+    long getConnectNanos() {
+        return connectNanos;
+    }
+
+    long getDurationNanos() {
+        return durationNanos;
+    }
+
+    CloseReason getCloseReason() {
+        return closeReason;
+    }
+
+    // the addresses are not kept alive by a slot that has been written out
+    void clear() {
+        clientSocketAddress = null;
+        requestedSocketAddress = null;
+        closeReason = null;
+    }
+}
@@ -0,0 +1,69 @@
+package proxy.accesslog;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// bounded lock-free ring with many producers (the workers) and a single consumer (the writer);
+// the sequence of a slot tells whose turn it is: its position for a producer, the position + 1 for the consumer
+class AccessLogRing {
+    private final AccessLogRecord[] records;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+    // only touched by the consumer
+    private long head = 0;
+
+    private final LongAdder droppedRecordsNumber = new LongAdder();
+
+    AccessLogRing(int capacity) {
+        int length = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        records = new AccessLogRecord[length];
+        sequences = new AtomicLongArray(length);
+        mask = length - 1;
+        for (int i = 0; i < length; ++i) {
+            records[i] = new AccessLogRecord();
+            sequences.set(i, i);
+        }
+    }
+
+    // returns null instead of waiting when the writer has fallen a whole ring behind
+    AccessLogRecord claim() {
+        while (true) {
+            long position = tail.get();
+            long sequence = sequences.get((int) position & mask);
+            if (sequence < position) {
+                droppedRecordsNumber.increment();
+                return null;
+            }
+
+            if (sequence == position && tail.compareAndSet(position, position + 1)) {
+                AccessLogRecord record = records[(int) position & mask];
+                record.sequence = position;
+                return record;
+            }
+        }
+    }
+
+    void publish(AccessLogRecord record) {
+        sequences.set((int) record.sequence & mask, record.sequence + 1);
+    }
+
+    AccessLogRecord poll() {
+        if (sequences.get((int) head & mask) != head + 1) {
+            return null;
+        }
+        return records[(int) head & mask];
+    }
+
+    void release(AccessLogRecord record) {
+        record.clear();
+        sequences.set((int) head & mask, head + records.length);
+        ++head;
+    }
+
+    long getDroppedRecordsNumber() {
+        return droppedRecordsNumber.sum();
+    }
+}
@@ -0,0 +1,13 @@
+package proxy.accesslog;
+
+public enum CloseReason {
+    // both directions have been half-closed, or the control connection of a UDP association has
+    COMPLETED,
+    // the client has gone away before its request was answered
+    CLIENT_CLOSED,
+    REQUEST_FAILED,
+    HANDSHAKE_TIMEOUT,
+    CONNECT_TIMEOUT,
+    IDLE_TIMEOUT,
+    ERROR;
+}
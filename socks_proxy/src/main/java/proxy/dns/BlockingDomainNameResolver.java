@@ -0,0 +1,178 @@
+package proxy.dns;
+
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.ResolverConfig;
+import proxy.metrics.ProxyMetrics;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BlockingDomainNameResolver {
+    private static final int IDS_NUMBER = 0x10000;
+    // the queries carry no EDNS, so answers should fit in 512 bytes; the rest takes the servers that send more anyway
+    private static final int BUFFER_LENGTH = 4096;
+
+    // query IDs are unpredictable, so an off-path attacker has to guess them to forge an answer
+    private final Random idRandom = new SecureRandom();
+    private final LongAdder mismatchedResponsesNumber = new LongAdder();
+
+    private DnsCache dnsCache;
+    private ProxyMetrics metrics;
+    private List<InetSocketAddress> servers = new ArrayList<>();
+    private int timeoutMillis;
+    private int maxAttemptsNumber;
+
+    public BlockingDomainNameResolver(DnsCache dnsCache, ProxyMetrics metrics, int timeoutMillis, int maxAttemptsNumber) {
+        this.dnsCache = dnsCache;
+        this.metrics = metrics;
+        this.timeoutMillis = timeoutMillis;
+
+        String[] serverHostnames = ResolverConfig.getCurrentConfig().servers();
+        if (serverHostnames != null) {
+            for (String serverHostname: serverHostnames) {
+                servers.add(DnsServer.parseSocketAddress(serverHostname));
+            }
+        }
+
+        this.maxAttemptsNumber = Math.max(maxAttemptsNumber, servers.size());
+    }
+
+    public long getMismatchedResponsesNumber() {
+        return mismatchedResponsesNumber.sum();
+    }
+
+    // returns the addresses in connection attempt order, an empty list if the name cannot be resolved
+    public List<InetAddress> resolve(String hostname) throws IOException {
+        hostname = DnsCache.normalizeHostname(hostname);
+        DnsCacheEntry cacheEntry = dnsCache.get(hostname);
+        if (cacheEntry != null) {
+            return cacheEntry.getAddresses();
+        }
+
+        if (servers.isEmpty() || !DnsWireCodec.isEncodable(hostname)) {
+            return List.of();
+        }
+
+        DnsLookup lookup = new DnsLookup(hostname);
+        try (DatagramSocket socket = new DatagramSocket()) {
+            query(socket, lookup);
+        }
+        metrics.recordDnsLookupNanos(System.nanoTime() - lookup.getStartTimeNanos());
+
+        if (lookup.hasAddresses()) {
+            dnsCache.putAddresses(hostname, lookup.getAddresses(), lookup.getTtl());
+        } else if (lookup.isNameNonExistent()) {
+            dnsCache.putNegative(hostname, lookup.getNegativeTtl());
+        }
+
+        return lookup.getAddresses();
+    }
+
+    private void query(DatagramSocket socket, DnsLookup lookup) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_LENGTH);
+        DnsWireResponse response = new DnsWireResponse();
+
+        // A and AAAA queries go out together and share the attempts
+        int ipv4ID = idRandom.nextInt(IDS_NUMBER);
+        int ipv6ID;
+        do {
+            ipv6ID = idRandom.nextInt(IDS_NUMBER);
+        } while (ipv6ID == ipv4ID);
+        boolean isIpv4Answered = false;
+        boolean isIpv6Answered = false;
+
+        for (int attempt = 0; attempt < maxAttemptsNumber && !(isIpv4Answered && isIpv6Answered); ++attempt) {
+            InetSocketAddress server = servers.get(attempt % servers.size());
+            if (!isIpv4Answered) {
+                send(socket, buffer, server, ipv4ID, lookup.getHostname(), DnsWireCodec.TYPE_A);
+            }
+            if (!isIpv6Answered) {
+                send(socket, buffer, server, ipv6ID, lookup.getHostname(), DnsWireCodec.TYPE_AAAA);
+            }
+
+            // the timeout doubles with every retransmission
+            long deadlineMillis = System.currentTimeMillis() + ((long) timeoutMillis << attempt);
+            while (!(isIpv4Answered && isIpv6Answered)) {
+                long remainingMillis = deadlineMillis - System.currentTimeMillis();
+                if (remainingMillis <= 0) {
+                    break;
+                }
+
+                socket.setSoTimeout((int) remainingMillis);
+                DatagramPacket packet = new DatagramPacket(buffer.array(), buffer.capacity());
+                try {
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+
+                if (!server.equals(packet.getSocketAddress())) {
+                    continue;
+                }
+
+                buffer.clear().limit(packet.getLength());
+                boolean isParsed = DnsWireCodec.parseResponse(buffer, response);
+                buffer.clear();
+                if (!isParsed) {
+                    continue;
+                }
+
+                int id = response.getID();
+                boolean isIpv4Response = !isIpv4Answered && id == ipv4ID;
+                boolean isIpv6Response = !isIpv6Answered && id == ipv6ID;
+                if (!isIpv4Response && !isIpv6Response) {
+                    continue;
+                }
+
+                // the right ID on an answer to another question is a forgery, the real answer may still come
+                int type = isIpv4Response ? DnsWireCodec.TYPE_A : DnsWireCodec.TYPE_AAAA;
+                if (!response.isAnswerTo(lookup.getHostname(), type)) {
+                    mismatchedResponsesNumber.increment();
+                    continue;
+                }
+
+                int rcode = response.getRcode();
+                if (rcode == Rcode.SERVFAIL || rcode == Rcode.REFUSED) {
+                    // the failed query is repeated on the next server
+                    break;
+                }
+
+                addAnswer(lookup, response);
+                if (isIpv4Response) {
+                    isIpv4Answered = true;
+                } else {
+                    isIpv6Answered = true;
+                }
+            }
+        }
+    }
+
+    private void send(DatagramSocket socket, ByteBuffer buffer,
+                      InetSocketAddress server, int id, String hostname, int type) throws IOException {
+        DnsWireCodec.encodeQuery(buffer, id, hostname, type);
+        socket.send(new DatagramPacket(buffer.array(), buffer.position(), server));
+        buffer.clear();
+    }
+
+    private void addAnswer(DnsLookup lookup, DnsWireResponse response) {
+        for (int i = 0; i < response.getAddressesNumber(); ++i) {
+            lookup.addAddress(response.getAddress(i), response.getMinTtl());
+        }
+
+        if (response.getRcode() == Rcode.NXDOMAIN) {
+            long negativeTtl = response.hasNegativeTtl() ?
+                    response.getNegativeTtl() : dnsCache.getNegativeTtlSeconds();
+            lookup.setNameNonExistent(negativeTtl);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package proxy.dns;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class DnsCache {
+    private final int maxEntriesNumber;
+    private final long maxTtlSeconds;
+    private final long negativeTtlSeconds;
+    private final int maxHotNamesNumber;
+    private final long prefetchWindowNanos;
+
+    // access order makes the eldest entry the least recently used one
+    private final Map<String, DnsCacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DnsCacheEntry> eldest) {
+            return size() > maxEntriesNumber;
+        }
+    };
+
+    // names from the hosts file never expire and are never sent to the servers
+    private final Map<String, DnsCacheEntry> overrides = new HashMap<>();
+
+    // the most requested names; scanning them does not touch the access order of the entries
+    private final Map<String, DnsCacheEntry> hotEntries = new HashMap<>();
+    // a lower bound of the requests number of the coldest hot name, it saves most of the scans
+    private long minHotRequestsNumber = 0;
+
+    private volatile long hitsNumber = 0;
+    private volatile long missesNumber = 0;
+    private volatile long overrideHitsNumber = 0;
+    private volatile long prefetchesNumber = 0;
+
+    public DnsCache(int maxEntriesNumber, long maxTtlSeconds, long negativeTtlSeconds,
+                    int maxHotNamesNumber, long prefetchWindowMillis) {
+        this.maxEntriesNumber = maxEntriesNumber;
+        this.maxTtlSeconds = maxTtlSeconds;
+        this.negativeTtlSeconds = negativeTtlSeconds;
+        this.maxHotNamesNumber = maxHotNamesNumber;
+        prefetchWindowNanos = TimeUnit.MILLISECONDS.toNanos(prefetchWindowMillis);
+    }
+
+    public synchronized void putOverrides(Map<String, List<InetAddress>> hostnameToAddressesMap) {
+        hostnameToAddressesMap.forEach((hostname, addresses) ->
+                overrides.put(normalizeHostname(hostname), new DnsCacheEntry(List.copyOf(addresses), 0))
+        );
+    }
+
+    public synchronized DnsCacheEntry get(String hostname) {
+        String key = normalizeHostname(hostname);
+        DnsCacheEntry override = overrides.get(key);
+        if (override != null) {
+            ++overrideHitsNumber;
+            return override;
+        }
+
+        DnsCacheEntry entry = entries.get(key);
+        if (entry != null && entry.isExpired(System.nanoTime())) {
+            entries.remove(key);
+            entry = null;
+        }
+
+        if (entry == null) {
+            ++missesNumber;
+        } else {
+            ++hitsNumber;
+            entry.countRequest();
+            updateHotEntries(key, entry);
+        }
+
+        return entry;
+    }
+
+    // the hot names are looked up again shortly before their answers expire, every name is handed out once
+    public synchronized List<String> pollNamesToPrefetch() {
+        List<String> hostnames = new ArrayList<>();
+        long currentTimeNanos = System.nanoTime();
+        hotEntries.forEach((hostname, entry) -> {
+            if (!entry.isNegative() && !entry.isPrefetchStarted() && !entry.isExpired(currentTimeNanos) &&
+                    entry.isExpired(currentTimeNanos + prefetchWindowNanos)) {
+                entry.setPrefetchStarted();
+                hostnames.add(hostname);
+            }
+        });
+
+        prefetchesNumber += hostnames.size();
+        return hostnames;
+    }
+
+    private void updateHotEntries(String hostname, DnsCacheEntry entry) {
+        if (maxHotNamesNumber <= 0) {
+            return;
+        }
+
+        if (hotEntries.containsKey(hostname) || hotEntries.size() < maxHotNamesNumber) {
+            hotEntries.put(hostname, entry);
+            return;
+        }
+
+        if (entry.getRequestsNumber() <= minHotRequestsNumber) {
+            return;
+        }
+
+        // the coldest hot name makes room for a name requested more often
+        String coldestHostname = null;
+        long coldestRequestsNumber = Long.MAX_VALUE;
+        for (var hotEntry: hotEntries.entrySet()) {
+            if (hotEntry.getValue().getRequestsNumber() < coldestRequestsNumber) {
+                coldestHostname = hotEntry.getKey();
+                coldestRequestsNumber = hotEntry.getValue().getRequestsNumber();
+            }
+        }
+
+        minHotRequestsNumber = coldestRequestsNumber;
+        if (entry.getRequestsNumber() > coldestRequestsNumber) {
+            hotEntries.remove(coldestHostname);
+            hotEntries.put(hostname, entry);
+        }
+    }
+
+    public synchronized void putAddresses(String hostname, List<InetAddress> addresses, long ttlSeconds) {
+        put(hostname, List.copyOf(addresses), Math.min(ttlSeconds, maxTtlSeconds));
+    }
+
+    public synchronized void putNegative(String hostname, long ttlSeconds) {
+        put(hostname, List.of(), Math.min(ttlSeconds, negativeTtlSeconds));
+    }
+
+    public long getNegativeTtlSeconds() {
+        return negativeTtlSeconds;
+    }
+
+    public synchronized int getEntriesNumber() {
+        return entries.size();
+    }
+
+    public long getHitsNumber() {
+        return hitsNumber;
+    }
+
+    public long getMissesNumber() {
+        return missesNumber;
+    }
+
+    public long getOverrideHitsNumber() {
+        return overrideHitsNumber;
+    }
+
+    public long getPrefetchesNumber() {
+        return prefetchesNumber;
+    }
+
+    public synchronized int getHotNamesNumber() {
+        return hotEntries.size();
+    }
+
+    private void put(String hostname, List<InetAddress> addresses, long ttlSeconds) {
+        if (ttlSeconds <= 0) {
+            return;
+        }
+
+        String key = normalizeHostname(hostname);
+        long expirationTimeNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(ttlSeconds);
+        DnsCacheEntry entry = new DnsCacheEntry(addresses, expirationTimeNanos);
+
+        // a hot name keeps its entry here even after the cache has dropped it
+        DnsCacheEntry previousEntry = hotEntries.get(key);
+        if (previousEntry == null) {
+            previousEntry = entries.get(key);
+        }
+        if (previousEntry != null) {
+            entry.inheritRequestsNumber(previousEntry);
+        }
+
+        entries.put(key, entry);
+        if (hotEntries.containsKey(key)) {
+            hotEntries.put(key, entry);
+            minHotRequestsNumber = Math.min(minHotRequestsNumber, entry.getRequestsNumber());
+        }
+    }
+
+    public static String normalizeHostname(String hostname) {
+        String key = hostname.toLowerCase(Locale.ROOT);
+        return key.endsWith(".") ? key.substring(0, key.length() - 1) : key;
+    }
+}
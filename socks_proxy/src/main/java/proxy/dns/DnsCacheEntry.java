@@ -0,0 +1,55 @@
+package proxy.dns;
+
+import java.net.InetAddress;
+import java.util.List;
+
+public class DnsCacheEntry {
+    private final List<InetAddress> addresses;
+    private final long expirationTimeNanos;
+
+    // guarded by the cache lock
+    private long requestsNumber = 0;
+    private boolean isPrefetchStarted = false;
+
+    DnsCacheEntry(List<InetAddress> addresses, long expirationTimeNanos) {
+        this.addresses = addresses;
+        this.expirationTimeNanos = expirationTimeNanos;
+    }
+
+    public boolean isNegative() {
+        return addresses.isEmpty();
+    }
+
+    public List<InetAddress> getAddresses() {
+        return addresses;
+    }
+
+    public InetAddress getAddress() {
+        return addresses.isEmpty() ? null : addresses.get(0);
+    }
+
+    boolean isExpired(long currentTimeNanos) {
+        return currentTimeNanos - expirationTimeNanos >= 0;
+    }
+
+    long getRequestsNumber() {
+        return requestsNumber;
+    }
+
+    void countRequest() {
+        ++requestsNumber;
+    }
+
+    // the popularity of a name decays by half with every refresh of its answer
+    void inheritRequestsNumber(DnsCacheEntry previousEntry) {
+        requestsNumber = previousEntry.requestsNumber / 2;
+    }
+
+    boolean isPrefetchStarted() {
+        return isPrefetchStarted;
+    }
+
+    void setPrefetchStarted() {
+        isPrefetchStarted = true;
+    }
+}
@@ -0,0 +1,125 @@
+package proxy.dns;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class DnsLookup {
+    private static final long NO_DEADLINE = Long.MIN_VALUE;
+
+    private final String hostname;
+    private final long startTimeNanos = System.nanoTime();
+    private final Map<SelectionKey, Integer> clientKeyToServerPortMap = new LinkedHashMap<>();
+
+    private int pendingQueriesNumber = 0;
+    private final List<InetAddress> ipv4Addresses = new ArrayList<>();
+    private final List<InetAddress> ipv6Addresses = new ArrayList<>();
+    private long ttl = Long.MAX_VALUE;
+    private boolean isNameNonExistent = false;
+    private long negativeTtl;
+
+    private long resolutionDeadlineNanos = NO_DEADLINE;
+    private boolean areWaitersNotified = false;
+
+    DnsLookup(String hostname) {
+        this.hostname = hostname;
+    }
+
+    String getHostname() {
+        return hostname;
+    }
+
+    long getStartTimeNanos() {
+        return startTimeNanos;
+    }
+
+    void addWaiter(SelectionKey clientKey, int serverPort) {
+        clientKeyToServerPortMap.put(clientKey, serverPort);
+    }
+
+    Map<SelectionKey, Integer> getWaiters() {
+        return clientKeyToServerPortMap;
+    }
+
+    void addPendingQuery() {
+        ++pendingQueriesNumber;
+    }
+
+    void completeQuery() {
+        --pendingQueriesNumber;
+    }
+
+    boolean isCompleted() {
+        return pendingQueriesNumber == 0;
+    }
+
+    void addAddress(InetAddress address, long ttl) {
+        if (address instanceof Inet6Address) {
+            ipv6Addresses.add(address);
+        } else {
+            ipv4Addresses.add(address);
+        }
+        this.ttl = Math.min(this.ttl, ttl);
+    }
+
+    boolean hasAddresses() {
+        return !ipv4Addresses.isEmpty() || !ipv6Addresses.isEmpty();
+    }
+
+    List<InetAddress> getAddresses() {
+        // RFC 8305: alternate address families starting with IPv6
+        List<InetAddress> addresses = new ArrayList<>(ipv4Addresses.size() + ipv6Addresses.size());
+        int maxSize = Math.max(ipv4Addresses.size(), ipv6Addresses.size());
+        for (int i = 0; i < maxSize; ++i) {
+            if (i < ipv6Addresses.size()) {
+                addresses.add(ipv6Addresses.get(i));
+            }
+            if (i < ipv4Addresses.size()) {
+                addresses.add(ipv4Addresses.get(i));
+            }
+        }
+
+        return addresses;
+    }
+
+    long getTtl() {
+        return ttl;
+    }
+
+    boolean isNameNonExistent() {
+        return isNameNonExistent;
+    }
+
+    long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    void setNameNonExistent(long negativeTtl) {
+        isNameNonExistent = true;
+        this.negativeTtl = negativeTtl;
+    }
+
+    boolean hasResolutionDeadline() {
+        return resolutionDeadlineNanos != NO_DEADLINE;
+    }
+
+    long getResolutionDeadlineNanos() {
+        return resolutionDeadlineNanos;
+    }
+
+    void setResolutionDeadlineNanos(long resolutionDeadlineNanos) {
+        this.resolutionDeadlineNanos = resolutionDeadlineNanos;
+    }
+
+    boolean areWaitersNotified() {
+        return areWaitersNotified;
+    }
+
+    void setWaitersNotified() {
+        areWaitersNotified = true;
+    }
+}
@@ -0,0 +1,80 @@
+package proxy.dns;
+
+class DnsQuery {
+    private final int id;
+    private final int type;
+    private final DnsLookup lookup;
+    private final byte[] fallbackRequestMessage;
+
+    private DnsServer server;
+    private int attemptsNumber = 0;
+    private long sendTimeNanos;
+    private long deadlineNanos;
+    private boolean isQueued = false;
+
+    // intrusive links of a deadline list, so rescheduling and cancellation are O(1)
+    int listIndex = DnsQueryDeadlines.NO_LIST;
+    DnsQuery previous;
+    DnsQuery next;
+
+    DnsQuery(int id, int type, DnsLookup lookup, byte[] fallbackRequestMessage) {
+        this.id = id;
+        this.type = type;
+        this.lookup = lookup;
+        this.fallbackRequestMessage = fallbackRequestMessage;
+    }
+
+    int getID() {
+        return id;
+    }
+
+    int getType() {
+        return type;
+    }
+
+    DnsLookup getLookup() {
+        return lookup;
+    }
+
+    byte[] getFallbackRequestMessage() {
+        return fallbackRequestMessage;
+    }
+
+    DnsServer getServer() {
+        return server;
+    }
+
+    int getAttemptsNumber() {
+        return attemptsNumber;
+    }
+
+    void startAttempt(DnsServer server) {
+        this.server = server;
+        ++attemptsNumber;
+    }
+
+    // a query waiting to be sent, a completed one is skipped when the request queue reaches it
+    boolean isQueued() {
+        return isQueued;
+    }
+
+    void setQueued(boolean isQueued) {
+        this.isQueued = isQueued;
+    }
+
+    long getSendTimeNanos() {
+        return sendTimeNanos;
+    }
+
+    void setSendTimeNanos(long sendTimeNanos) {
+        this.sendTimeNanos = sendTimeNanos;
+    }
+
+    long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    void setDeadlineNanos(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+}
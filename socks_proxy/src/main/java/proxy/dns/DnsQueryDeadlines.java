@@ -0,0 +1,73 @@
+package proxy.dns;
+
+import java.util.List;
+
+// the timeout of an attempt only depends on its number, so the queries scheduled for the same attempt number
+// expire in the order they were scheduled: a FIFO list per attempt number keeps every deadline ordered
+// and only the heads of the lists have to be checked
+class DnsQueryDeadlines {
+    static final int NO_LIST = -1;
+
+    private final DnsQuery[] heads;
+    private final DnsQuery[] tails;
+    private int scheduledQueriesNumber = 0;
+
+    DnsQueryDeadlines(int maxAttemptsNumber) {
+        heads = new DnsQuery[maxAttemptsNumber];
+        tails = new DnsQuery[maxAttemptsNumber];
+    }
+
+    int getScheduledQueriesNumber() {
+        return scheduledQueriesNumber;
+    }
+
+    // the delay has to be the same for all the queries of an attempt number
+    void schedule(DnsQuery query, long deadlineNanos) {
+        cancel(query);
+
+        query.setDeadlineNanos(deadlineNanos);
+        query.listIndex = query.getAttemptsNumber() - 1;
+        query.previous = tails[query.listIndex];
+        query.next = null;
+        if (query.previous != null) {
+            query.previous.next = query;
+        } else {
+            heads[query.listIndex] = query;
+        }
+        tails[query.listIndex] = query;
+        ++scheduledQueriesNumber;
+    }
+
+    void cancel(DnsQuery query) {
+        if (query.listIndex == NO_LIST) {
+            return;
+        }
+
+        if (query.previous != null) {
+            query.previous.next = query.next;
+        } else {
+            heads[query.listIndex] = query.next;
+        }
+
+        if (query.next != null) {
+            query.next.previous = query.previous;
+        } else {
+            tails[query.listIndex] = query.previous;
+        }
+
+        query.previous = null;
+        query.next = null;
+        query.listIndex = NO_LIST;
+        --scheduledQueriesNumber;
+    }
+
+    void pollExpired(long currentTimeNanos, List<DnsQuery> expiredQueries) {
+        for (int i = 0; i < heads.length; ++i) {
+            DnsQuery query;
+            while ((query = heads[i]) != null && currentTimeNanos - query.getDeadlineNanos() >= 0) {
+                cancel(query);
+                expiredQueries.add(query);
+            }
+        }
+    }
+}
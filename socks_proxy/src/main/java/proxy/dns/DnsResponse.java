@@ -2,11 +2,13 @@ package proxy.dns;
 
 import java.net.InetSocketAddress;
 import java.nio.channels.SelectionKey;
+import java.util.List;
 
 public class DnsResponse {
     private boolean isSuccess;
+    private String hostname;
     private SelectionKey clientKey;
-    private InetSocketAddress resolvedSocketAddress;
+    private List<InetSocketAddress> resolvedSocketAddresses;
 
     public boolean isSuccess() {
         return isSuccess;
@@ -16,6 +18,14 @@ public class DnsResponse {
         isSuccess = success;
     }
 
+    public String getHostname() {
+        return hostname;
+    }
+
+    public void setHostname(String hostname) {
+        this.hostname = hostname;
+    }
+
     public SelectionKey getClientKey() {
         return clientKey;
     }
@@ -24,11 +34,11 @@ public class DnsResponse {
         this.clientKey = clientKey;
     }
 
-    public InetSocketAddress getResolvedSocketAddress() {
-        return resolvedSocketAddress;
+    public List<InetSocketAddress> getResolvedSocketAddresses() {
+        return resolvedSocketAddresses;
     }
 
-    public void setResolvedSocketAddress(InetSocketAddress resolvedSocketAddress) {
-        this.resolvedSocketAddress = resolvedSocketAddress;
+    public void setResolvedSocketAddresses(List<InetSocketAddress> resolvedSocketAddresses) {
+        this.resolvedSocketAddresses = resolvedSocketAddresses;
     }
 }
@@ -0,0 +1,52 @@
+package proxy.dns;
+
+import java.net.InetSocketAddress;
+
+class DnsServer {
+    private static final int DNS_PORT = 53;
+    private static final int SMOOTHING_FACTOR = 8;
+
+    private final InetSocketAddress socketAddress;
+    private final long maxRttMillis;
+    private long smoothedRttMillis;
+
+    DnsServer(InetSocketAddress socketAddress, long initialRttMillis, long maxRttMillis) {
+        this.socketAddress = socketAddress;
+        this.maxRttMillis = maxRttMillis;
+        smoothedRttMillis = initialRttMillis;
+    }
+
+    // a configured server may carry a port ("127.0.0.1:5353" or "[::1]:5353"), the standard one is used otherwise
+    static InetSocketAddress parseSocketAddress(String server) {
+        int portSeparatorIndex = server.lastIndexOf(':');
+        if (server.startsWith("[") && portSeparatorIndex > server.indexOf(']')) {
+            return new InetSocketAddress(
+                    server.substring(1, server.indexOf(']')), Integer.parseInt(server.substring(portSeparatorIndex + 1))
+            );
+        }
+        if (portSeparatorIndex != -1 && server.indexOf(':') == portSeparatorIndex) {
+            return new InetSocketAddress(
+                    server.substring(0, portSeparatorIndex), Integer.parseInt(server.substring(portSeparatorIndex + 1))
+            );
+        }
+
+        return new InetSocketAddress(server, DNS_PORT);
+    }
+
+    InetSocketAddress getSocketAddress() {
+        return socketAddress;
+    }
+
+    long getSmoothedRttMillis() {
+        return smoothedRttMillis;
+    }
+
+    void addRttSample(long rttMillis) {
+        smoothedRttMillis += (rttMillis - smoothedRttMillis) / SMOOTHING_FACTOR;
+    }
+
+    void penalize() {
+        // a server that keeps timing out sinks to the end of the ranking
+        smoothedRttMillis = Math.min(smoothedRttMillis * 2 + 1, maxRttMillis);
+    }
+}
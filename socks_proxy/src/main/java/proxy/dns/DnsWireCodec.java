@@ -0,0 +1,292 @@
+package proxy.dns;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+class DnsWireCodec {
+    static final int TYPE_A = 1;
+    static final int TYPE_CNAME = 5;
+    static final int TYPE_SOA = 6;
+    static final int TYPE_AAAA = 28;
+    private static final int CLASS_IN = 1;
+
+    private static final int RESPONSE_FLAG = 0x8000;
+    private static final int RECURSION_DESIRED_FLAG = 0x0100;
+    private static final int RCODE_MASK = 0x000F;
+    private static final int COMPRESSION_POINTER_MASK = 0xC0;
+    private static final int COMPRESSION_OFFSET_MASK = 0x3FFF;
+
+    private static final int MAX_NAME_LENGTH = 253;
+    private static final int MAX_LABEL_LENGTH = 63;
+    // a name of at most 255 bytes has at most 127 labels, more means a compression loop
+    private static final int MAX_LABELS_NUMBER = 127;
+    private static final int MAX_ASCII_CHAR = 0x7F;
+
+    private static final int IPV4_ADDRESS_LENGTH = 4;
+    private static final int IPV6_ADDRESS_LENGTH = 16;
+    // serial, refresh, retry and expire fields of an SOA record
+    private static final int SOA_SKIPPED_FIELDS_LENGTH = 4 * Integer.BYTES;
+
+    static boolean isEncodable(String hostname) {
+        int nameLength = getNameLength(hostname);
+        if (nameLength == 0 || nameLength > MAX_NAME_LENGTH) {
+            return false;
+        }
+
+        int labelStart = 0;
+        for (int i = 0; i <= nameLength; ++i) {
+            if (i == nameLength || hostname.charAt(i) == '.') {
+                int labelLength = i - labelStart;
+                if (labelLength == 0 || labelLength > MAX_LABEL_LENGTH) {
+                    return false;
+                }
+                labelStart = i + 1;
+            } else {
+                char c = hostname.charAt(i);
+                // escaped labels are left to dnsjava
+                if (c > MAX_ASCII_CHAR || c == '\\') {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    static void encodeQuery(ByteBuffer buffer, int id, String hostname, int type) {
+        buffer.putShort((short) id);
+        buffer.putShort((short) RECURSION_DESIRED_FLAG);
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+
+        int nameLength = getNameLength(hostname);
+        int labelStart = 0;
+        for (int i = 0; i <= nameLength; ++i) {
+            if (i == nameLength || hostname.charAt(i) == '.') {
+                buffer.put((byte) (i - labelStart));
+                for (int j = labelStart; j < i; ++j) {
+                    buffer.put((byte) hostname.charAt(j));
+                }
+                labelStart = i + 1;
+            }
+        }
+        buffer.put((byte) 0);
+
+        buffer.putShort((short) type);
+        buffer.putShort((short) CLASS_IN);
+    }
+
+    static boolean parseResponse(ByteBuffer buffer, DnsWireResponse response) {
+        response.clear();
+        try {
+            response.setID(getUnsignedShort(buffer));
+            int flags = getUnsignedShort(buffer);
+            if ((flags & RESPONSE_FLAG) == 0) {
+                return false;
+            }
+            response.setRcode(flags & RCODE_MASK);
+
+            int questionsNumber = getUnsignedShort(buffer);
+            int answersNumber = getUnsignedShort(buffer);
+            int authorityRecordsNumber = getUnsignedShort(buffer);
+            getUnsignedShort(buffer);
+
+            // a query has exactly one question, whatever else comes back is left to dnsjava
+            if (questionsNumber != 1) {
+                return false;
+            }
+            int questionNameOffset = buffer.position();
+            readName(buffer, response.getQuestionName());
+            response.setQuestionType(getUnsignedShort(buffer));
+            if (getUnsignedShort(buffer) != CLASS_IN) {
+                return false;
+            }
+            response.addOwnerNameOffset(questionNameOffset);
+
+            int answersOffset = buffer.position();
+            followCnameChain(buffer, answersNumber, response);
+            buffer.position(answersOffset);
+            // only the records of the question name or its aliases are answers, anything else is ignored
+            for (int i = 0; i < answersNumber; ++i) {
+                int ownerNameOffset = buffer.position();
+                skipName(buffer);
+                int type = getUnsignedShort(buffer);
+                int recordClass = getUnsignedShort(buffer);
+                long ttl = getUnsignedInt(buffer);
+                int dataLength = getUnsignedShort(buffer);
+
+                boolean isAddress = (type == TYPE_A && dataLength == IPV4_ADDRESS_LENGTH) ||
+                        (type == TYPE_AAAA && dataLength == IPV6_ADDRESS_LENGTH);
+                if (recordClass == CLASS_IN && isAddress && isOwnerName(buffer, ownerNameOffset, response)) {
+                    response.addAddress(buffer, dataLength, ttl);
+                } else {
+                    skip(buffer, dataLength);
+                }
+            }
+
+            for (int i = 0; i < authorityRecordsNumber; ++i) {
+                skipName(buffer);
+                int type = getUnsignedShort(buffer);
+                getUnsignedShort(buffer);
+                long ttl = getUnsignedInt(buffer);
+                int dataLength = getUnsignedShort(buffer);
+                int dataEnd = buffer.position() + dataLength;
+
+                if (type == TYPE_SOA) {
+                    skipName(buffer);
+                    skipName(buffer);
+                    skip(buffer, SOA_SKIPPED_FIELDS_LENGTH);
+                    long minimum = getUnsignedInt(buffer);
+                    // RFC 2308: negative answers live for the minimum of the SOA TTL and its MINIMUM field
+                    response.setNegativeTtl(Math.min(ttl, minimum));
+                }
+                buffer.position(dataEnd);
+            }
+
+            return true;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // the aliases are collected in passes over the answers, so the CNAME records may come in any order
+    private static void followCnameChain(ByteBuffer buffer, int answersNumber, DnsWireResponse response) {
+        int answersOffset = buffer.position();
+        boolean isChainExtended = true;
+        while (isChainExtended) {
+            isChainExtended = false;
+            buffer.position(answersOffset);
+            for (int i = 0; i < answersNumber; ++i) {
+                int ownerNameOffset = buffer.position();
+                skipName(buffer);
+                int type = getUnsignedShort(buffer);
+                int recordClass = getUnsignedShort(buffer);
+                getUnsignedInt(buffer);
+                int dataLength = getUnsignedShort(buffer);
+
+                int targetNameOffset = buffer.position();
+                if (type == TYPE_CNAME && recordClass == CLASS_IN && isOwnerName(buffer, ownerNameOffset, response) &&
+                        !isOwnerName(buffer, targetNameOffset, response) &&
+                        response.addOwnerNameOffset(targetNameOffset)) {
+                    isChainExtended = true;
+                }
+                skip(buffer, dataLength);
+            }
+        }
+    }
+
+    private static boolean isOwnerName(ByteBuffer buffer, int nameOffset, DnsWireResponse response) {
+        for (int i = 0; i < response.getOwnerNamesNumber(); ++i) {
+            if (areNamesEqual(buffer, nameOffset, response.getOwnerNameOffset(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // names are compared in place, label by label and case-insensitively, following compression pointers
+    private static boolean areNamesEqual(ByteBuffer buffer, int firstOffset, int secondOffset) {
+        for (int i = 0; i <= MAX_LABELS_NUMBER; ++i) {
+            firstOffset = followPointers(buffer, firstOffset);
+            secondOffset = followPointers(buffer, secondOffset);
+            int labelLength = buffer.get(firstOffset) & 0xFF;
+            if (labelLength != (buffer.get(secondOffset) & 0xFF)) {
+                return false;
+            }
+            if (labelLength == 0) {
+                return true;
+            }
+
+            for (int j = 1; j <= labelLength; ++j) {
+                if (toLowerCase(buffer.get(firstOffset + j)) != toLowerCase(buffer.get(secondOffset + j))) {
+                    return false;
+                }
+            }
+            firstOffset += labelLength + 1;
+            secondOffset += labelLength + 1;
+        }
+
+        throw new IllegalArgumentException("Name has too many labels");
+    }
+
+    // the name is appended in lower case without the root label's trailing dot
+    private static void readName(ByteBuffer buffer, StringBuilder name) {
+        int offset = buffer.position();
+        int nameEnd = -1;
+        for (int i = 0; i <= MAX_LABELS_NUMBER; ++i) {
+            int labelOffset = followPointers(buffer, offset);
+            if (labelOffset != offset && nameEnd == -1) {
+                nameEnd = offset + Short.BYTES;
+            }
+
+            int labelLength = buffer.get(labelOffset) & 0xFF;
+            if (labelLength == 0) {
+                buffer.position(nameEnd == -1 ? labelOffset + 1 : nameEnd);
+                return;
+            }
+
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            for (int j = 1; j <= labelLength; ++j) {
+                name.append((char) toLowerCase(buffer.get(labelOffset + j)));
+            }
+            offset = labelOffset + labelLength + 1;
+        }
+
+        throw new IllegalArgumentException("Name has too many labels");
+    }
+
+    private static int followPointers(ByteBuffer buffer, int offset) {
+        for (int i = 0; i <= MAX_LABELS_NUMBER; ++i) {
+            int labelLength = buffer.get(offset) & 0xFF;
+            if ((labelLength & COMPRESSION_POINTER_MASK) == 0) {
+                return offset;
+            }
+            if ((labelLength & COMPRESSION_POINTER_MASK) != COMPRESSION_POINTER_MASK) {
+                throw new IllegalArgumentException("Unknown label type");
+            }
+            offset = buffer.getShort(offset) & COMPRESSION_OFFSET_MASK;
+        }
+
+        throw new IllegalArgumentException("Compression pointer loop");
+    }
+
+    private static int toLowerCase(byte c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c & 0xFF;
+    }
+
+    private static int getNameLength(String hostname) {
+        int nameLength = hostname.length();
+        return (nameLength > 0 && hostname.charAt(nameLength - 1) == '.') ? nameLength - 1 : nameLength;
+    }
+
+    private static void skipName(ByteBuffer buffer) {
+        while (true) {
+            int labelLength = buffer.get() & 0xFF;
+            if ((labelLength & COMPRESSION_POINTER_MASK) == COMPRESSION_POINTER_MASK) {
+                buffer.get();
+                return;
+            }
+
+            if (labelLength == 0) {
+                return;
+            }
+            skip(buffer, labelLength);
+        }
+    }
+
+    private static void skip(ByteBuffer buffer, int length) {
+        buffer.position(buffer.position() + length);
+    }
+
+    private static int getUnsignedShort(ByteBuffer buffer) {
+        return buffer.getShort() & 0xFFFF;
+    }
+
+    private static long getUnsignedInt(ByteBuffer buffer) {
+        return buffer.getInt() & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,144 @@
+package proxy.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+class DnsWireResponse {
+    static final int MAX_ADDRESSES_NUMBER = 32;
+    // the question name and the CNAME targets it leads to, a longer chain is cut off
+    static final int MAX_OWNER_NAMES_NUMBER = 9;
+    private static final int MAX_ADDRESS_LENGTH = 16;
+    private static final long NO_NEGATIVE_TTL = -1;
+
+    private int id;
+    private int rcode;
+    private final StringBuilder questionName = new StringBuilder();
+    private int questionType;
+
+    // offsets of the names answers may be owned by, valid while the message is being parsed
+    private final int[] ownerNameOffsets = new int[MAX_OWNER_NAMES_NUMBER];
+    private int ownerNamesNumber;
+
+    private final byte[] addressBytes = new byte[MAX_ADDRESSES_NUMBER * MAX_ADDRESS_LENGTH];
+    private final int[] addressLengths = new int[MAX_ADDRESSES_NUMBER];
+    private int addressesNumber;
+    private long minTtl;
+    private long negativeTtl;
+
+    void clear() {
+        id = 0;
+        rcode = 0;
+        questionName.setLength(0);
+        questionType = 0;
+        ownerNamesNumber = 0;
+        addressesNumber = 0;
+        minTtl = Long.MAX_VALUE;
+        negativeTtl = NO_NEGATIVE_TTL;
+    }
+
+    int getID() {
+        return id;
+    }
+
+    void setID(int id) {
+        this.id = id;
+    }
+
+    int getRcode() {
+        return rcode;
+    }
+
+    void setRcode(int rcode) {
+        this.rcode = rcode;
+    }
+
+    // the question comes back normalized like the lookup hostnames: lower case, no trailing dot
+    StringBuilder getQuestionName() {
+        return questionName;
+    }
+
+    int getQuestionType() {
+        return questionType;
+    }
+
+    void setQuestionType(int questionType) {
+        this.questionType = questionType;
+    }
+
+    boolean isAnswerTo(String hostname, int type) {
+        return questionType == type && hostname.contentEquals(questionName);
+    }
+
+    int getOwnerNamesNumber() {
+        return ownerNamesNumber;
+    }
+
+    int getOwnerNameOffset(int index) {
+        return ownerNameOffsets[index];
+    }
+
+    boolean addOwnerNameOffset(int offset) {
+        if (ownerNamesNumber == MAX_OWNER_NAMES_NUMBER) {
+            return false;
+        }
+        ownerNameOffsets[ownerNamesNumber++] = offset;
+        return true;
+    }
+
+    int getAddressesNumber() {
+        return addressesNumber;
+    }
+
+    InetAddress getAddress(int index) {
+        int offset = index * MAX_ADDRESS_LENGTH;
+        byte[] address = Arrays.copyOfRange(addressBytes, offset, offset + addressLengths[index]);
+        try {
+            return InetAddress.getByAddress(address);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("Address is of illegal length", e);
+        }
+    }
+
+    void addAddress(ByteBuffer buffer, int length, long ttl) {
+        if (addressesNumber == MAX_ADDRESSES_NUMBER) {
+            buffer.position(buffer.position() + length);
+            return;
+        }
+
+        buffer.get(addressBytes, addressesNumber * MAX_ADDRESS_LENGTH, length);
+        addAddressInfo(length, ttl);
+    }
+
+    void addAddress(byte[] address, long ttl) {
+        if (addressesNumber == MAX_ADDRESSES_NUMBER) {
+            return;
+        }
+
+        System.arraycopy(address, 0, addressBytes, addressesNumber * MAX_ADDRESS_LENGTH, address.length);
+        addAddressInfo(address.length, ttl);
+    }
+
+    long getMinTtl() {
+        return minTtl;
+    }
+
+    boolean hasNegativeTtl() {
+        return negativeTtl != NO_NEGATIVE_TTL;
+    }
+
+    long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    void setNegativeTtl(long negativeTtl) {
+        this.negativeTtl = negativeTtl;
+    }
+
+    private void addAddressInfo(int length, long ttl) {
+        addressLengths[addressesNumber] = length;
+        ++addressesNumber;
+        minTtl = Math.min(minTtl, ttl);
+    }
+}
@@ -1,52 +1,151 @@
 package proxy.dns;
 
 import org.xbill.DNS.*;
+import org.xbill.DNS.Record;
+import proxy.metrics.LatencyHistograms;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
+import java.nio.channels.UnsupportedAddressTypeException;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 public class DomainNameResolver {
-    private static int nextID = 0;
+    private static final int IDS_NUMBER = 0x10000;
+    // unpredictable IDs make a forged answer a guess, answers go to the cache shared by all workers
+    private Random idRandom = new SecureRandom();
+    private volatile long mismatchedResponsesNumber = 0;
+    private volatile long sendErrorsNumber = 0;
+
+    private static final long PREFETCH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private long nextPrefetchTimeNanos = System.nanoTime();
 
     private SelectionKey selectionKey;
     private DatagramChannel datagramChannel;
-    private InetSocketAddress resolverSocketAddress;
+    private DnsCache dnsCache;
+    private LatencyHistograms latencyHistograms;
+
+    private List<DnsServer> servers = new ArrayList<>();
+    private long timeoutNanos;
+    private int maxAttemptsNumber;
+    private long resolutionDelayNanos;
 
-    private HashMap<Integer, Integer> idToServerPortMap = new HashMap<>();
-    private HashMap<Integer, SelectionKey> idToClientKeyMap = new HashMap<>();
+    private HashMap<Integer, DnsQuery> idToQueryMap = new HashMap<>();
+    private HashMap<String, DnsLookup> hostnameToLookupMap = new HashMap<>();
+    private DnsQueryDeadlines queryDeadlines;
+    private List<DnsQuery> expiredQueries = new ArrayList<>();
+    // the resolution delay is the same for every lookup, so the deadlines come in order;
+    // lookups notified before their deadline are skipped when they reach the head
+    private Queue<DnsLookup> resolutionDeadlines = new ArrayDeque<>();
 
     private static final int BUFFER_LENGTH = 65536;
     private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_LENGTH);
-    private Queue<byte[]> requestMessageQueue = new ArrayDeque<>();
+    private DnsWireResponse wireResponse = new DnsWireResponse();
+    private Queue<DnsQuery> requestQueue = new ArrayDeque<>();
     private Set<DnsResponse> dnsResponseSet = new HashSet<>();
 
-    public DomainNameResolver(SelectionKey selectionKey) {
+    public DomainNameResolver(SelectionKey selectionKey, DnsCache dnsCache, LatencyHistograms latencyHistograms,
+                              int timeoutMillis, int maxAttemptsNumber, int resolutionDelayMillis) {
         this.selectionKey = selectionKey;
+        this.dnsCache = dnsCache;
+        this.latencyHistograms = latencyHistograms;
         datagramChannel = (DatagramChannel) selectionKey.channel();
-        resolverSocketAddress = new InetSocketAddress(
-                ResolverConfig.getCurrentConfig().server(), 53
-        );
+
+        resolutionDelayNanos = TimeUnit.MILLISECONDS.toNanos(resolutionDelayMillis);
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        String[] serverHostnames = ResolverConfig.getCurrentConfig().servers();
+        if (serverHostnames != null) {
+            long maxRttMillis = (long) timeoutMillis << maxAttemptsNumber;
+            for (String serverHostname: serverHostnames) {
+                InetSocketAddress serverSocketAddress = DnsServer.parseSocketAddress(serverHostname);
+                servers.add(new DnsServer(serverSocketAddress, timeoutMillis, maxRttMillis));
+            }
+        }
+
+        // every configured server gets at least one try
+        this.maxAttemptsNumber = Math.max(maxAttemptsNumber, servers.size());
+        queryDeadlines = new DnsQueryDeadlines(this.maxAttemptsNumber);
+    }
+
+    public long getMismatchedResponsesNumber() {
+        return mismatchedResponsesNumber;
+    }
+
+    public long getSendErrorsNumber() {
+        return sendErrorsNumber;
+    }
+
+    public DnsCacheEntry getCachedEntry(String hostname) {
+        return dnsCache.get(hostname);
     }
 
     public boolean addRequestToQueue(SelectionKey clientKey, InetSocketAddress unresolvedSocketAddress) {
-        int requestID = getNextID();
-        byte[] requestMessage = createDnsRequestMessage(requestID, unresolvedSocketAddress.getHostName());
-        if (requestMessage == null) {
+        String hostname = DnsCache.normalizeHostname(unresolvedSocketAddress.getHostName());
+        int serverPort = unresolvedSocketAddress.getPort();
+
+        DnsLookup pendingLookup = hostnameToLookupMap.get(hostname);
+        if (pendingLookup != null) {
+            pendingLookup.addWaiter(clientKey, serverPort);
+            return true;
+        }
+
+        DnsLookup lookup = startLookup(hostname);
+        if (lookup == null) {
             return false;
         }
 
-        idToClientKeyMap.put(requestID, clientKey);
-        idToServerPortMap.put(requestID, unresolvedSocketAddress.getPort());
+        lookup.addWaiter(clientKey, serverPort);
+        return true;
+    }
 
-        selectionKey.interestOpsOr(SelectionKey.OP_WRITE);
-        requestMessageQueue.add(requestMessage);
+    // a prefetch is a lookup without waiters, its answer only goes to the cache; clients asking for
+    // the name meanwhile join it like any other pending lookup
+    public void prefetchHotNames() {
+        long currentTimeNanos = System.nanoTime();
+        if (currentTimeNanos - nextPrefetchTimeNanos < 0) {
+            return;
+        }
+        nextPrefetchTimeNanos = currentTimeNanos + PREFETCH_INTERVAL_NANOS;
 
-        return true;
+        for (String hostname: dnsCache.pollNamesToPrefetch()) {
+            if (!hostnameToLookupMap.containsKey(hostname)) {
+                startLookup(hostname);
+            }
+        }
+    }
+
+    private DnsLookup startLookup(String hostname) {
+        if (servers.isEmpty()) {
+            return null;
+        }
+
+        // A and AAAA records are queried in parallel
+        DnsLookup lookup = new DnsLookup(hostname);
+        DnsQuery ipv4Query = createQuery(lookup, DnsWireCodec.TYPE_A);
+        DnsQuery ipv6Query = createQuery(lookup, DnsWireCodec.TYPE_AAAA);
+        if (ipv4Query == null || ipv6Query == null) {
+            if (ipv4Query != null) {
+                idToQueryMap.remove(ipv4Query.getID());
+            }
+            return null;
+        }
+
+        hostnameToLookupMap.put(hostname, lookup);
+
+        long currentTimeNanos = System.nanoTime();
+        for (DnsQuery query: List.of(ipv4Query, ipv6Query)) {
+            lookup.addPendingQuery();
+            startAttempt(query, currentTimeNanos);
+        }
+
+        return lookup;
     }
 
     public Set<DnsResponse> getDnsResponseSet() {
@@ -54,47 +153,157 @@ public class DomainNameResolver {
     }
 
     public void readResponses() throws IOException {
-        while (datagramChannel.receive(buffer) != null) {
+        SocketAddress senderSocketAddress;
+        while ((senderSocketAddress = datagramChannel.receive(buffer)) != null) {
             buffer.flip();
-            int responseLength = buffer.remaining();
-            byte[] responseMessage = new byte[responseLength];
-            buffer.get(responseMessage);
+            boolean isParsed = DnsWireCodec.parseResponse(buffer, wireResponse);
+            if (!isParsed) {
+                // whatever the wire codec does not understand is left to dnsjava
+                buffer.rewind();
+                byte[] responseMessage = new byte[buffer.remaining()];
+                buffer.get(responseMessage);
+                isParsed = parseResponseMessage(responseMessage, wireResponse);
+            }
             buffer.clear();
 
-            DnsResponse response = getResponseInfo(responseMessage);
-            dnsResponseSet.add(response);
-        };
+            if (isParsed) {
+                handleResponse(wireResponse, senderSocketAddress);
+            }
+        }
     }
 
     public void writeRequests() throws IOException {
-        var queueIterator = requestMessageQueue.iterator();
-        while (queueIterator.hasNext()) {
-            byte[] requestMessage = queueIterator.next();
-            buffer.put(requestMessage);
+        DnsQuery query;
+        while ((query = requestQueue.peek()) != null) {
+            if (!query.isQueued()) {
+                requestQueue.poll();
+                continue;
+            }
+
+            byte[] fallbackRequestMessage = query.getFallbackRequestMessage();
+            if (fallbackRequestMessage == null) {
+                DnsWireCodec.encodeQuery(buffer, query.getID(), query.getLookup().getHostname(), query.getType());
+            } else {
+                buffer.put(fallbackRequestMessage);
+            }
             buffer.flip();
-            int bytesSent = datagramChannel.send(buffer, resolverSocketAddress);
+            int bytesSent;
+            try {
+                bytesSent = datagramChannel.send(buffer, query.getServer().getSocketAddress());
+            } catch (IOException | UnsupportedAddressTypeException e) {
+                // an unreachable server must not stop the other queries, the query moves on to the next server
+                buffer.clear();
+                ++sendErrorsNumber;
+                query.setQueued(false);
+                requestQueue.poll();
+                failAttempt(query, System.nanoTime());
+                continue;
+            }
             buffer.clear();
 
             if (bytesSent == 0) {
                 return;
             }
 
-            queueIterator.remove();
+            long currentTimeNanos = System.nanoTime();
+            query.setSendTimeNanos(currentTimeNanos);
+            queryDeadlines.schedule(query, currentTimeNanos + getAttemptTimeoutNanos(query));
+            query.setQueued(false);
+            requestQueue.poll();
         }
 
         selectionKey.interestOpsAnd(~SelectionKey.OP_WRITE);
     }
 
+    public void handleTimeouts() {
+        long currentTimeNanos = System.nanoTime();
+        queryDeadlines.pollExpired(currentTimeNanos, expiredQueries);
+        for (DnsQuery query: expiredQueries) {
+            failAttempt(query, currentTimeNanos);
+        }
+        expiredQueries.clear();
+
+        // RFC 8305: answers of one family wait a short resolution delay for the other family
+        DnsLookup lookup;
+        while ((lookup = resolutionDeadlines.peek()) != null) {
+            if (!lookup.areWaitersNotified() && currentTimeNanos - lookup.getResolutionDeadlineNanos() < 0) {
+                break;
+            }
+            resolutionDeadlines.poll();
+            notifyWaiters(lookup);
+        }
+    }
+
+    private void failAttempt(DnsQuery query, long currentTimeNanos) {
+        query.getServer().penalize();
+        if (query.getAttemptsNumber() < maxAttemptsNumber) {
+            startAttempt(query, currentTimeNanos);
+        } else {
+            completeQuery(query, null);
+        }
+    }
+
+    private DnsQuery createQuery(DnsLookup lookup, int type) {
+        if (idToQueryMap.size() == IDS_NUMBER) {
+            return null;
+        }
+
+        int requestID = getNextID();
+        byte[] fallbackRequestMessage = null;
+        if (!DnsWireCodec.isEncodable(lookup.getHostname())) {
+            fallbackRequestMessage = createDnsRequestMessage(requestID, lookup.getHostname(), type);
+            if (fallbackRequestMessage == null) {
+                return null;
+            }
+        }
+
+        DnsQuery query = new DnsQuery(requestID, type, lookup, fallbackRequestMessage);
+        // reserve the ID right away so the paired query gets a different one
+        idToQueryMap.put(requestID, query);
+        return query;
+    }
+
+    private void startAttempt(DnsQuery query, long currentTimeNanos) {
+        // servers are ranked by their smoothed RTT, a retry never goes to the server that has just failed
+        DnsServer previousServer = query.getServer();
+        DnsServer server = null;
+        for (DnsServer candidate: servers) {
+            if ((candidate != previousServer || servers.size() == 1) &&
+                    (server == null || candidate.getSmoothedRttMillis() < server.getSmoothedRttMillis())) {
+                server = candidate;
+            }
+        }
+
+        // the attempt is timed from the moment it is queued until it is sent, then from the sending
+        query.startAttempt(server);
+        queryDeadlines.schedule(query, currentTimeNanos + getAttemptTimeoutNanos(query));
+        if (!query.isQueued()) {
+            query.setQueued(true);
+            requestQueue.add(query);
+        }
+        selectionKey.interestOpsOr(SelectionKey.OP_WRITE);
+    }
+
+    private long getAttemptTimeoutNanos(DnsQuery query) {
+        // exponential backoff: the timeout doubles with every retransmission
+        return timeoutNanos << (query.getAttemptsNumber() - 1);
+    }
+
     private int getNextID() {
-        return nextID++;
+        int id;
+        do {
+            id = idRandom.nextInt(IDS_NUMBER);
+        } while (idToQueryMap.containsKey(id));
+
+        return id;
     }
 
-    private byte[] createDnsRequestMessage(int requestID, String domainName) {
+    private byte[] createDnsRequestMessage(int requestID, String domainName, int type) {
         try {
             String absoluteName = domainName.charAt(domainName.length() - 1) == '.' ?
                     domainName : domainName + ".";
-            Record aRecord = ARecord.newRecord(Name.fromString(absoluteName), Type.A, DClass.IN);
-            Message requestMessage = Message.newQuery(aRecord);
+            Record questionRecord = Record.newRecord(Name.fromString(absoluteName), type, DClass.IN);
+            Message requestMessage = Message.newQuery(questionRecord);
             requestMessage.getHeader().setID(requestID);
             return requestMessage.toWire();
         } catch (Exception e) {
@@ -102,30 +311,164 @@ public class DomainNameResolver {
         }
     }
 
-    private DnsResponse getResponseInfo(byte[] responseMessage) throws IOException {
-        Message response = new Message(responseMessage);
-        Record[] answerRecords = response.getSectionArray(Section.ANSWER);
-        InetAddress resolvedAddress = Arrays.stream(answerRecords)
-                .filter(record -> record.getType() == Type.A)
+    private boolean parseResponseMessage(byte[] responseMessage, DnsWireResponse response) {
+        Message message;
+        try {
+            message = new Message(responseMessage);
+        } catch (IOException e) {
+            System.err.println("Malformed DNS response: " + e.getMessage());
+            return false;
+        }
+
+        response.clear();
+        response.setID(message.getHeader().getID());
+        response.setRcode(message.getRcode());
+        Record question = message.getQuestion();
+        if (question == null || question.getDClass() != DClass.IN) {
+            return false;
+        }
+        response.getQuestionName().append(DnsCache.normalizeHostname(question.getName().toString()));
+        response.setQuestionType(question.getType());
+
+        // like the wire codec, only the records of the question name or its aliases are taken as answers
+        Record[] answerRecords = message.getSectionArray(Section.ANSWER);
+        Set<Name> ownerNames = new HashSet<>(List.of(question.getName()));
+        boolean isChainExtended = true;
+        while (isChainExtended && ownerNames.size() < DnsWireResponse.MAX_OWNER_NAMES_NUMBER) {
+            isChainExtended = false;
+            for (Record record: answerRecords) {
+                if (record.getType() == Type.CNAME && ownerNames.contains(record.getName()) &&
+                        ownerNames.add(((CNAMERecord) record).getTarget())) {
+                    isChainExtended = true;
+                }
+            }
+        }
+
+        for (Record record: answerRecords) {
+            if (record.getDClass() != DClass.IN || !ownerNames.contains(record.getName())) {
+                continue;
+            }
+            if (record.getType() == Type.A) {
+                response.addAddress(((ARecord) record).getAddress().getAddress(), record.getTTL());
+            } else if (record.getType() == Type.AAAA) {
+                response.addAddress(((AAAARecord) record).getAddress().getAddress(), record.getTTL());
+            }
+        }
+
+        // RFC 2308: negative answers live for the minimum of the SOA TTL and its MINIMUM field
+        Arrays.stream(message.getSectionArray(Section.AUTHORITY))
+                .filter(record -> record.getType() == Type.SOA)
+                .map(SOARecord.class::cast)
                 .findFirst()
-                .map(ARecord.class::cast)
-                .map(ARecord::getAddress)
-                .orElse(null);
-
-        int id = response.getHeader().getID();
-        SelectionKey clientKey = idToClientKeyMap.remove(id);
-        int serverPort = idToServerPortMap.remove(id);
-        DnsResponse dnsResponse = new DnsResponse();
-        dnsResponse.setClientKey(clientKey);
-
-        if (resolvedAddress != null) {
-            InetSocketAddress resolvedSocketAddress = new InetSocketAddress(resolvedAddress, serverPort);
-            dnsResponse.setResolvedSocketAddress(resolvedSocketAddress);
-            dnsResponse.setSuccess(true);
-        } else {
-            dnsResponse.setSuccess(false);
+                .ifPresent(soaRecord -> response.setNegativeTtl(Math.min(soaRecord.getTTL(), soaRecord.getMinimum())));
+
+        return true;
+    }
+
+    private void handleResponse(DnsWireResponse response, SocketAddress senderSocketAddress) {
+        int id = response.getID();
+        DnsQuery query = idToQueryMap.get(id);
+        if (query == null) {
+            return;
+        }
+
+        DnsServer server = findServer(senderSocketAddress);
+        if (server == null) {
+            return;
+        }
+
+        // an answer to another question is either stale or forged, the query keeps waiting for the real one
+        if (!response.isAnswerTo(query.getLookup().getHostname(), query.getType())) {
+            ++mismatchedResponsesNumber;
+            return;
+        }
+
+        // Karn's algorithm: retransmitted queries give ambiguous RTT samples
+        if (query.getAttemptsNumber() == 1 && server == query.getServer()) {
+            long rttNanos = System.nanoTime() - query.getSendTimeNanos();
+            server.addRttSample(TimeUnit.NANOSECONDS.toMillis(rttNanos));
+        }
+
+        int rcode = response.getRcode();
+        if ((rcode == Rcode.SERVFAIL || rcode == Rcode.REFUSED) && query.getAttemptsNumber() < maxAttemptsNumber) {
+            server.penalize();
+            startAttempt(query, System.nanoTime());
+            return;
+        }
+
+        completeQuery(query, response);
+    }
+
+    private void completeQuery(DnsQuery query, DnsWireResponse response) {
+        idToQueryMap.remove(query.getID());
+        queryDeadlines.cancel(query);
+        query.setQueued(false);
+
+        DnsLookup lookup = query.getLookup();
+        lookup.completeQuery();
+
+        if (response != null) {
+            for (int i = 0; i < response.getAddressesNumber(); ++i) {
+                lookup.addAddress(response.getAddress(i), response.getMinTtl());
+            }
+
+            if (response.getRcode() == Rcode.NXDOMAIN) {
+                long negativeTtl = response.hasNegativeTtl() ?
+                        response.getNegativeTtl() : dnsCache.getNegativeTtlSeconds();
+                lookup.setNameNonExistent(negativeTtl);
+            }
+        }
+
+        if (lookup.isCompleted()) {
+            notifyWaiters(lookup);
+            if (lookup.hasAddresses()) {
+                dnsCache.putAddresses(lookup.getHostname(), lookup.getAddresses(), lookup.getTtl());
+            } else if (lookup.isNameNonExistent()) {
+                dnsCache.putNegative(lookup.getHostname(), lookup.getNegativeTtl());
+            }
+        } else if (lookup.hasAddresses() && !lookup.hasResolutionDeadline()) {
+            lookup.setResolutionDeadlineNanos(System.nanoTime() + resolutionDelayNanos);
+            resolutionDeadlines.add(lookup);
+        }
+    }
+
+    private void notifyWaiters(DnsLookup lookup) {
+        if (lookup.areWaitersNotified()) {
+            return;
+        }
+        lookup.setWaitersNotified();
+        hostnameToLookupMap.remove(lookup.getHostname());
+        if (!lookup.getWaiters().isEmpty()) {
+            latencyHistograms.recordDnsLookupNanos(System.nanoTime() - lookup.getStartTimeNanos());
+        }
+
+        List<InetAddress> resolvedAddresses = lookup.getAddresses();
+        lookup.getWaiters().forEach((clientKey, serverPort) -> {
+            DnsResponse dnsResponse = new DnsResponse();
+            dnsResponse.setHostname(lookup.getHostname());
+            dnsResponse.setClientKey(clientKey);
+
+            if (!resolvedAddresses.isEmpty()) {
+                List<InetSocketAddress> resolvedSocketAddresses = resolvedAddresses.stream()
+                        .map(address -> new InetSocketAddress(address, serverPort))
+                        .collect(Collectors.toList());
+                dnsResponse.setResolvedSocketAddresses(resolvedSocketAddresses);
+                dnsResponse.setSuccess(true);
+            } else {
+                dnsResponse.setSuccess(false);
+            }
+
+            dnsResponseSet.add(dnsResponse);
+        });
+    }
+
+    private DnsServer findServer(SocketAddress socketAddress) {
+        for (DnsServer server: servers) {
+            if (server.getSocketAddress().equals(socketAddress)) {
+                return server;
+            }
         }
 
-        return dnsResponse;
+        return null;
     }
 }
@@ -0,0 +1,67 @@
+package proxy.dns;
+
+import org.xbill.DNS.Address;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// hosts(5) format: an address literal followed by its names, '#' starts a comment
+public class HostsFile {
+    private static final String COMMENT_START = "#";
+    private static final String FIELDS_SEPARATOR = "\\s+";
+
+    public static Map<String, List<InetAddress>> load(String filepath) throws IOException {
+        Map<String, List<InetAddress>> hostnameToAddressesMap = new HashMap<>();
+        List<String> lines = Files.readAllLines(Path.of(filepath), StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); ++i) {
+            String line = lines.get(i);
+            int commentIndex = line.indexOf(COMMENT_START);
+            if (commentIndex != -1) {
+                line = line.substring(0, commentIndex);
+            }
+
+            String[] fields = line.trim().split(FIELDS_SEPARATOR);
+            if (fields.length < 2) {
+                continue;
+            }
+
+            // only literals are accepted, a name in the address field would be resolved right here
+            InetAddress address = parseAddressLiteral(fields[0]);
+            if (address == null) {
+                System.err.printf("Skipping line %d of %s: \"%s\" is not an IP address%n", i + 1, filepath, fields[0]);
+                continue;
+            }
+
+            for (int j = 1; j < fields.length; ++j) {
+                hostnameToAddressesMap
+                        .computeIfAbsent(DnsCache.normalizeHostname(fields[j]), hostname -> new ArrayList<>())
+                        .add(address);
+            }
+        }
+
+        return hostnameToAddressesMap;
+    }
+
+    private static InetAddress parseAddressLiteral(String field) {
+        byte[] addressBytes = Address.toByteArray(field, Address.IPv4);
+        if (addressBytes == null) {
+            addressBytes = Address.toByteArray(field, Address.IPv6);
+        }
+        if (addressBytes == null) {
+            return null;
+        }
+
+        try {
+            return InetAddress.getByAddress(addressBytes);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
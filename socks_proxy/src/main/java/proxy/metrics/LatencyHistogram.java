@@ -0,0 +1,127 @@
+package proxy.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// HDR-style log-linear histogram: every power of two is split into 32 linear buckets, so any recorded
+// value is reported within about 3%. Recording is a few arithmetic operations and one atomic increment.
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS_NUMBER = 1 << SUB_BUCKET_BITS;
+    // values are tracked up to 2^40 ns (about 18 minutes), larger ones land in the last bucket
+    private static final int MAX_MAGNITUDE = 40;
+    private static final int BUCKETS_NUMBER = SUB_BUCKETS_NUMBER * (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2);
+
+    private static final double[] REPORTED_PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+    private static final String[] REPORTED_PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS_NUMBER);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public void record(long valueNanos) {
+        if (valueNanos < 0) {
+            return;
+        }
+
+        counts.incrementAndGet(getBucketIndex(valueNanos));
+        totalCount.incrementAndGet();
+
+        long currentMaxValue = maxValue.get();
+        while (valueNanos > currentMaxValue && !maxValue.compareAndSet(currentMaxValue, valueNanos)) {
+            currentMaxValue = maxValue.get();
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMaxNanos() {
+        return maxValue.get();
+    }
+
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long targetCount = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long cumulativeCount = 0;
+        for (int i = 0; i < BUCKETS_NUMBER; ++i) {
+            cumulativeCount += counts.get(i);
+            if (cumulativeCount >= targetCount) {
+                return Math.min(getHighestEquivalentValue(i), maxValue.get());
+            }
+        }
+
+        return maxValue.get();
+    }
+
+    public void addTo(LatencyHistogram histogram) {
+        for (int i = 0; i < BUCKETS_NUMBER; ++i) {
+            long count = counts.get(i);
+            if (count != 0) {
+                histogram.counts.addAndGet(i, count);
+            }
+        }
+        histogram.totalCount.addAndGet(totalCount.get());
+
+        long currentMaxValue = histogram.maxValue.get();
+        long otherMaxValue = maxValue.get();
+        while (otherMaxValue > currentMaxValue && !histogram.maxValue.compareAndSet(currentMaxValue, otherMaxValue)) {
+            currentMaxValue = histogram.maxValue.get();
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS_NUMBER; ++i) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        maxValue.set(0);
+    }
+
+    public Map<String, Long> getSummaryMicros() {
+        Map<String, Long> summary = new LinkedHashMap<>();
+        summary.put("count", getCount());
+        for (int i = 0; i < REPORTED_PERCENTILES.length; ++i) {
+            summary.put(REPORTED_PERCENTILE_NAMES[i], toMicros(getValueAtPercentile(REPORTED_PERCENTILES[i])));
+        }
+        summary.put("max", toMicros(getMaxNanos()));
+        return summary;
+    }
+
+    private static long toMicros(long valueNanos) {
+        return TimeUnit.NANOSECONDS.toMicros(valueNanos);
+    }
+
+    private static int getBucketIndex(long value) {
+        if (value < SUB_BUCKETS_NUMBER) {
+            return (int) value;
+        }
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKETS_NUMBER - 1;
+        }
+
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucketIndex = (int) (value >>> shift) - SUB_BUCKETS_NUMBER;
+        return SUB_BUCKETS_NUMBER * (shift + 1) + subBucketIndex;
+    }
+
+    private static long getHighestEquivalentValue(int bucketIndex) {
+        if (bucketIndex < SUB_BUCKETS_NUMBER) {
+            return bucketIndex;
+        }
+
+        int shift = bucketIndex / SUB_BUCKETS_NUMBER - 1;
+        long subBucketIndex = bucketIndex % SUB_BUCKETS_NUMBER;
+        return ((SUB_BUCKETS_NUMBER + subBucketIndex + 1) << shift) - 1;
+    }
+}
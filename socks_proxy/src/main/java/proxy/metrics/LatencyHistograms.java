@@ -0,0 +1,36 @@
+package proxy.metrics;
+
+// the latency histograms of one event loop, so recording never touches the cache lines of another loop;
+// ProxyMetrics merges the histograms of all loops when they are read
+public class LatencyHistograms {
+    final LatencyHistogram handshakeLatency = new LatencyHistogram();
+    final LatencyHistogram dnsLatency = new LatencyHistogram();
+    final LatencyHistogram connectLatency = new LatencyHistogram();
+    final LatencyHistogram selectLoopIterationTime = new LatencyHistogram();
+
+    LatencyHistograms() {
+    }
+
+    public void recordHandshakeNanos(long nanos) {
+        handshakeLatency.record(nanos);
+    }
+
+    public void recordDnsLookupNanos(long nanos) {
+        dnsLatency.record(nanos);
+    }
+
+    public void recordConnectNanos(long nanos) {
+        connectLatency.record(nanos);
+    }
+
+    public void recordSelectLoopIterationNanos(long nanos) {
+        selectLoopIterationTime.record(nanos);
+    }
+
+    void reset() {
+        handshakeLatency.reset();
+        dnsLatency.reset();
+        connectLatency.reset();
+        selectLoopIterationTime.reset();
+    }
+}
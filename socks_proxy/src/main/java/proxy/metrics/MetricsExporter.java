@@ -0,0 +1,73 @@
+package proxy.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class MetricsExporter implements AutoCloseable {
+    private static final String OBJECT_NAME = "proxy:type=ProxyMetrics";
+
+    private ProxyMetrics metrics;
+    private ObjectName objectName;
+    private ScheduledExecutorService dumpExecutor;
+
+    public MetricsExporter(ProxyMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void registerMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(OBJECT_NAME);
+            mBeanServer.registerMBean(metrics, objectName);
+        } catch (JMException e) {
+            objectName = null;
+            System.err.println("Failed to register the metrics MBean: " + e.getMessage());
+        }
+    }
+
+    // the text dump replaces the file atomically, so readers never see a half-written report
+    public void startDumping(String dumpFilepath, int dumpIntervalSeconds) {
+        Path dumpPath = Paths.get(dumpFilepath);
+        Path temporaryPath = dumpPath.resolveSibling(dumpPath.getFileName() + ".tmp");
+
+        dumpExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread dumpThread = new Thread(runnable, "proxy-metrics-dump");
+            dumpThread.setDaemon(true);
+            return dumpThread;
+        });
+        dumpExecutor.scheduleAtFixedRate(() -> {
+            try {
+                Files.write(temporaryPath, metrics.dumpText().getBytes(StandardCharsets.UTF_8));
+                Files.move(temporaryPath, dumpPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Failed to dump metrics: " + e.getMessage());
+            }
+        }, dumpIntervalSeconds, dumpIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void close() {
+        if (dumpExecutor != null) {
+            dumpExecutor.shutdownNow();
+        }
+
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package proxy.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+// shared by all event loops: counters are striped adders and histograms use atomic buckets,
+// so recording never allocates or takes a lock; every event loop records latencies into its own
+// histograms, which are merged when they are read
+public class ProxyMetrics implements ProxyMetricsMXBean {
+    private final LongAdder acceptedTunnels = new LongAdder();
+    private final LongAdder establishedTunnels = new LongAdder();
+    private final LongAdder failedTunnels = new LongAdder();
+    private final LongAdder closedTunnels = new LongAdder();
+    private final LongAdder oneRoundTripHandshakes = new LongAdder();
+    private final LongAdder twoRoundTripHandshakes = new LongAdder();
+    private final LongAdder bytesFromClients = new LongAdder();
+    private final LongAdder bytesFromServers = new LongAdder();
+
+    private final List<LatencyHistograms> latencyHistograms = new CopyOnWriteArrayList<>();
+    // for the threads that have no histograms of their own, such as the blocking engine ones
+    private final LatencyHistograms sharedLatencyHistograms = createLatencyHistograms();
+
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    public void countAcceptedTunnel() {
+        acceptedTunnels.increment();
+    }
+
+    public void countEstablishedTunnel() {
+        establishedTunnels.increment();
+    }
+
+    // a tunnel that is closed without ever being established counts as failed as well
+    public void countClosedTunnel(boolean wasEstablished) {
+        closedTunnels.increment();
+        if (!wasEstablished) {
+            failedTunnels.increment();
+        }
+    }
+
+    // a pipelining client sends its request without waiting for the method reply
+    public void countHandshake(boolean isPipelined) {
+        if (isPipelined) {
+            oneRoundTripHandshakes.increment();
+        } else {
+            twoRoundTripHandshakes.increment();
+        }
+    }
+
+    public void addBytesFromClient(long bytesNumber) {
+        bytesFromClients.add(bytesNumber);
+    }
+
+    public void addBytesFromServer(long bytesNumber) {
+        bytesFromServers.add(bytesNumber);
+    }
+
+    public LatencyHistograms createLatencyHistograms() {
+        LatencyHistograms histograms = new LatencyHistograms();
+        latencyHistograms.add(histograms);
+        return histograms;
+    }
+
+    public void recordHandshakeNanos(long nanos) {
+        sharedLatencyHistograms.recordHandshakeNanos(nanos);
+    }
+
+    public void recordDnsLookupNanos(long nanos) {
+        sharedLatencyHistograms.recordDnsLookupNanos(nanos);
+    }
+
+    public void recordConnectNanos(long nanos) {
+        sharedLatencyHistograms.recordConnectNanos(nanos);
+    }
+
+    public void registerGauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    @Override
+    public long getAcceptedTunnelsNumber() {
+        return acceptedTunnels.sum();
+    }
+
+    @Override
+    public long getEstablishedTunnelsNumber() {
+        return establishedTunnels.sum();
+    }
+
+    @Override
+    public long getFailedTunnelsNumber() {
+        return failedTunnels.sum();
+    }
+
+    @Override
+    public long getClosedTunnelsNumber() {
+        return closedTunnels.sum();
+    }
+
+    @Override
+    public long getOneRoundTripHandshakesNumber() {
+        return oneRoundTripHandshakes.sum();
+    }
+
+    @Override
+    public long getTwoRoundTripHandshakesNumber() {
+        return twoRoundTripHandshakes.sum();
+    }
+
+    @Override
+    public long getBytesFromClientsNumber() {
+        return bytesFromClients.sum();
+    }
+
+    @Override
+    public long getBytesFromServersNumber() {
+        return bytesFromServers.sum();
+    }
+
+    @Override
+    public Map<String, Long> getHandshakeLatencyMicros() {
+        return getMergedSummaryMicros(histograms -> histograms.handshakeLatency);
+    }
+
+    @Override
+    public Map<String, Long> getDnsLatencyMicros() {
+        return getMergedSummaryMicros(histograms -> histograms.dnsLatency);
+    }
+
+    @Override
+    public Map<String, Long> getConnectLatencyMicros() {
+        return getMergedSummaryMicros(histograms -> histograms.connectLatency);
+    }
+
+    @Override
+    public Map<String, Long> getSelectLoopIterationMicros() {
+        return getMergedSummaryMicros(histograms -> histograms.selectLoopIterationTime);
+    }
+
+    private Map<String, Long> getMergedSummaryMicros(Function<LatencyHistograms, LatencyHistogram> histogramGetter) {
+        LatencyHistogram mergedHistogram = new LatencyHistogram();
+        for (LatencyHistograms histograms: latencyHistograms) {
+            histogramGetter.apply(histograms).addTo(mergedHistogram);
+        }
+        return mergedHistogram.getSummaryMicros();
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> gaugeValues = new TreeMap<>();
+        gauges.forEach((name, supplier) -> gaugeValues.put(name, supplier.getAsLong()));
+        return gaugeValues;
+    }
+
+    @Override
+    public String dumpText() {
+        StringBuilder builder = new StringBuilder();
+        appendLine(builder, "tunnels.accepted", getAcceptedTunnelsNumber());
+        appendLine(builder, "tunnels.established", getEstablishedTunnelsNumber());
+        appendLine(builder, "tunnels.failed", getFailedTunnelsNumber());
+        appendLine(builder, "tunnels.closed", getClosedTunnelsNumber());
+        appendLine(builder, "handshakes.one_round_trip", getOneRoundTripHandshakesNumber());
+        appendLine(builder, "handshakes.two_round_trips", getTwoRoundTripHandshakesNumber());
+        appendLine(builder, "bytes.from_clients", getBytesFromClientsNumber());
+        appendLine(builder, "bytes.from_servers", getBytesFromServersNumber());
+
+        appendHistogram(builder, "latency_us.handshake", getHandshakeLatencyMicros());
+        appendHistogram(builder, "latency_us.dns", getDnsLatencyMicros());
+        appendHistogram(builder, "latency_us.connect", getConnectLatencyMicros());
+        appendHistogram(builder, "latency_us.select_loop_iteration", getSelectLoopIterationMicros());
+
+        getGauges().forEach((name, value) -> appendLine(builder, name, value));
+        return builder.toString();
+    }
+
+    @Override
+    public void resetHistograms() {
+        latencyHistograms.forEach(LatencyHistograms::reset);
+    }
+
+    private static void appendLine(StringBuilder builder, String name, long value) {
+        builder.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendHistogram(StringBuilder builder, String name, Map<String, Long> summary) {
+        builder.append(name);
+        summary.forEach((key, value) -> builder.append(' ').append(key).append('=').append(value));
+        builder.append('\n');
+    }
+}
@@ -0,0 +1,35 @@
+package proxy.metrics;
+
+import java.util.Map;
+
+public interface ProxyMetricsMXBean {
+    long getAcceptedTunnelsNumber();
+
+    long getEstablishedTunnelsNumber();
+
+    long getFailedTunnelsNumber();
+
+    long getClosedTunnelsNumber();
+
+    long getOneRoundTripHandshakesNumber();
+
+    long getTwoRoundTripHandshakesNumber();
+
+    long getBytesFromClientsNumber();
+
+    long getBytesFromServersNumber();
+
+    Map<String, Long> getHandshakeLatencyMicros();
+
+    Map<String, Long> getDnsLatencyMicros();
+
+    Map<String, Long> getConnectLatencyMicros();
+
+    Map<String, Long> getSelectLoopIterationMicros();
+
+    Map<String, Long> getGauges();
+
+    String dumpText();
+
+    void resetHistograms();
+}
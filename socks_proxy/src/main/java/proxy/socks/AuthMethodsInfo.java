@@ -31,10 +31,19 @@ public class AuthMethodsInfo {
     }
 
     public void setAuthMethodsNumber(Byte authMethodsNumber) {
-        authMethods = new byte[authMethodsNumber];
+        authMethods = new byte[Byte.toUnsignedInt(authMethodsNumber)];
         ++currentFieldIndex;
     }
 
+    // the whole greeting is known to be in the buffer
+    void fill(ByteBuffer buffer) {
+        socksVersion = buffer.get();
+        authMethods = new byte[Byte.toUnsignedInt(buffer.get())];
+        buffer.get(authMethods);
+        authMethodsPos = authMethods.length;
+        currentFieldIndex = FIELDS_NUMBER;
+    }
+
     public void fillAuthMethods(ByteBuffer buffer) {
         int bytesAvailable = buffer.remaining();
         int authMethodsRemained = authMethods.length - authMethodsPos;
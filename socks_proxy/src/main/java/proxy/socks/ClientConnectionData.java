@@ -83,6 +83,23 @@ class ClientConnectionData {
         ++currentFieldIndex;
     }
 
+    // the whole request is known to be in the buffer, the length of a domain name has already been read from it
+    void fill(ByteBuffer buffer, int destAddressLength) {
+        socksVersion = buffer.get();
+        commandCode = buffer.get();
+        buffer.get();
+        addressType = buffer.get();
+        if (addressType == AddressType.DOMAIN_NAME.getValue()) {
+            buffer.get();
+        }
+
+        destAddress = new byte[destAddressLength];
+        buffer.get(destAddress);
+        destAddressPos = destAddressLength;
+        port = Short.toUnsignedInt(buffer.getShort());
+        currentFieldIndex = DEST_PORT_FIELD_INDEX + 1;
+    }
+
     public int getCurrentFieldIndex() {
         return currentFieldIndex;
     }
@@ -0,0 +1,337 @@
+package proxy.socks;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class SocksProtocol {
+    private static final int SOCKS_VERSION = 0x05;
+
+    private static final int NO_AUTHENTICATION_CODE = 0x00;
+    private static final int NO_SUPPORTED_AUTH_METHOD_CODE = 0xFF;
+
+    // version and methods number, version, command, reserved byte and address type
+    private static final int GREETING_HEADER_LENGTH = 2;
+    private static final int REQUEST_HEADER_LENGTH = 4;
+
+    private static final int IPV4_ADDRESS_LENGTH = 4;
+    private static final int IPV6_ADDRESS_LENGTH = 16;
+
+    // RSV, FRAG and ATYP fields, the address and the port
+    private static final int UDP_HEADER_FIXED_LENGTH = 4 + Short.BYTES;
+    public static final int MAX_UDP_HEADER_LENGTH = UDP_HEADER_FIXED_LENGTH + IPV6_ADDRESS_LENGTH;
+
+    public static void fillHandShakeInfo(SocksSession session, ByteBuffer readBuffer, ByteBuffer writeBuffer) {
+        AuthMethodsInfo authMethodsInfo = session.getAuthMethodsInfo();
+        boolean isGreetingPending = !authMethodsInfo.isFilled();
+
+        // clients that do not wait for the method reply are parsed in one pass, the rest field by field
+        int destAddressLength = authMethodsInfo.getCurrentFieldIndex() == AuthMethodsInfo.SOCKS_VERSION_FIELD_INDEX ?
+                getPipelinedDestAddressLength(readBuffer) : -1;
+        if (destAddressLength != -1) {
+            parsePipelinedHandshake(session, readBuffer, writeBuffer, destAddressLength);
+        } else {
+            fillAuthMethodsInfo(session, readBuffer, writeBuffer);
+            fillClientConnectionData(session, readBuffer, writeBuffer);
+        }
+
+        if (isGreetingPending && session.getRequestedSocketAddress() != null) {
+            session.setPipelined();
+        }
+    }
+
+    public static void writeRequestSuccess(SocksSession session, ByteBuffer writeBuffer) {
+        session.setConnectionStatus(ConnectionStatus.ESTABLISHED);
+        writeResponse(writeBuffer, ResponseStatus.REQUEST_GRANTED);
+    }
+
+    public static void writeRequestFailure(SocksSession session, ByteBuffer writeBuffer) {
+        session.setConnectionStatus(ConnectionStatus.FAILED);
+        writeResponse(writeBuffer, ResponseStatus.GENERAL_FAILURE);
+    }
+
+    public static void writeCommandNotSupported(SocksSession session, ByteBuffer writeBuffer) {
+        session.setConnectionStatus(ConnectionStatus.FAILED);
+        writeResponse(writeBuffer, ResponseStatus.COMMAND_NOT_SUPPORTED);
+    }
+
+    public static void writeUdpAssociationSuccess(SocksSession session, ByteBuffer writeBuffer,
+                                                  InetSocketAddress relaySocketAddress) {
+        session.setConnectionStatus(ConnectionStatus.ESTABLISHED);
+        writeResponse(writeBuffer, ResponseStatus.REQUEST_GRANTED, relaySocketAddress);
+    }
+
+    // returns the destination of a client datagram and leaves the buffer at its payload,
+    // null for fragments and malformed headers
+    public static InetSocketAddress readUdpHeader(ByteBuffer buffer) {
+        if (buffer.remaining() < UDP_HEADER_FIXED_LENGTH) {
+            return null;
+        }
+
+        buffer.getShort();
+        byte fragmentNumber = buffer.get();
+        AddressType addressType = AddressType.getByValue(buffer.get());
+        if (fragmentNumber != 0 || addressType == null) {
+            return null;
+        }
+
+        int addressLength;
+        switch (addressType) {
+            case IPV4:
+                addressLength = IPV4_ADDRESS_LENGTH;
+                break;
+            case IPV6:
+                addressLength = IPV6_ADDRESS_LENGTH;
+                break;
+            case DOMAIN_NAME: default:
+                addressLength = Byte.toUnsignedInt(buffer.get());
+                break;
+        }
+
+        if (buffer.remaining() < addressLength + Short.BYTES) {
+            return null;
+        }
+
+        byte[] addressBytes = new byte[addressLength];
+        buffer.get(addressBytes);
+        int port = Short.toUnsignedInt(buffer.getShort());
+        if (addressType == AddressType.DOMAIN_NAME) {
+            String hostname = new String(addressBytes, StandardCharsets.US_ASCII);
+            return InetSocketAddress.createUnresolved(hostname, port);
+        }
+
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(addressBytes), port);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    public static int getUdpHeaderLength(InetSocketAddress sourceSocketAddress) {
+        boolean isIpv4Address = sourceSocketAddress.getAddress() instanceof Inet4Address;
+        return UDP_HEADER_FIXED_LENGTH + (isIpv4Address ? IPV4_ADDRESS_LENGTH : IPV6_ADDRESS_LENGTH);
+    }
+
+    public static void putUdpHeader(ByteBuffer buffer, InetSocketAddress sourceSocketAddress) {
+        buffer.putShort((short) 0);
+        buffer.put((byte) 0);
+        putAddress(buffer, sourceSocketAddress);
+    }
+
+    // returns the address length of the request that follows the greeting, -1 if either is incomplete
+    private static int getPipelinedDestAddressLength(ByteBuffer readBuffer) {
+        int position = readBuffer.position();
+        int remaining = readBuffer.remaining();
+        if (remaining < GREETING_HEADER_LENGTH) {
+            return -1;
+        }
+
+        int requestOffset = GREETING_HEADER_LENGTH + Byte.toUnsignedInt(readBuffer.get(position + 1));
+        if (remaining < requestOffset + REQUEST_HEADER_LENGTH + Byte.BYTES) {
+            return -1;
+        }
+
+        int destAddressLength;
+        int destAddressOffset = requestOffset + REQUEST_HEADER_LENGTH;
+        AddressType addressType = AddressType.getByValue(readBuffer.get(position + requestOffset + 3));
+        if (addressType == AddressType.IPV4) {
+            destAddressLength = IPV4_ADDRESS_LENGTH;
+        } else if (addressType == AddressType.IPV6) {
+            destAddressLength = IPV6_ADDRESS_LENGTH;
+        } else if (addressType == AddressType.DOMAIN_NAME) {
+            destAddressLength = Byte.toUnsignedInt(readBuffer.get(position + destAddressOffset));
+            destAddressOffset += Byte.BYTES;
+        } else {
+            return -1;
+        }
+
+        return remaining < destAddressOffset + destAddressLength + Short.BYTES ? -1 : destAddressLength;
+    }
+
+    private static void parsePipelinedHandshake(SocksSession session, ByteBuffer readBuffer,
+                                                ByteBuffer writeBuffer, int destAddressLength) {
+        session.getAuthMethodsInfo().fill(readBuffer);
+        handleAuthenticationMessage(session, writeBuffer);
+        if (session.getConnectionStatus() == ConnectionStatus.FAILED) {
+            return;
+        }
+
+        session.getConnectionData().fill(readBuffer, destAddressLength);
+        handleConnectionMessage(session, writeBuffer);
+    }
+
+    private static void fillAuthMethodsInfo(SocksSession session, ByteBuffer readBuffer, ByteBuffer writeBuffer) {
+        AuthMethodsInfo authMethodsInfo = session.getAuthMethodsInfo();
+        int currentFieldIndex = authMethodsInfo.getCurrentFieldIndex();
+        switch (currentFieldIndex) {
+            case AuthMethodsInfo.SOCKS_VERSION_FIELD_INDEX:
+                if (readBuffer.remaining() >= Byte.BYTES) {
+                    byte socksVersion = readBuffer.get();
+                    authMethodsInfo.setSocksVersion(socksVersion);
+                } else break;
+            case AuthMethodsInfo.AUTH_METHODS_NUMBER_FIELD_INDEX:
+                if (readBuffer.remaining() >= Byte.BYTES) {
+                    byte authMethodsNumber = readBuffer.get();
+                    authMethodsInfo.setAuthMethodsNumber(authMethodsNumber);
+                } else break;
+            case AuthMethodsInfo.AUTH_METHODS_FIELD_INDEX:
+                authMethodsInfo.fillAuthMethods(readBuffer);
+                if (authMethodsInfo.isFilled()) {
+                    handleAuthenticationMessage(session, writeBuffer);
+                }
+            default: break;
+        }
+    }
+
+    private static void fillClientConnectionData(SocksSession session, ByteBuffer readBuffer, ByteBuffer writeBuffer) {
+        ClientConnectionData connectionData = session.getConnectionData();
+        int currentFieldIndex = connectionData.getCurrentFieldIndex();
+        switch (currentFieldIndex) {
+            case ClientConnectionData.SOCKS_VERSION_FIELD_INDEX:
+                if (readBuffer.remaining() >= Byte.BYTES) {
+                    byte socksVersion = readBuffer.get();
+                    connectionData.setSocksVersion(socksVersion);
+                } else break;
+            case ClientConnectionData.COMMAND_CODE_FIELD_INDEX:
+                if (readBuffer.remaining() >= Byte.BYTES) {
+                    byte commandCode = readBuffer.get();
+                    connectionData.setCommandCode(commandCode);
+                } else break;
+            case ClientConnectionData.RESERVED_FIELD_INDEX:
+                if (readBuffer.remaining() >= Byte.BYTES) {
+                    readBuffer.get();
+                    connectionData.skipReservedField();
+                } else break;
+            case ClientConnectionData.ADDRESS_TYPE_FIELD_INDEX:
+                if (readBuffer.remaining() >= Byte.BYTES) {
+                    byte addressTypeByte = readBuffer.get();
+                    connectionData.setAddressType(addressTypeByte);
+                    AddressType addressType = AddressType.getByValue(addressTypeByte);
+
+                    if (addressType == null) {
+                        handleConnectionMessage(session, writeBuffer);
+                        break;
+                    }
+
+                    switch (addressType) {
+                        case IPV4:
+                            connectionData.setDestAddressLength(IPV4_ADDRESS_LENGTH);
+                            break;
+                        case IPV6:
+                            connectionData.setDestAddressLength(IPV6_ADDRESS_LENGTH);
+                            break;
+                        case DOMAIN_NAME: default:
+                            break;
+                    }
+                } else break;
+            case ClientConnectionData.DEST_ADDRESS_FIELD_INDEX:
+                if (readBuffer.remaining() >= Byte.BYTES) {
+                    if (connectionData.getDestAddress() == null) {
+                        // domain name length was not specified yet
+                        int addressLength = Byte.toUnsignedInt(readBuffer.get());
+                        connectionData.setDestAddressLength(addressLength);
+                    }
+
+                    connectionData.fillDestAddress(readBuffer);
+                } else break;
+            case ClientConnectionData.DEST_PORT_FIELD_INDEX:
+                if (readBuffer.remaining() >= Short.BYTES) {
+                    int port = Short.toUnsignedInt(readBuffer.getShort());
+                    connectionData.setPort(port);
+
+                    handleConnectionMessage(session, writeBuffer);
+                }
+            default: break;
+        }
+    }
+
+    private static void handleAuthenticationMessage(SocksSession session, ByteBuffer writeBuffer) {
+        AuthMethodsInfo authMethodsInfo = session.getAuthMethodsInfo();
+        byte[] authMethods = authMethodsInfo.getAuthMethods();
+
+        int chosenAuthMethod = NO_SUPPORTED_AUTH_METHOD_CODE;
+        for (int i = 0; i < authMethods.length; ++i) {
+            if (authMethods[i] == (byte) NO_AUTHENTICATION_CODE) {
+                chosenAuthMethod = NO_AUTHENTICATION_CODE;
+                break;
+            }
+        }
+
+        if (chosenAuthMethod == NO_SUPPORTED_AUTH_METHOD_CODE) {
+            session.setConnectionStatus(ConnectionStatus.FAILED);
+        }
+
+        writeAuthMethodsResponse(writeBuffer, chosenAuthMethod);
+    }
+
+    private static void handleConnectionMessage(SocksSession session, ByteBuffer writeBuffer) {
+        ClientConnectionData connectionData = session.getConnectionData();
+
+        byte commandCodeByte = connectionData.getCommandCode();
+        CommandType commandType = CommandType.getByValue(commandCodeByte);
+        if (commandType != CommandType.ESTABLISH_CONNECTION && commandType != CommandType.ASSOCIATE_UDP_PORT) {
+            session.setConnectionStatus(ConnectionStatus.FAILED);
+            writeResponse(writeBuffer, ResponseStatus.COMMAND_NOT_SUPPORTED);
+            return;
+        }
+
+        byte addressTypeByte = connectionData.getAddressType();
+        AddressType addressType = AddressType.getByValue(addressTypeByte);
+        if (addressType == null) {
+            session.setConnectionStatus(ConnectionStatus.FAILED);
+            writeResponse(writeBuffer, ResponseStatus.ADDRESS_TYPE_NOT_SUPPORTED);
+            return;
+        }
+
+        int port = connectionData.getPort();
+        InetSocketAddress serverSocketAddress = null;
+        byte[] addressBytes = connectionData.getDestAddress();
+        if (addressType == AddressType.IPV4 || addressType == AddressType.IPV6) {
+            try {
+                InetAddress inetAddress = InetAddress.getByAddress(addressBytes);
+                serverSocketAddress = new InetSocketAddress(inetAddress, port);
+            } catch (UnknownHostException e) {
+                throw new RuntimeException("IP address is of illegal length");
+            }
+        } else {
+            String hostname = new String(addressBytes, StandardCharsets.US_ASCII);
+            serverSocketAddress = InetSocketAddress.createUnresolved(hostname, port);
+        }
+
+        session.setUdpAssociation(commandType == CommandType.ASSOCIATE_UDP_PORT);
+        session.setRequestedSocketAddress(serverSocketAddress);
+    }
+
+    private static void writeAuthMethodsResponse(ByteBuffer writeBuffer, int chosenAuthMethod) {
+        writeBuffer.put((byte) SOCKS_VERSION);
+        writeBuffer.put((byte) chosenAuthMethod);
+    }
+
+    private static void writeResponse(ByteBuffer writeBuffer, ResponseStatus status) {
+        writeBuffer.put((byte) SOCKS_VERSION);
+        writeBuffer.put(status.getValue());
+        writeBuffer.put((byte) 0x00);
+        writeBuffer.put(AddressType.IPV4.getValue());
+        writeBuffer.put(new byte[]{0, 0, 0, 0});
+        writeBuffer.putShort((short) 0);
+    }
+
+    private static void writeResponse(ByteBuffer writeBuffer, ResponseStatus status,
+                                      InetSocketAddress boundSocketAddress) {
+        writeBuffer.put((byte) SOCKS_VERSION);
+        writeBuffer.put(status.getValue());
+        writeBuffer.put((byte) 0x00);
+        putAddress(writeBuffer, boundSocketAddress);
+    }
+
+    private static void putAddress(ByteBuffer buffer, InetSocketAddress socketAddress) {
+        byte[] addressBytes = socketAddress.getAddress().getAddress();
+        AddressType addressType = addressBytes.length == IPV4_ADDRESS_LENGTH ? AddressType.IPV4 : AddressType.IPV6;
+        buffer.put(addressType.getValue());
+        buffer.put(addressBytes);
+        buffer.putShort((short) socketAddress.getPort());
+    }
+}
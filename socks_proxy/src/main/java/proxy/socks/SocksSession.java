@@ -0,0 +1,53 @@
+package proxy.socks;
+
+import java.net.InetSocketAddress;
+
+public class SocksSession {
+    private AuthMethodsInfo authMethodsInfo = new AuthMethodsInfo();
+    private ClientConnectionData connectionData = new ClientConnectionData();
+    private ConnectionStatus connectionStatus = ConnectionStatus.NOT_ESTABLISHED;
+    private InetSocketAddress requestedSocketAddress;
+    private boolean isUdpAssociation = false;
+    private boolean isPipelined = false;
+
+    AuthMethodsInfo getAuthMethodsInfo() {
+        return authMethodsInfo;
+    }
+
+    ClientConnectionData getConnectionData() {
+        return connectionData;
+    }
+
+    public ConnectionStatus getConnectionStatus() {
+        return connectionStatus;
+    }
+
+    void setConnectionStatus(ConnectionStatus connectionStatus) {
+        this.connectionStatus = connectionStatus;
+    }
+
+    public InetSocketAddress getRequestedSocketAddress() {
+        return requestedSocketAddress;
+    }
+
+    void setRequestedSocketAddress(InetSocketAddress requestedSocketAddress) {
+        this.requestedSocketAddress = requestedSocketAddress;
+    }
+
+    public boolean isUdpAssociation() {
+        return isUdpAssociation;
+    }
+
+    void setUdpAssociation(boolean isUdpAssociation) {
+        this.isUdpAssociation = isUdpAssociation;
+    }
+
+    // the request came in the same read as the greeting, so the handshake took the client a single round trip
+    public boolean isPipelined() {
+        return isPipelined;
+    }
+
+    void setPipelined() {
+        isPipelined = true;
+    }
+}
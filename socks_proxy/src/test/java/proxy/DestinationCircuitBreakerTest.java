@@ -0,0 +1,125 @@
+package proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DestinationCircuitBreakerTest {
+    private static final int FAILURES_THRESHOLD = 3;
+    private static final long LONG_COOLDOWN_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long SHORT_COOLDOWN_MILLIS = 200;
+    private static final int MAX_DESTINATIONS_NUMBER = 4;
+
+    private static final InetSocketAddress DESTINATION = InetSocketAddress.createUnresolved("example.com", 80);
+
+    @Test
+    void breakerOpensAtFailuresThreshold() {
+        DestinationCircuitBreaker circuitBreaker = createCircuitBreaker(LONG_COOLDOWN_NANOS);
+        recordFailures(circuitBreaker, FAILURES_THRESHOLD - 1);
+        assertTrue(circuitBreaker.allowConnection(DESTINATION));
+        assertEquals(0, circuitBreaker.getTripsNumber());
+
+        circuitBreaker.recordFailure(DESTINATION);
+        assertEquals(1, circuitBreaker.getTripsNumber());
+        assertFalse(circuitBreaker.allowConnection(DESTINATION));
+        assertFalse(circuitBreaker.allowConnection(DESTINATION));
+        assertEquals(2, circuitBreaker.getFastFailuresNumber());
+
+        // the other destinations are not affected
+        assertTrue(circuitBreaker.allowConnection(InetSocketAddress.createUnresolved("example.org", 80)));
+    }
+
+    @Test
+    void successResetsFailures() {
+        DestinationCircuitBreaker circuitBreaker = createCircuitBreaker(LONG_COOLDOWN_NANOS);
+        recordFailures(circuitBreaker, FAILURES_THRESHOLD - 1);
+        circuitBreaker.recordSuccess(DESTINATION);
+        assertEquals(0, circuitBreaker.getDestinationsNumber());
+
+        recordFailures(circuitBreaker, FAILURES_THRESHOLD - 1);
+        assertTrue(circuitBreaker.allowConnection(DESTINATION));
+    }
+
+    @Test
+    void singleProbeIsLetThroughAfterCooldown() throws InterruptedException {
+        DestinationCircuitBreaker circuitBreaker = openCircuitBreakerAndWaitForCooldown();
+
+        assertTrue(circuitBreaker.allowConnection(DESTINATION));
+        assertFalse(circuitBreaker.allowConnection(DESTINATION));
+    }
+
+    @Test
+    void successfulProbeClosesBreaker() throws InterruptedException {
+        DestinationCircuitBreaker circuitBreaker = openCircuitBreakerAndWaitForCooldown();
+        assertTrue(circuitBreaker.allowConnection(DESTINATION));
+
+        circuitBreaker.recordSuccess(DESTINATION);
+        assertTrue(circuitBreaker.allowConnection(DESTINATION));
+        assertTrue(circuitBreaker.allowConnection(DESTINATION));
+        assertEquals(1, circuitBreaker.getTripsNumber());
+    }
+
+    @Test
+    void failedProbeReopensBreaker() throws InterruptedException {
+        DestinationCircuitBreaker circuitBreaker = openCircuitBreakerAndWaitForCooldown();
+        assertTrue(circuitBreaker.allowConnection(DESTINATION));
+
+        circuitBreaker.recordFailure(DESTINATION);
+        assertEquals(2, circuitBreaker.getTripsNumber());
+        assertFalse(circuitBreaker.allowConnection(DESTINATION));
+
+        Thread.sleep(2 * SHORT_COOLDOWN_MILLIS);
+        assertTrue(circuitBreaker.allowConnection(DESTINATION));
+    }
+
+    @Test
+    void zeroThresholdDisablesBreaker() {
+        DestinationCircuitBreaker circuitBreaker = new DestinationCircuitBreaker(
+                0, LONG_COOLDOWN_NANOS, MAX_DESTINATIONS_NUMBER
+        );
+        recordFailures(circuitBreaker, 2 * FAILURES_THRESHOLD);
+        assertTrue(circuitBreaker.allowConnection(DESTINATION));
+        assertEquals(0, circuitBreaker.getDestinationsNumber());
+    }
+
+    @Test
+    void leastRecentlyUsedDestinationIsForgotten() {
+        DestinationCircuitBreaker circuitBreaker = createCircuitBreaker(LONG_COOLDOWN_NANOS);
+        recordFailures(circuitBreaker, FAILURES_THRESHOLD);
+        for (int i = 0; i < MAX_DESTINATIONS_NUMBER; ++i) {
+            circuitBreaker.recordFailure(InetSocketAddress.createUnresolved("host" + i + ".example.com", 80));
+        }
+
+        assertEquals(MAX_DESTINATIONS_NUMBER, circuitBreaker.getDestinationsNumber());
+        assertTrue(circuitBreaker.allowConnection(DESTINATION));
+    }
+
+    @Test
+    void destinationNamesAreCaseInsensitive() {
+        InetSocketAddress destination = DestinationCircuitBreaker.getDestination(
+                InetSocketAddress.createUnresolved("Example.COM", 80)
+        );
+        assertEquals(DESTINATION, destination);
+    }
+
+    private DestinationCircuitBreaker createCircuitBreaker(long cooldownNanos) {
+        return new DestinationCircuitBreaker(FAILURES_THRESHOLD, cooldownNanos, MAX_DESTINATIONS_NUMBER);
+    }
+
+    private DestinationCircuitBreaker openCircuitBreakerAndWaitForCooldown() throws InterruptedException {
+        DestinationCircuitBreaker circuitBreaker =
+                createCircuitBreaker(TimeUnit.MILLISECONDS.toNanos(SHORT_COOLDOWN_MILLIS));
+        recordFailures(circuitBreaker, FAILURES_THRESHOLD);
+        Thread.sleep(2 * SHORT_COOLDOWN_MILLIS);
+        return circuitBreaker;
+    }
+
+    private static void recordFailures(DestinationCircuitBreaker circuitBreaker, int failuresNumber) {
+        for (int i = 0; i < failuresNumber; ++i) {
+            circuitBreaker.recordFailure(DESTINATION);
+        }
+    }
+}
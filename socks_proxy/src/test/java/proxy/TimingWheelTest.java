@@ -0,0 +1,119 @@
+package proxy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+    private static final int SLOTS_NUMBER = 8;
+    // long ticks, so the time between creating the wheel and reading the clock never adds a tick
+    private static final long TICK_MILLIS = 1000;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+
+    private TimingWheel timingWheel;
+    private long startTimeNanos;
+    private final List<ConnectionTimeout> expiredTimeouts = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        timingWheel = new TimingWheel(SLOTS_NUMBER, TICK_MILLIS);
+        startTimeNanos = System.nanoTime();
+    }
+
+    @Test
+    void timeoutExpiresAtItsDeadlineTick() {
+        ConnectionTimeout timeout = new ConnectionTimeout(null);
+        timingWheel.schedule(timeout, TimeoutType.IDLE, 3 * TICK_NANOS);
+        assertTrue(timeout.isScheduled());
+        assertEquals(1, timingWheel.getScheduledTimeoutsNumber());
+
+        advanceTo(2);
+        assertTrue(expiredTimeouts.isEmpty());
+
+        advanceTo(3);
+        assertEquals(List.of(timeout), expiredTimeouts);
+        assertEquals(TimeoutType.IDLE, timeout.getType());
+        assertFalse(timeout.isScheduled());
+        assertEquals(0, timingWheel.getScheduledTimeoutsNumber());
+    }
+
+    @Test
+    void delayIsRoundedUpToWholeTicks() {
+        ConnectionTimeout shortTimeout = new ConnectionTimeout(null);
+        ConnectionTimeout roundedTimeout = new ConnectionTimeout(null);
+        timingWheel.schedule(shortTimeout, TimeoutType.HANDSHAKE, 0);
+        timingWheel.schedule(roundedTimeout, TimeoutType.CONNECT, TICK_NANOS + 1);
+
+        advanceTo(1);
+        assertEquals(List.of(shortTimeout), expiredTimeouts);
+
+        advanceTo(2);
+        assertEquals(List.of(shortTimeout, roundedTimeout), expiredTimeouts);
+    }
+
+    @Test
+    void cancelledTimeoutDoesNotExpire() {
+        ConnectionTimeout firstTimeout = new ConnectionTimeout(null);
+        ConnectionTimeout secondTimeout = new ConnectionTimeout(null);
+        ConnectionTimeout thirdTimeout = new ConnectionTimeout(null);
+        // all three share a slot, so cancelling the middle one relinks its neighbours
+        timingWheel.schedule(firstTimeout, TimeoutType.IDLE, 2 * TICK_NANOS);
+        timingWheel.schedule(secondTimeout, TimeoutType.IDLE, 2 * TICK_NANOS);
+        timingWheel.schedule(thirdTimeout, TimeoutType.IDLE, 2 * TICK_NANOS);
+
+        timingWheel.cancel(secondTimeout);
+        timingWheel.cancel(secondTimeout);
+        assertFalse(secondTimeout.isScheduled());
+        assertEquals(2, timingWheel.getScheduledTimeoutsNumber());
+
+        advanceTo(2);
+        assertEquals(2, expiredTimeouts.size());
+        assertTrue(expiredTimeouts.contains(firstTimeout));
+        assertTrue(expiredTimeouts.contains(thirdTimeout));
+        assertEquals(0, timingWheel.getScheduledTimeoutsNumber());
+    }
+
+    @Test
+    void rescheduledTimeoutExpiresOnlyOnce() {
+        ConnectionTimeout timeout = new ConnectionTimeout(null);
+        timingWheel.schedule(timeout, TimeoutType.HANDSHAKE, TICK_NANOS);
+        timingWheel.schedule(timeout, TimeoutType.IDLE, 4 * TICK_NANOS);
+        assertEquals(1, timingWheel.getScheduledTimeoutsNumber());
+
+        advanceTo(3);
+        assertTrue(expiredTimeouts.isEmpty());
+
+        advanceTo(4);
+        assertEquals(List.of(timeout), expiredTimeouts);
+        assertEquals(TimeoutType.IDLE, timeout.getType());
+    }
+
+    @Test
+    void timeoutBeyondOneRevolutionWaitsForItsDeadline() {
+        ConnectionTimeout timeout = new ConnectionTimeout(null);
+        timingWheel.schedule(timeout, TimeoutType.IDLE, (SLOTS_NUMBER + 2) * TICK_NANOS);
+
+        // the wheel passes the slot of the timeout once before the deadline tick
+        advanceTo(SLOTS_NUMBER + 1);
+        assertTrue(expiredTimeouts.isEmpty());
+        assertTrue(timeout.isScheduled());
+
+        advanceTo(SLOTS_NUMBER + 2);
+        assertEquals(List.of(timeout), expiredTimeouts);
+    }
+
+    @Test
+    void slotsNumberMustBePowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel(SLOTS_NUMBER + 1, TICK_MILLIS));
+    }
+
+    // half a tick past the given one, so the ticks counted never depend on when the wheel was created
+    private void advanceTo(long tick) {
+        timingWheel.advance(startTimeNanos + tick * TICK_NANOS + TICK_NANOS / 2, expiredTimeouts);
+    }
+}
@@ -0,0 +1,122 @@
+package proxy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+    private static final long BYTES_PER_SECOND = 10;
+    private static final long CAPACITY = 100;
+    // a token is earned every 100 ms, the times below are half a token off the boundaries
+    private static final long TOKEN_NANOS = TimeUnit.SECONDS.toNanos(1) / BYTES_PER_SECOND;
+
+    private TokenBucket bucket;
+    private long startTimeNanos;
+
+    @BeforeEach
+    void setUp() {
+        bucket = new TokenBucket(BYTES_PER_SECOND, CAPACITY);
+        startTimeNanos = System.nanoTime();
+    }
+
+    @Test
+    void bucketStartsFull() {
+        assertEquals(CAPACITY, bucket.getTokensNumber(startTimeNanos));
+        assertEquals(0, bucket.getNanosUntilAvailable(CAPACITY));
+    }
+
+    @Test
+    void tokensAreEarnedAtTheRate() {
+        bucket.consume(CAPACITY);
+        assertEquals(0, bucket.getTokensNumber(startTimeNanos));
+
+        assertEquals(10, bucket.getTokensNumber(at(10.5)));
+        assertEquals(20, bucket.getTokensNumber(at(20.5)));
+    }
+
+    @Test
+    void tokensDoNotExceedCapacity() {
+        bucket.consume(30);
+        assertEquals(CAPACITY, bucket.getTokensNumber(at(1000.5)));
+    }
+
+    @Test
+    void fractionOfTokenCarriesOverBetweenRefills() {
+        bucket.consume(CAPACITY);
+        // every refill earns one and a half tokens, the halves add up instead of being lost
+        for (int i = 1; i <= 7; ++i) {
+            bucket.getTokensNumber(at(1.5 * i));
+        }
+        assertEquals(10, bucket.getTokensNumber(at(10.5)));
+    }
+
+    @Test
+    void debtIsPaidBackBeforeTokensAreAvailable() {
+        bucket.consume(CAPACITY + 30);
+        assertEquals(-30, bucket.getTokensNumber(startTimeNanos));
+        assertEquals(31 * TOKEN_NANOS, bucket.getNanosUntilAvailable(1));
+
+        assertEquals(1, bucket.getTokensNumber(at(31.5)));
+        assertEquals(0, bucket.getNanosUntilAvailable(1));
+    }
+
+    @Test
+    void capacityHoldsTwoTicksOfTokens() {
+        long tickNanos = TimeUnit.MILLISECONDS.toNanos(100);
+        assertEquals(200, TokenBucket.getCapacity(1000, 50, tickNanos));
+        assertEquals(500, TokenBucket.getCapacity(1000, 500, tickNanos));
+    }
+
+    @Test
+    void sharedBucketLosesNoConsumption() throws InterruptedException {
+        int threadsNumber = 4;
+        int consumptionsNumber = 10000;
+        TokenBucket sharedBucket = new SharedTokenBucket(1, (long) threadsNumber * consumptionsNumber);
+        long sharedStartTimeNanos = System.nanoTime();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadsNumber; ++i) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < consumptionsNumber; ++j) {
+                    sharedBucket.consume(1);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+
+        assertEquals(0, sharedBucket.getTokensNumber(sharedStartTimeNanos));
+    }
+
+    @Test
+    void clientTunnelsShareBucketUntilLastOneCloses() throws Exception {
+        ClientRateLimits clientRateLimits = new ClientRateLimits(BYTES_PER_SECOND, CAPACITY);
+        InetAddress firstAddress = InetAddress.getByAddress(new byte[]{10, 0, 0, 1});
+        InetAddress secondAddress = InetAddress.getByAddress(new byte[]{10, 0, 0, 2});
+
+        TokenBucket firstBucket = clientRateLimits.acquireBucket(firstAddress);
+        assertSame(firstBucket, clientRateLimits.acquireBucket(firstAddress));
+        assertNotSame(firstBucket, clientRateLimits.acquireBucket(secondAddress));
+        assertEquals(2, clientRateLimits.getClientsNumber());
+
+        clientRateLimits.releaseBucket(firstAddress);
+        assertEquals(2, clientRateLimits.getClientsNumber());
+        clientRateLimits.releaseBucket(firstAddress);
+        assertEquals(1, clientRateLimits.getClientsNumber());
+
+        assertNotSame(firstBucket, clientRateLimits.acquireBucket(firstAddress));
+    }
+
+    private long at(double tokensNumber) {
+        return startTimeNanos + (long) (tokensNumber * TOKEN_NANOS);
+    }
+}
@@ -0,0 +1,141 @@
+package proxy.accesslog;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AccessLogRingTest {
+    private static final int CAPACITY = 4;
+
+    @Test
+    void capacityIsRoundedUpToPowerOfTwo() {
+        AccessLogRing ring = new AccessLogRing(CAPACITY - 1);
+        for (int i = 0; i < CAPACITY; ++i) {
+            assertNotNull(ring.claim());
+        }
+        assertNull(ring.claim());
+        assertEquals(1, ring.getDroppedRecordsNumber());
+    }
+
+    @Test
+    void recordsComeOutInOrderAcrossWraparound() {
+        AccessLogRing ring = new AccessLogRing(CAPACITY);
+        long nextPublishedValue = 0;
+        long nextPolledValue = 0;
+        // three records a round never line up with the ring length, so every slot is reached from every position
+        for (int round = 0; round < 10; ++round) {
+            for (int i = 0; i < CAPACITY - 1; ++i) {
+                publish(ring, nextPublishedValue++);
+            }
+            for (int i = 0; i < CAPACITY - 1; ++i) {
+                AccessLogRecord record = ring.poll();
+                assertNotNull(record);
+                assertEquals(nextPolledValue++, record.getBytesFromClient());
+                ring.release(record);
+            }
+            assertNull(ring.poll());
+        }
+        assertEquals(0, ring.getDroppedRecordsNumber());
+    }
+
+    @Test
+    void fullRingDropsUntilOldestRecordIsReleased() {
+        AccessLogRing ring = new AccessLogRing(CAPACITY);
+        for (int i = 0; i < CAPACITY; ++i) {
+            publish(ring, i);
+        }
+        assertNull(ring.claim());
+
+        AccessLogRecord record = ring.poll();
+        assertEquals(0, record.getBytesFromClient());
+        ring.release(record);
+
+        publish(ring, CAPACITY);
+        for (int i = 1; i <= CAPACITY; ++i) {
+            record = ring.poll();
+            assertEquals(i, record.getBytesFromClient());
+            ring.release(record);
+        }
+        assertEquals(1, ring.getDroppedRecordsNumber());
+    }
+
+    @Test
+    void recordIsNotPolledBeforeItIsPublished() {
+        AccessLogRing ring = new AccessLogRing(CAPACITY);
+        AccessLogRecord firstRecord = ring.claim();
+        AccessLogRecord secondRecord = ring.claim();
+        firstRecord.setBytesFromClient(1);
+        secondRecord.setBytesFromClient(2);
+
+        // a later record published first waits for the earlier one
+        ring.publish(secondRecord);
+        assertNull(ring.poll());
+
+        ring.publish(firstRecord);
+        AccessLogRecord record = ring.poll();
+        assertEquals(1, record.getBytesFromClient());
+        ring.release(record);
+        record = ring.poll();
+        assertEquals(2, record.getBytesFromClient());
+        ring.release(record);
+        assertNull(ring.poll());
+    }
+
+    @Test
+    void concurrentProducersLoseNoRecords() throws InterruptedException {
+        int producersNumber = 4;
+        int recordsPerProducerNumber = 20000;
+        int recordsNumber = producersNumber * recordsPerProducerNumber;
+        AccessLogRing ring = new AccessLogRing(64);
+
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < producersNumber; ++i) {
+            int firstValue = i * recordsPerProducerNumber;
+            Thread producer = new Thread(() -> {
+                for (int j = 0; j < recordsPerProducerNumber; ++j) {
+                    AccessLogRecord record = ring.claim();
+                    if (record != null) {
+                        record.setBytesFromClient(firstValue + j);
+                        ring.publish(record);
+                    }
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+
+        // every value is either polled once or counted as dropped
+        BitSet polledValues = new BitSet(recordsNumber);
+        int polledRecordsNumber = 0;
+        while (polledRecordsNumber + ring.getDroppedRecordsNumber() < recordsNumber) {
+            AccessLogRecord record = ring.poll();
+            if (record == null) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            int value = (int) record.getBytesFromClient();
+            assertFalse(polledValues.get(value));
+            polledValues.set(value);
+            ++polledRecordsNumber;
+            ring.release(record);
+        }
+        for (Thread producer: producers) {
+            producer.join();
+        }
+
+        assertNull(ring.poll());
+        assertEquals(recordsNumber, polledRecordsNumber + ring.getDroppedRecordsNumber());
+    }
+
+    private static void publish(AccessLogRing ring, long value) {
+        AccessLogRecord record = ring.claim();
+        assertNotNull(record);
+        record.setBytesFromClient(value);
+        ring.publish(record);
+    }
+}
@@ -0,0 +1,177 @@
+package proxy.dns;
+
+import org.junit.jupiter.api.Test;
+import org.xbill.DNS.*;
+import org.xbill.DNS.Record;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DnsWireCodecTest {
+    private static final String HOSTNAME = "www.example.com";
+    private static final int QUERY_ID = 0x1234;
+    private static final long TTL = 300;
+
+    private final DnsWireResponse response = new DnsWireResponse();
+
+    @Test
+    void encodedQueryIsReadByDnsjava() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        DnsWireCodec.encodeQuery(buffer, QUERY_ID, HOSTNAME, DnsWireCodec.TYPE_AAAA);
+        buffer.flip();
+
+        Message query = new Message(Arrays.copyOf(buffer.array(), buffer.limit()));
+        assertEquals(QUERY_ID, query.getHeader().getID());
+        assertTrue(query.getHeader().getFlag(Flags.RD));
+        assertEquals(Name.fromString(HOSTNAME + "."), query.getQuestion().getName());
+        assertEquals(Type.AAAA, query.getQuestion().getType());
+        assertEquals(DClass.IN, query.getQuestion().getDClass());
+    }
+
+    @Test
+    void answerToEncodedQueryIsParsed() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        DnsWireCodec.encodeQuery(buffer, QUERY_ID, HOSTNAME, DnsWireCodec.TYPE_A);
+        buffer.flip();
+
+        Message message = new Message(Arrays.copyOf(buffer.array(), buffer.limit()));
+        message.getHeader().setFlag(Flags.QR);
+        Name name = message.getQuestion().getName();
+        message.addRecord(new ARecord(name, DClass.IN, TTL, address(10, 0, 0, 1)), Section.ANSWER);
+        message.addRecord(new ARecord(name, DClass.IN, TTL / 2, address(10, 0, 0, 2)), Section.ANSWER);
+
+        assertTrue(parse(message));
+        assertEquals(QUERY_ID, response.getID());
+        assertEquals(Rcode.NOERROR, response.getRcode());
+        assertTrue(response.isAnswerTo(HOSTNAME, DnsWireCodec.TYPE_A));
+        assertFalse(response.isAnswerTo(HOSTNAME, DnsWireCodec.TYPE_AAAA));
+        assertFalse(response.isAnswerTo("example.com", DnsWireCodec.TYPE_A));
+        assertEquals(2, response.getAddressesNumber());
+        assertEquals(address(10, 0, 0, 1), response.getAddress(0));
+        assertEquals(address(10, 0, 0, 2), response.getAddress(1));
+        assertEquals(TTL / 2, response.getMinTtl());
+    }
+
+    @Test
+    void questionNameIsNormalized() throws IOException {
+        Message message = createResponse("WWW.Example.COM", Type.A);
+        assertTrue(parse(message));
+        assertEquals(HOSTNAME, response.getQuestionName().toString());
+    }
+
+    @Test
+    void truncatedResponseIsRejected() throws IOException {
+        Message message = createResponse(HOSTNAME, Type.A);
+        Name name = message.getQuestion().getName();
+        message.addRecord(new ARecord(name, DClass.IN, TTL, address(10, 0, 0, 1)), Section.ANSWER);
+        message.addRecord(new AAAARecord(name, DClass.IN, TTL, InetAddress.getByName("::1")), Section.ANSWER);
+        byte[] wire = message.toWire();
+
+        for (int length = 0; length < wire.length; ++length) {
+            ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOf(wire, length));
+            assertFalse(DnsWireCodec.parseResponse(buffer, response), "length " + length);
+        }
+        assertTrue(DnsWireCodec.parseResponse(ByteBuffer.wrap(wire), response));
+    }
+
+    @Test
+    void queryIsNotTakenForResponse() throws IOException {
+        Message message = createResponse(HOSTNAME, Type.A);
+        message.getHeader().unsetFlag(Flags.QR);
+        assertFalse(parse(message));
+    }
+
+    @Test
+    void recordsOfOtherNamesAreIgnored() throws IOException {
+        Message message = createResponse(HOSTNAME, Type.A);
+        Name otherName = Name.fromString("other.example.com.");
+        message.addRecord(new ARecord(otherName, DClass.IN, TTL, address(10, 0, 0, 1)), Section.ANSWER);
+
+        assertTrue(parse(message));
+        assertEquals(0, response.getAddressesNumber());
+    }
+
+    @Test
+    void addressesOfCnameTargetsAreAccepted() throws IOException {
+        Message message = createResponse(HOSTNAME, Type.A);
+        Name name = message.getQuestion().getName();
+        Name firstTarget = Name.fromString("edge.cdn.example.net.");
+        Name secondTarget = Name.fromString("NODE.cdn.example.net.");
+        // the records come in reverse order and the target is in another case
+        message.addRecord(new ARecord(secondTarget, DClass.IN, TTL, address(10, 0, 0, 1)), Section.ANSWER);
+        message.addRecord(new CNAMERecord(firstTarget, DClass.IN, TTL, secondTarget), Section.ANSWER);
+        message.addRecord(new CNAMERecord(name, DClass.IN, TTL, firstTarget), Section.ANSWER);
+        message.addRecord(new ARecord(Name.fromString("unrelated.example.net."), DClass.IN, TTL, address(10, 0, 0, 2)),
+                Section.ANSWER);
+
+        assertTrue(parse(message));
+        assertEquals(1, response.getAddressesNumber());
+        assertEquals(address(10, 0, 0, 1), response.getAddress(0));
+    }
+
+    @Test
+    void negativeTtlIsTakenFromSoa() throws IOException {
+        Message message = createResponse(HOSTNAME, Type.A);
+        message.getHeader().setRcode(Rcode.NXDOMAIN);
+        Name zone = Name.fromString("example.com.");
+        message.addRecord(new SOARecord(
+                zone, DClass.IN, TTL, Name.fromString("ns.example.com."), Name.fromString("admin.example.com."),
+                1, 3600, 600, 86400, 60
+        ), Section.AUTHORITY);
+
+        assertTrue(parse(message));
+        assertEquals(Rcode.NXDOMAIN, response.getRcode());
+        assertEquals(0, response.getAddressesNumber());
+        assertTrue(response.hasNegativeTtl());
+        assertEquals(60, response.getNegativeTtl());
+    }
+
+    @Test
+    void compressionLoopIsRejected() {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        DnsWireCodec.encodeQuery(buffer, QUERY_ID, HOSTNAME, DnsWireCodec.TYPE_A);
+        int answerOffset = buffer.position();
+        // an answer whose owner name points at itself
+        buffer.putShort((short) (0xC000 | answerOffset));
+        buffer.putShort((short) DnsWireCodec.TYPE_A);
+        buffer.putShort((short) 1);
+        buffer.putInt((int) TTL);
+        buffer.putShort((short) 4);
+        buffer.put(new byte[]{10, 0, 0, 1});
+        buffer.flip();
+        buffer.putShort(2, (short) 0x8180);
+        buffer.putShort(6, (short) 1);
+
+        assertFalse(DnsWireCodec.parseResponse(buffer, response));
+    }
+
+    @Test
+    void hostnamesAreCheckedForEncodability() {
+        assertTrue(DnsWireCodec.isEncodable(HOSTNAME));
+        assertTrue(DnsWireCodec.isEncodable(HOSTNAME + "."));
+        assertFalse(DnsWireCodec.isEncodable(""));
+        assertFalse(DnsWireCodec.isEncodable("www..example.com"));
+        assertFalse(DnsWireCodec.isEncodable("a".repeat(64) + ".com"));
+        assertFalse(DnsWireCodec.isEncodable("b\u00fccher.example"));
+        assertFalse(DnsWireCodec.isEncodable(("a".repeat(63) + ".").repeat(4) + "com"));
+    }
+
+    private Message createResponse(String hostname, int type) throws TextParseException {
+        Message message = Message.newQuery(Record.newRecord(Name.fromString(hostname + "."), type, DClass.IN));
+        message.getHeader().setID(QUERY_ID);
+        message.getHeader().setFlag(Flags.QR);
+        return message;
+    }
+
+    private boolean parse(Message message) {
+        return DnsWireCodec.parseResponse(ByteBuffer.wrap(message.toWire()), response);
+    }
+
+    private static InetAddress address(int a, int b, int c, int d) throws IOException {
+        return InetAddress.getByAddress(new byte[]{(byte) a, (byte) b, (byte) c, (byte) d});
+    }
+}